@@ -1,5 +1,7 @@
 package net.cassite.vproxy.app;
 
+import net.cassite.vproxy.selector.TimerEngine;
+
 public class Config {
     // the default udpTimeout is the same as LVS
     // set it smaller if your environment have a smaller udp ttl
@@ -24,6 +26,65 @@ public class Config {
     // -D+A:AppClass
     public static final String appClass;
 
+    // the default timer engine of event loops
+    // the priority queue is good enough for a small amount of timers
+    // the timing wheel is better when there are lots of timers being added and canceled,
+    // e.g. one timeout for each connection
+    //
+    // use system property:
+    // -D+A:TimerEngine=queue|wheel
+    // -D+A:TimingWheelTick=$milliseconds
+    public static TimerEngine timerEngine = TimerEngine.queue;
+    public static int timingWheelTick = 1;
+
+    // whether event loops apply add/modify from other threads in batch on the loop thread
+    // instead of locking the selector and waking it up for every operation
+    //
+    // use system property:
+    // -D+A:DeferSelectorOperations=true|false
+    public static boolean deferSelectorOperations = false;
+
+    // replace the selected-key HashSet of the selectors with an array
+    //
+    // use system property:
+    // -D+A:OptimizeSelectedKeys=true|false
+    public static boolean optimizeSelectedKeys = false;
+
+    // the default max number of packets a udp server receives in one event loop round
+    // the left packets are received in the next round
+    //
+    // use system property:
+    // -D+A:UDPRecvPacketBudget=$n
+    public static int udpRecvPacketBudget = 64;
+
+    // record loop health histograms (select time, handling time, task time, timer lateness, ready keys)
+    // for each event loop, the overhead is a few System.nanoTime() calls in each iteration
+    //
+    // use system property:
+    // -D+A:EventLoopStatistics=true|false
+    public static boolean eventLoopStatistics = true;
+
+    // pool the direct buffers of ring buffers instead of allocating and cleaning them for each connection
+    // only power of 2 sizes from 1K to 1M are pooled
+    // disabled by default: the pooled memory is reused by other connections without being zeroed
+    // the cache sizes are bytes for each size class
+    //
+    // use system property:
+    // -D+A:DirectBufferPool=true|false
+    // -D+A:DirectBufferPoolThreadCacheSize=$bytes
+    // -D+A:DirectBufferPoolGlobalCacheSize=$bytes
+    public static boolean directBufferPool = false;
+    public static int directBufferPoolThreadCacheSize = 1024 * 1024;
+    public static int directBufferPoolGlobalCacheSize = 16 * 1024 * 1024;
+
+    // max bytes of direct memory held by ring buffers of the whole process
+    // new connections are rejected when there's no room for their buffers
+    // 0 means no limit
+    //
+    // use system property:
+    // -D+A:DirectMemoryBudget=$bytes
+    public static long directMemoryBudget = 0;
+
     static {
         String useDatagramChannel = System.getProperty("+A:UseDatagramChannel", "true");
         if (!useDatagramChannel.equals("true") && !useDatagramChannel.equals("false")) {
@@ -34,5 +95,83 @@ public class Config {
         }
 
         appClass = System.getProperty("+A:AppClass");
+
+        String timerEngine = System.getProperty("+A:TimerEngine", "queue");
+        try {
+            Config.timerEngine = TimerEngine.valueOf(timerEngine);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid +A:TimerEngine option");
+        }
+        String timingWheelTick = System.getProperty("+A:TimingWheelTick", "1");
+        try {
+            Config.timingWheelTick = Integer.parseInt(timingWheelTick);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid +A:TimingWheelTick option");
+        }
+        if (Config.timingWheelTick < 1) {
+            throw new IllegalArgumentException("invalid +A:TimingWheelTick option");
+        }
+
+        String deferSelectorOperations = System.getProperty("+A:DeferSelectorOperations", "false");
+        if (!deferSelectorOperations.equals("true") && !deferSelectorOperations.equals("false")) {
+            throw new IllegalArgumentException("invalid +A:DeferSelectorOperations option");
+        }
+        Config.deferSelectorOperations = deferSelectorOperations.equals("true");
+
+        String optimizeSelectedKeys = System.getProperty("+A:OptimizeSelectedKeys", "false");
+        if (!optimizeSelectedKeys.equals("true") && !optimizeSelectedKeys.equals("false")) {
+            throw new IllegalArgumentException("invalid +A:OptimizeSelectedKeys option");
+        }
+        Config.optimizeSelectedKeys = optimizeSelectedKeys.equals("true");
+
+        String udpRecvPacketBudget = System.getProperty("+A:UDPRecvPacketBudget", "64");
+        try {
+            Config.udpRecvPacketBudget = Integer.parseInt(udpRecvPacketBudget);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid +A:UDPRecvPacketBudget option");
+        }
+        if (Config.udpRecvPacketBudget < 1) {
+            throw new IllegalArgumentException("invalid +A:UDPRecvPacketBudget option");
+        }
+
+        String eventLoopStatistics = System.getProperty("+A:EventLoopStatistics", "true");
+        if (!eventLoopStatistics.equals("true") && !eventLoopStatistics.equals("false")) {
+            throw new IllegalArgumentException("invalid +A:EventLoopStatistics option");
+        }
+        Config.eventLoopStatistics = eventLoopStatistics.equals("true");
+
+        String directBufferPool = System.getProperty("+A:DirectBufferPool", "false");
+        if (!directBufferPool.equals("true") && !directBufferPool.equals("false")) {
+            throw new IllegalArgumentException("invalid +A:DirectBufferPool option");
+        }
+        Config.directBufferPool = directBufferPool.equals("true");
+        String directBufferPoolThreadCacheSize = System.getProperty("+A:DirectBufferPoolThreadCacheSize", "" + (1024 * 1024));
+        try {
+            Config.directBufferPoolThreadCacheSize = Integer.parseInt(directBufferPoolThreadCacheSize);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid +A:DirectBufferPoolThreadCacheSize option");
+        }
+        if (Config.directBufferPoolThreadCacheSize < 0) {
+            throw new IllegalArgumentException("invalid +A:DirectBufferPoolThreadCacheSize option");
+        }
+        String directBufferPoolGlobalCacheSize = System.getProperty("+A:DirectBufferPoolGlobalCacheSize", "" + (16 * 1024 * 1024));
+        try {
+            Config.directBufferPoolGlobalCacheSize = Integer.parseInt(directBufferPoolGlobalCacheSize);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid +A:DirectBufferPoolGlobalCacheSize option");
+        }
+        if (Config.directBufferPoolGlobalCacheSize < 0) {
+            throw new IllegalArgumentException("invalid +A:DirectBufferPoolGlobalCacheSize option");
+        }
+
+        String directMemoryBudget = System.getProperty("+A:DirectMemoryBudget", "0");
+        try {
+            Config.directMemoryBudget = Long.parseLong(directMemoryBudget);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid +A:DirectMemoryBudget option");
+        }
+        if (Config.directMemoryBudget < 0) {
+            throw new IllegalArgumentException("invalid +A:DirectMemoryBudget option");
+        }
     }
 }
@@ -31,9 +31,22 @@ public class TcpLBHolder {
                     int outBufferSize,
                     SecurityGroup securityGroup,
                     int persist) throws AlreadyExistException, IOException, ClosedException {
+        add(alias, acceptorEventLoopGroup, workerEventLoopGroup, bindAddress, backends, inBufferSize, outBufferSize, securityGroup, persist, false);
+    }
+
+    public void add(String alias,
+                    EventLoopGroup acceptorEventLoopGroup,
+                    EventLoopGroup workerEventLoopGroup,
+                    InetSocketAddress bindAddress,
+                    ServerGroups backends,
+                    int inBufferSize,
+                    int outBufferSize,
+                    SecurityGroup securityGroup,
+                    int persist,
+                    boolean reusePort) throws AlreadyExistException, IOException, ClosedException {
         if (map.containsKey(alias))
             throw new AlreadyExistException();
-        TcpLB tcpLB = new TcpLB(alias, acceptorEventLoopGroup, workerEventLoopGroup, bindAddress, backends, inBufferSize, outBufferSize, securityGroup, persist);
+        TcpLB tcpLB = new TcpLB(alias, acceptorEventLoopGroup, workerEventLoopGroup, bindAddress, backends, inBufferSize, outBufferSize, securityGroup, persist, reusePort);
         map.put(alias, tcpLB);
         tcpLB.start();
     }
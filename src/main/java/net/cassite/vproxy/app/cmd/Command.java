@@ -425,6 +425,11 @@ public class Command {
                     case r:
                         // not supported for these resources
                         throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                    case u:
+                        if (cmd.resource.type != ResourceType.bs)
+                            throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                        BindServerHandle.checkUpdateBindServer(cmd);
+                        break;
                     case R:
                         if (cmd.resource.type == ResourceType.bs)
                             throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
@@ -494,6 +499,27 @@ public class Command {
                         throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
                 }
                 break;
+            case acceptbudgetexhaustedcount: // accept-budget-exhausted-count
+            case recvpacketcount: // recv-packet-count
+            case recvdroppedcount: // recv-dropped-count
+            case recvbudgetexhaustedcount: // recv-budget-exhausted-count
+                switch (cmd.action) {
+                    case a:
+                    case r:
+                    case R:
+                        // modification not supported for statistics resources
+                        throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                    case L:
+                    case l:
+                        // can be found in bind-server
+                        if (targetResource == null)
+                            throw new Exception("cannot find " + cmd.resource.type.fullname + " on top level");
+                        BindServerHandle.checkBindServer(targetResource);
+                        break;
+                    default:
+                        throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
+                }
+                break;
             case persist:
                 switch (cmd.action) {
                     case a:
@@ -623,6 +649,26 @@ public class Command {
                         throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
                 }
                 break;
+            case bufferpool:
+                switch (cmd.action) {
+                    case L:
+                    case l:
+                        BufferPoolHandle.checkBufferPool(targetResource);
+                        break;
+                    default:
+                        throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                }
+                break;
+            case memorybudget:
+                switch (cmd.action) {
+                    case L:
+                    case l:
+                        MemoryBudgetResourceHandle.checkMemoryBudget(targetResource);
+                        break;
+                    default:
+                        throw new Exception("cannot run " + cmd.action.fullname + " on " + cmd.resource.type.fullname);
+                }
+                break;
             case sgs: // server groups
             case tl: // tcp lb
             case socks5: // socks5 server
@@ -648,13 +694,17 @@ public class Command {
                                 Socks5ServerHandle.checkCreateSocks5Server(cmd);
                             } else if (cmd.resource.type == ResourceType.secg) {
                                 SecurityGroupHandle.checkCreateSecurityGroup(cmd);
-                            } // the other two does not need check
+                            } else if (cmd.resource.type == ResourceType.elg) {
+                                EventLoopGroupHandle.checkCreateEventLoopGroup(cmd);
+                            }
                         }
                         if (cmd.action == Action.u) {
                             if (cmd.resource.type == ResourceType.tl) {
                                 TcpLBHandle.checkUpdateTcpLB(cmd);
                             } else if (cmd.resource.type == ResourceType.socks5) {
                                 Socks5ServerHandle.checkUpdateSocks5Server(cmd);
+                            } else if (cmd.resource.type == ResourceType.elg) {
+                                EventLoopGroupHandle.checkUpdateEventLoopGroup(cmd);
                             } else
                                 throw new Exception("unsupported action " + cmd.action.fullname + " for " + cmd.resource.type.fullname);
                         }
@@ -759,6 +809,9 @@ public class Command {
                         List<BindServer> bsList = BindServerHandle.list(targetResource);
                         List<String> bsStrList = bsList.stream().map(BindServer::id).collect(Collectors.toList());
                         return new CmdResult(bsList, bsStrList, utilJoinList(bsList));
+                    case u:
+                        BindServerHandle.update(this);
+                        return new CmdResult();
                 }
             case bin:
                 switch (action) {
@@ -781,6 +834,34 @@ public class Command {
                         long acc = StatisticHandle.acceptedConnCount(targetResource);
                         return new CmdResult(acc, acc, "" + acc);
                 }
+            case acceptbudgetexhaustedcount:
+                switch (action) {
+                    case l:
+                    case L:
+                        long exhausted = StatisticHandle.acceptBudgetExhaustedCount(targetResource);
+                        return new CmdResult(exhausted, exhausted, "" + exhausted);
+                }
+            case recvpacketcount:
+                switch (action) {
+                    case l:
+                    case L:
+                        long recvPackets = StatisticHandle.recvPacketCount(targetResource);
+                        return new CmdResult(recvPackets, recvPackets, "" + recvPackets);
+                }
+            case recvdroppedcount:
+                switch (action) {
+                    case l:
+                    case L:
+                        long recvDropped = StatisticHandle.recvDroppedCount(targetResource);
+                        return new CmdResult(recvDropped, recvDropped, "" + recvDropped);
+                }
+            case recvbudgetexhaustedcount:
+                switch (action) {
+                    case l:
+                    case L:
+                        long recvExhausted = StatisticHandle.recvBudgetExhaustedCount(targetResource);
+                        return new CmdResult(recvExhausted, recvExhausted, "" + recvExhausted);
+                }
             case persist:
                 switch (action) {
                     case l:
@@ -838,12 +919,18 @@ public class Command {
             case elg: // top level
                 switch (action) {
                     case l:
-                    case L:
                         List<String> elgNames = EventLoopGroupHandle.names();
                         return new CmdResult(elgNames, elgNames, utilJoinList(elgNames));
+                    case L:
+                        List<EventLoopGroupHandle.EventLoopGroupRef> elgRefs = EventLoopGroupHandle.details();
+                        List<String> elgRefStrList = elgRefs.stream().map(EventLoopGroupHandle.EventLoopGroupRef::toString).collect(Collectors.toList());
+                        return new CmdResult(elgRefs, elgRefStrList, utilJoinList(elgRefStrList));
                     case a:
                         EventLoopGroupHandle.add(this);
                         return new CmdResult();
+                    case u:
+                        EventLoopGroupHandle.update(this);
+                        return new CmdResult();
                     case r:
                         EventLoopGroupHandle.preCheck(this);
                     case R:
@@ -853,9 +940,12 @@ public class Command {
             case el: // can only be retrieved from event loop group
                 switch (action) {
                     case l:
-                    case L:
                         List<String> elNames = EventLoopHandle.names(targetResource);
                         return new CmdResult(elNames, elNames, utilJoinList(elNames));
+                    case L:
+                        List<EventLoopHandle.EventLoopRef> elRefs = EventLoopHandle.details(targetResource);
+                        List<String> elRefStrList = elRefs.stream().map(EventLoopHandle.EventLoopRef::toString).collect(Collectors.toList());
+                        return new CmdResult(elRefs, elRefStrList, utilJoinList(elRefStrList));
                     case a:
                         EventLoopHandle.add(this);
                         return new CmdResult();
@@ -979,6 +1069,26 @@ public class Command {
                         DnsCacheHandle.remove(this);
                         return new CmdResult();
                 }
+            case bufferpool:
+                switch (action) {
+                    case l:
+                        List<String> sizeNames = BufferPoolHandle.names();
+                        return new CmdResult(sizeNames, sizeNames, utilJoinList(sizeNames));
+                    case L:
+                        List<BufferPoolHandle.BufferPoolRef> poolRefs = BufferPoolHandle.details();
+                        List<String> poolRefStrList = poolRefs.stream().map(BufferPoolHandle.BufferPoolRef::toString).collect(Collectors.toList());
+                        return new CmdResult(poolRefs, poolRefStrList, utilJoinList(poolRefStrList));
+                }
+            case memorybudget:
+                switch (action) {
+                    case l:
+                        List<String> budgetNames = MemoryBudgetResourceHandle.names();
+                        return new CmdResult(budgetNames, budgetNames, utilJoinList(budgetNames));
+                    case L:
+                        List<MemoryBudgetResourceHandle.MemoryBudgetRef> budgetRefs = MemoryBudgetResourceHandle.details();
+                        List<String> budgetRefStrList = budgetRefs.stream().map(MemoryBudgetResourceHandle.MemoryBudgetRef::toString).collect(Collectors.toList());
+                        return new CmdResult(budgetRefs, budgetRefStrList, utilJoinList(budgetRefStrList));
+                }
             case autolb:
                 switch (action) {
                     case l:
@@ -6,6 +6,12 @@ public enum Flag {
 
     allownonbackend("allow-non-backend"),
     denynonbackend("deny-non-backend"),
+
+    reuseport("reuse-port"),
+    handleonacceptor("handle-on-acceptor"),
+    handleonworker("handle-on-worker"),
+    lazybuffer("lazy-buffer"),
+    eagerbuffer("eager-buffer"),
     ;
     public final String fullname;
 
@@ -390,12 +390,21 @@ public class HelpCommand {
         inbuffersize("in-buffer-size", null, "in buffer size"),
         outbuffersize("out-buffer-size", null, "out buffer size"),
         persist("persist", null, "connector persist timeout"),
+        acceptbudget("accept-budget", null, "max connections to accept in one event loop round"),
+        iobudget("io-budget", null, "max bytes to read or write for one connection in one event loop round"),
+        corkthreshold("cork-threshold", null, "writes smaller than the threshold are deferred to the end of the event loop round"),
+        recvpacketbudget("recv-packet-budget", null, "max udp packets to receive in one event loop round"),
+        minbuffersize("min-buffer-size", null, "the initial and minimum size of adaptive connection buffers"),
+        memorybudget("memory-budget", null, "max bytes of direct memory held by connection buffers"),
+        highwatermark("high-watermark", null, "percentage of the buffer capacity to stop reading"),
+        lowwatermark("low-watermark", null, "percentage of the buffer capacity to continue reading"),
         securitygroup("security-group", "secg", "security group"),
         timeout("timeout", null, "health check timeout"),
         period("period", null, "health check period"),
         up("up", null, "health check up times"),
         down("down", null, "health check down times"),
         method("method", "meth", "method to retrieve a server"),
+        policy("policy", null, "policy to choose an event loop"),
         weight("weight", "w", "weight"),
         ip("ip", "via", "ip address"),
         dft("default", null, "enum: allow or deny"),
@@ -422,6 +431,11 @@ public class HelpCommand {
         noipv6("noipv6", null, "do not use ipv6 address. Use with address|ip|via"),
         allownonbackend("allow-non-backend", null, "allow to access non backend endpoints"),
         denynonbackend("deny-non-backend", null, "only able to access backend endpoints"),
+        reuseport("reuse-port", null, "let every acceptor event loop listen on the address with its own SO_REUSEPORT socket"),
+        handleonacceptor("handle-on-acceptor", null, "handle connections on the acceptor event loop which accepts them"),
+        handleonworker("handle-on-worker", null, "dispatch connections to the worker event loops"),
+        lazybuffer("lazy-buffer", null, "hold memory of connection buffers only when there are bytes in flight"),
+        eagerbuffer("eager-buffer", null, "hold memory of connection buffers until the connection closes"),
         ;
         public final String flag;
         public final String shortVer;
@@ -445,12 +459,30 @@ public class HelpCommand {
                     , new ResActParamMan(ParamMan.inbuffersize, "input buffer size", "16384 (bytes)")
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "16384 (bytes)")
                     , new ResActParamMan(ParamMan.persist, "an integer representing the timeout (ms) of how long to persist a connector for a client ip", "0, means do not persist")
+                    , new ResActParamMan(ParamMan.acceptbudget, "max connections to accept when the listening socket fires, the rest are accepted in the next loop round", "64")
+                    , new ResActParamMan(ParamMan.iobudget, "max bytes to read or write when a connection fires, the rest are handled in the next loop round", "0, means no limit except the buffer size")
+                    , new ResActParamMan(ParamMan.corkthreshold, "writes smaller than the threshold are deferred to the end of the event loop round, so small chunks stored in one round are sent with one call, the bytes are sent as soon as they reach the threshold", "0, means writing immediately")
+                    , new ResActParamMan(ParamMan.minbuffersize, "enable adaptive buffers: the buffers start from this size, grow when they are filled up and shrink when the usage is low, bounded by in-buffer-size and out-buffer-size", "0, means the buffer sizes are fixed")
+                    , new ResActParamMan(ParamMan.memorybudget, "max bytes of direct memory held by buffers of the lb, new connections are rejected when their buffers cannot fit in", "0, means only limited by the global budget")
+                    , new ResActParamMan(ParamMan.highwatermark, "stop reading from a connection when its input buffer reaches this percentage of the capacity", "100")
+                    , new ResActParamMan(ParamMan.lowwatermark, "continue reading when the buffer falls to this percentage of the capacity, a lower value reduces pausing and resuming for bulk transfer. should not be greater than high-watermark", "same as high-watermark, means continue as soon as there's free space")
                     , new ResActParamMan(ParamMan.securitygroup, "specify a security group for the lb", "allow any")
                 ),
-                Collections.singletonList(
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.reuseport, "every event loop in the acceptor event loop group listens on the address with its own socket, and the kernel spreads new connections among them. requires SO_REUSEPORT support of the jdk and the os", false),
+                    new ResActFlagMan(FlagMan.handleonacceptor, "handle connections end-to-end on the acceptor event loop which accepts them, without registering them into a worker event loop. use with reuse-port to let every loop accept and handle its own share", false),
+                    new ResActFlagMan(FlagMan.handleonworker, "dispatch connections to the worker event loop group", true),
+                    new ResActFlagMan(FlagMan.lazybuffer, "buffers of a connection take memory from the buffer pool only when the connection is readable or has pending output, and return it when drained. the pool is used for lazy buffers even when +A:DirectBufferPool is not enabled, so buffer sizes should be powers of 2 between 1K and 1M. saves memory when most connections are idle", false),
+                    new ResActFlagMan(FlagMan.eagerbuffer, "buffers of a connection hold memory until the connection closes", true)
+                ),
+                Arrays.asList(
                     new Tuple<>(
                         "add tcp-lb lb0 acceptor-elg elg0 event-loop-group elg0 address 127.0.0.1:18080 server-groups sgs0 in-buffer-size 16384 out-buffer-size 16384",
                         "\"OK\""
+                    ),
+                    new Tuple<>(
+                        "add tcp-lb lb1 acceptor-elg elg0 event-loop-group elg0 address 127.0.0.1:18081 server-groups sgs0 reuse-port",
+                        "\"OK\""
                     )
                 ))
             , new ResActMan(ActMan.list, "retrieve names of all tcp-loadbalancers",
@@ -466,14 +498,27 @@ public class HelpCommand {
                 Collections.singletonList(
                     new Tuple<>(
                         "list-detail tcp-lb",
-                        "1) \"lb0 -> acceptor elg0 worker elg0 bind 127.0.0.1:18080 backends sgs0 in buffer size 16384 out buffer size 16384 persist 0 security-group secg0\""
+                        "1) \"lb0 -> acceptor elg0 worker elg0 bind 127.0.0.1:18080 backends sgs0 in buffer size 16384 out buffer size 16384 min buffer size 0 buffer grow 0 shrink 0 persist 0 accept-budget 64 io-budget 0 cork-threshold 0 memory-budget 0 memory-used 32768 high-water 65536 rejected 0 high-watermark 100 low-watermark 100 security-group secg0 handle-on-worker eager-buffer\""
                     )
                 ))
-            , new ResActMan(ActMan.update, "update persist, in-buffer-size or out-buffer-size of an lb",
+            , new ResActMan(ActMan.update, "update persist, in-buffer-size, out-buffer-size, accept-budget, io-budget, cork-threshold, min-buffer-size, memory-budget, watermarks, where to handle connections or how to hold buffers of an lb",
                 Arrays.asList(
                     new ResActParamMan(ParamMan.inbuffersize, "input buffer size", "not changed")
                     , new ResActParamMan(ParamMan.outbuffersize, "output buffer size", "not changed")
                     , new ResActParamMan(ParamMan.persist, "an integer representing the timeout (ms) of how long to persist a connector for a client ip", "not changed")
+                    , new ResActParamMan(ParamMan.acceptbudget, "max connections to accept in one event loop round", "not changed")
+                    , new ResActParamMan(ParamMan.iobudget, "max bytes to read or write for one connection in one event loop round, only effects new connections", "not changed")
+                    , new ResActParamMan(ParamMan.corkthreshold, "writes smaller than the threshold are deferred to the end of the event loop round, only effects new connections", "not changed")
+                    , new ResActParamMan(ParamMan.minbuffersize, "the initial and minimum size of adaptive buffers, 0 for fixed sizes, only effects new connections", "not changed")
+                    , new ResActParamMan(ParamMan.memorybudget, "max bytes of direct memory held by buffers of the lb, 0 for only limited by the global budget", "not changed")
+                    , new ResActParamMan(ParamMan.highwatermark, "percentage of the buffer capacity to stop reading, only effects new connections", "not changed")
+                    , new ResActParamMan(ParamMan.lowwatermark, "percentage of the buffer capacity to continue reading, only effects new connections", "not changed")
+                ),
+                Arrays.asList(
+                    new ResActFlagMan(FlagMan.handleonacceptor, "handle new connections on the acceptor event loop which accepts them", false),
+                    new ResActFlagMan(FlagMan.handleonworker, "dispatch new connections to the worker event loop group", false),
+                    new ResActFlagMan(FlagMan.lazybuffer, "new connections hold buffer memory only when there are bytes in flight", false),
+                    new ResActFlagMan(FlagMan.eagerbuffer, "new connections hold buffer memory until they close", false)
                 ),
                 Collections.singletonList(
                     new Tuple<>(
@@ -554,23 +599,40 @@ public class HelpCommand {
         eventloopgroup("event-loop-group", "elg", "a group of event loops",
             Arrays.asList(
                 new ResActMan(ActMan.add, "specify a name and create a event loop group",
-                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new ResActParamMan(ParamMan.policy, "the policy to choose an event loop when a new connection comes: " +
+                            "rr (round robin), lc (least registered channels), lbt (least recent busy time), p2c (power of two choices by registered channels)", "rr")
+                    ),
                     Collections.singletonList(
                         new Tuple<>(
-                            "add event-loop-group elg0",
+                            "add event-loop-group elg0 policy lc",
                             "\"OK\""
                         )
                     )),
                 new ResActMan(ActMan.list, "retrieve names of all event loop groups",
                     Collections.emptyList(),
-                    Arrays.asList(
+                    Collections.singletonList(
                         new Tuple<>(
                             "list event-loop-group",
                             "1) \"elg0\""
-                        ),
+                        )
+                    )),
+                new ResActMan(ActMan.listdetail, "retrieve detailed info of all event loop groups",
+                    Collections.emptyList(),
+                    Collections.singletonList(
                         new Tuple<>(
                             "list-detail event-loop-group",
-                            "1) \"elg0\""
+                            "1) \"elg0 -> policy lc\\n    el0\\n    el1\""
+                        )
+                    )),
+                new ResActMan(ActMan.update, "change the policy of an event loop group",
+                    Collections.singletonList(
+                        new ResActParamMan(ParamMan.policy, "the policy to choose an event loop", "not changed")
+                    ),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "update event-loop-group elg0 policy p2c",
+                            "\"OK\""
                         )
                     )),
                 new ResActMan(ActMan.remove, "Remove a event loop group",
@@ -621,7 +683,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.period, "do check every `${period}` milliseconds"),
                         new ResActParamMan(ParamMan.up, "set server status to UP after succeeded for `${up}` times"),
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, `wrr` or `wlc`", "wrr"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, `wrr`, `wlc`, `maglev`, `p2c` or `ewma`. `maglev` chooses servers by hashing the client ip, `p2c` chooses the one with less connections per weight from two sampled servers, `ewma` chooses by connect latency and connections per weight", "wrr"),
                         new ResActParamMan(ParamMan.eventloopgroup, "choose a event-loop-group for the server group. health check operations will be performed on the event loop group")
                     ),
                     Collections.singletonList(
@@ -674,7 +736,7 @@ public class HelpCommand {
                         new ResActParamMan(ParamMan.period, "do check every `${period}` milliseconds", "not changed"),
                         new ResActParamMan(ParamMan.up, "set server status to UP after succeeded for `${up}` times", "not changed"),
                         new ResActParamMan(ParamMan.down, "set server status to DOWN after failed for `${down}` times", "not changed"),
-                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, `wrr` or `wlc`", "not changed"),
+                        new ResActParamMan(ParamMan.method, "loadbalancing algorithm, `wrr`, `wlc`, `maglev`, `p2c` or `ewma`", "not changed"),
                         new ResActParamMan(ParamMan.weight, "the weight of group in this server-groups resource", "not changed")
                     ),
                     Arrays.asList(
@@ -720,14 +782,18 @@ public class HelpCommand {
                     )),
                 new ResActMan(ActMan.list, "retrieve names of all event loops in a event loop group",
                     Collections.emptyList(),
-                    Arrays.asList(
+                    Collections.singletonList(
                         new Tuple<>(
                             "list event-loop in event-loop-group elg0",
                             "1) \"el0\""
-                        ),
+                        )
+                    )),
+                new ResActMan(ActMan.listdetail, "retrieve health histograms of all event loops in a event loop group: time blocked in select, time handling selected keys, time running tasks and timers, timer lateness and ready keys of each loop iteration in the last 10-second window, how many times the interest ops of channels are changed, and how many selector wakeups are issued or suppressed by tasks from other threads",
+                    Collections.emptyList(),
+                    Collections.singletonList(
                         new Tuple<>(
                             "list-detail event-loop in event-loop-group elg0",
-                            "1) \"el0\""
+                            "1) \"el0 -> select (count 1520 avg 1310us p50 1023us p99 8191us max 9985us) handling (count 1520 avg 12us p50 7us p99 127us max 301us) tasks (count 1520 avg 3us p50 1us p99 63us max 120us) timer-lateness (count 402 avg 0ms p50 0ms p99 1ms max 2ms) ready-keys (count 1520 avg 1 p50 1 p99 3 max 5) interest-ops-changes 3042 wakeups 503 suppressed-wakeups 1270\""
                         )
                     )),
                 new ResActMan(ActMan.removefrom, "remove a event loop from event loop group",
@@ -766,7 +832,7 @@ public class HelpCommand {
                     Collections.singletonList(
                         new Tuple<>(
                             "list-detail server in server-group sg0",
-                            "1) \"svr0 -> connect to 127.0.0.1:6379 via 127.0.0.1 weight 10 currently DOWN\""
+                            "1) \"svr0 -> connect to 127.0.0.1:6379 via 127.0.0.1 weight 10 connect-ewma 0us currently DOWN\""
                         )
                     )),
                 new ResActMan(ActMan.update, "change weight of the server",
@@ -931,6 +997,67 @@ public class HelpCommand {
                         )
                     ))
             )),
+        bufferpool("buffer-pool", null, "The pool of direct buffers used by ring buffers. Buffers are cached by size classes (power of 2 from 1K to 1M). It's read only and on top level",
+            Arrays.asList(
+                new ResActMan(ActMan.list, "list the size classes of the pool",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list buffer-pool",
+                            "1) \"1024\"\n" +
+                                "2) \"2048\"\n" +
+                                "...\n" +
+                                "11) \"1048576\""
+                        )
+                    )),
+                new ResActMan(ActMan.listdetail, "get statistics of each size class.\n" +
+                    "\n" +
+                    "The return values are:\n" +
+                    "\n" +
+                    "size of the buffers.\n" +
+                    "count of allocations served from the caches.\n" +
+                    "count of allocations which required new direct memory.\n" +
+                    "bytes of buffers being used.\n" +
+                    "bytes of buffers cached in the pool",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list-detail buffer-pool",
+                            "1) \"1024 -> hit 0 miss 0 outstanding-bytes 0 pooled-bytes 0\"\n" +
+                                "...\n" +
+                                "5) \"16384 -> hit 1832 miss 20 outstanding-bytes 262144 pooled-bytes 65536\"\n" +
+                                "..."
+                        )
+                    ))
+            )),
+        memorybudget("memory-budget", null, "Direct memory held by ring buffers, of the whole process (global) and of each tcp-lb. It's read only and on top level",
+            Arrays.asList(
+                new ResActMan(ActMan.list, "list names of the budgets",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list memory-budget",
+                            "1) \"global\"\n" +
+                                "2) \"lb0\""
+                        )
+                    )),
+                new ResActMan(ActMan.listdetail, "get usage of each budget.\n" +
+                    "\n" +
+                    "The return values are:\n" +
+                    "\n" +
+                    "max bytes, 0 means no limit.\n" +
+                    "bytes being held by buffers.\n" +
+                    "max bytes ever held by buffers.\n" +
+                    "count of connections rejected because the budget is exhausted",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list-detail memory-budget",
+                            "1) \"global -> limit 67108864 used 32768 high-water 65536 rejected 0\"\n" +
+                                "2) \"lb0 -> limit 0 used 32768 high-water 65536 rejected 0\""
+                        )
+                    ))
+            )),
         bindserver("bind-server", "bs", "represents a `ServerSocketChannel`, which binds an ip:port",
             Arrays.asList(
                 new ResActMan(ActMan.list, "count bind servers",
@@ -964,6 +1091,16 @@ public class HelpCommand {
                             "list-detail bind-server in socks5-server s5",
                             "1) \"127.0.0.1:18081\""
                         )
+                    )),
+                new ResActMan(ActMan.update, "change the recv packet budget of a udp bind server",
+                    Collections.singletonList(
+                        new ResActParamMan(ParamMan.recvpacketbudget, "max udp packets to receive when the socket fires, the rest are received in the next loop round", "not changed")
+                    ),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "update bind-server 127.0.0.1:53 in el el0 in elg elg0 recv-packet-budget 128",
+                            "\"OK\""
+                        )
                     ))
             )),
         connection("connection", "conn", "represents a `SocketChannel`",
@@ -1121,6 +1258,50 @@ public class HelpCommand {
                         )
                     ))
             )),
+        acceptbudgetexhaustedcount("accept-budget-exhausted-count", null, "Statistics: how many times the accept budget is used up in one event loop round",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get history total count of accept budget exhausted",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list accept-budget-exhausted-count in bind-server 127.0.0.1:6380 in tl lb0",
+                            "(integer) 0"
+                        )
+                    ))
+            )),
+        recvpacketcount("recv-packet-count", null, "Statistics: udp packets received and dispatched by a bind server",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get history total count of received udp packets",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list recv-packet-count in bind-server 127.0.0.1:53 in el el0 in elg elg0",
+                            "(integer) 1024"
+                        )
+                    ))
+            )),
+        recvdroppedcount("recv-dropped-count", null, "Statistics: udp packets received but dropped because they failed to be dispatched",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get history total count of dropped udp packets",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list recv-dropped-count in bind-server 127.0.0.1:53 in el el0 in elg elg0",
+                            "(integer) 0"
+                        )
+                    ))
+            )),
+        recvbudgetexhaustedcount("recv-budget-exhausted-count", null, "Statistics: how many times the recv packet budget is used up in one event loop round",
+            Collections.singletonList(
+                new ResActMan(ActMan.list, "get history total count of recv packet budget exhausted",
+                    Collections.emptyList(),
+                    Collections.singletonList(
+                        new Tuple<>(
+                            "list recv-budget-exhausted-count in bind-server 127.0.0.1:53 in el el0 in elg elg0",
+                            "(integer) 0"
+                        )
+                    ))
+            )),
         autolb("auto-lb", null, "A loadbalancer that learns node changes and automatically updates its backend server list. Only available in service mesh mode",
             Arrays.asList(
                 new ResActMan(ActMan.add, "create a new auto-lb instance",
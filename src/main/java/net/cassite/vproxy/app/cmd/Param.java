@@ -20,6 +20,15 @@ public enum Param {
     protocol("protocol"),
     portrange("port-range"),
     persist("persist"),
+    acceptbudget("accept-budget"),
+    iobudget("io-budget"),
+    corkthreshold("cork-threshold"),
+    recvpacketbudget("recv-packet-budget"),
+    minbuffersize("min-buffer-size"),
+    memorybudget("memory-budget"),
+    highwatermark("high-watermark"),
+    lowwatermark("low-watermark"),
+    policy("policy"),
 
     service("service"),
     zone("zone"),
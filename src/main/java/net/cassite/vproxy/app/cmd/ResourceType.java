@@ -14,11 +14,17 @@ public enum ResourceType {
     bin("bytes-in"),
     bout("bytes-out"),
     acceptedconncount("accepted-conn-count"),
+    acceptbudgetexhaustedcount("accept-budget-exhausted-count"),
+    recvpacketcount("recv-packet-count"),
+    recvdroppedcount("recv-dropped-count"),
+    recvbudgetexhaustedcount("recv-budget-exhausted-count"),
     secg("security-group"),
     secgr("security-group-rule"),
     persist("persist"),
     resolver("resolver"),
     dnscache("dns-cache"),
+    bufferpool("buffer-pool"),
+    memorybudget("memory-budget"),
     autolb("auto-lb"),
 
     respcontroller("resp-controller"),
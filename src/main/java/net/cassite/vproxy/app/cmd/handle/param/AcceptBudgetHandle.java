@@ -0,0 +1,24 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+
+public class AcceptBudgetHandle {
+    private AcceptBudgetHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        int budget;
+        try {
+            budget = get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.acceptbudget.fullname);
+        }
+        if (budget < 1)
+            throw new Exception("invalid " + Param.acceptbudget.fullname + ", should be at least 1");
+    }
+
+    public static int get(Command cmd) {
+        return Integer.parseInt(cmd.args.get(Param.acceptbudget));
+    }
+}
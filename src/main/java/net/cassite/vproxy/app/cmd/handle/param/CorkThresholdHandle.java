@@ -0,0 +1,24 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+
+public class CorkThresholdHandle {
+    private CorkThresholdHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        int threshold;
+        try {
+            threshold = get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.corkthreshold.fullname);
+        }
+        if (threshold < 0)
+            throw new Exception("invalid " + Param.corkthreshold.fullname + ", should not be negative");
+    }
+
+    public static int get(Command cmd) {
+        return Integer.parseInt(cmd.args.get(Param.corkthreshold));
+    }
+}
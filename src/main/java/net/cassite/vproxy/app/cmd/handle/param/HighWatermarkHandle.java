@@ -0,0 +1,24 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+
+public class HighWatermarkHandle {
+    private HighWatermarkHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        int watermark;
+        try {
+            watermark = get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.highwatermark.fullname);
+        }
+        if (watermark < 1 || watermark > 100)
+            throw new Exception("invalid " + Param.highwatermark.fullname + ", should be a percentage from 1 to 100");
+    }
+
+    public static int get(Command cmd) {
+        return Integer.parseInt(cmd.args.get(Param.highwatermark));
+    }
+}
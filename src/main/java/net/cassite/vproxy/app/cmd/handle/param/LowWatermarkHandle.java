@@ -0,0 +1,24 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+
+public class LowWatermarkHandle {
+    private LowWatermarkHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        int watermark;
+        try {
+            watermark = get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.lowwatermark.fullname);
+        }
+        if (watermark < 0 || watermark > 100)
+            throw new Exception("invalid " + Param.lowwatermark.fullname + ", should be a percentage from 0 to 100");
+    }
+
+    public static int get(Command cmd) {
+        return Integer.parseInt(cmd.args.get(Param.lowwatermark));
+    }
+}
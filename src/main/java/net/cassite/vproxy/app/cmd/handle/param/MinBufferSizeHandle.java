@@ -0,0 +1,24 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+
+public class MinBufferSizeHandle {
+    private MinBufferSizeHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        int size;
+        try {
+            size = get(cmd);
+        } catch (Exception e) {
+            throw new Exception("invalid " + Param.minbuffersize.fullname);
+        }
+        if (size < 0)
+            throw new Exception("invalid " + Param.minbuffersize.fullname + ", should not be negative");
+    }
+
+    public static int get(Command cmd) {
+        return Integer.parseInt(cmd.args.get(Param.minbuffersize));
+    }
+}
@@ -0,0 +1,23 @@
+package net.cassite.vproxy.app.cmd.handle.param;
+
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
+import net.cassite.vproxy.component.elgroup.LoopSelectPolicy;
+
+public class PolicyHandle {
+    private PolicyHandle() {
+    }
+
+    public static void check(Command cmd) throws Exception {
+        get(cmd);
+    }
+
+    public static LoopSelectPolicy get(Command cmd) throws Exception {
+        String policy = cmd.args.get(Param.policy);
+        try {
+            return LoopSelectPolicy.valueOf(policy);
+        } catch (IllegalArgumentException e) {
+            throw new Exception("invalid " + Param.policy.fullname);
+        }
+    }
+}
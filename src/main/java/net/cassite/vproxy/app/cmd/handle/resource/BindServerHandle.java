@@ -1,7 +1,10 @@
 package net.cassite.vproxy.app.cmd.handle.resource;
 
+import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
+import net.cassite.vproxy.app.cmd.handle.param.RecvPacketBudgetHandle;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.connection.BindServer;
 
@@ -27,6 +30,18 @@ public class BindServerHandle {
         }
     }
 
+    public static void checkUpdateBindServer(Command cmd) throws Exception {
+        checkBindServer(cmd.resource);
+        if (!cmd.args.containsKey(Param.recvpacketbudget))
+            throw new Exception("missing argument " + Param.recvpacketbudget.fullname);
+        RecvPacketBudgetHandle.check(cmd);
+    }
+
+    public static void update(Command cmd) throws Exception {
+        BindServer bs = get(cmd.resource);
+        bs.setRecvPacketBudget(RecvPacketBudgetHandle.get(cmd));
+    }
+
     public static BindServer get(Resource svr) throws Exception {
         return list(svr.parentResource)
             .stream()
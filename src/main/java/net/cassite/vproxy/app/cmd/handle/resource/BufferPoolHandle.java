@@ -0,0 +1,48 @@
+package net.cassite.vproxy.app.cmd.handle.resource;
+
+import net.cassite.vproxy.app.cmd.Resource;
+import net.cassite.vproxy.app.cmd.ResourceType;
+import net.cassite.vproxy.util.DirectBufferPool;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class BufferPoolHandle {
+    private BufferPoolHandle() {
+    }
+
+    public static void checkBufferPool(Resource parent) throws Exception {
+        if (parent != null)
+            throw new Exception(ResourceType.bufferpool.fullname + " is on top level");
+    }
+
+    public static List<String> names() {
+        List<String> names = new LinkedList<>();
+        for (DirectBufferPool.Statistics s : DirectBufferPool.statistics()) {
+            names.add("" + s.size);
+        }
+        return names;
+    }
+
+    public static List<BufferPoolRef> details() {
+        List<BufferPoolRef> result = new LinkedList<>();
+        for (DirectBufferPool.Statistics s : DirectBufferPool.statistics()) {
+            result.add(new BufferPoolRef(s));
+        }
+        return result;
+    }
+
+    public static class BufferPoolRef {
+        public final DirectBufferPool.Statistics stat;
+
+        public BufferPoolRef(DirectBufferPool.Statistics stat) {
+            this.stat = stat;
+        }
+
+        @Override
+        public String toString() {
+            return stat.size + " -> hit " + stat.hit + " miss " + stat.miss
+                + " outstanding-bytes " + stat.outstandingBytes + " pooled-bytes " + stat.pooledBytes;
+        }
+    }
+}
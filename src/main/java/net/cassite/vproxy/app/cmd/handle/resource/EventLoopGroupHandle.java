@@ -3,10 +3,13 @@ package net.cassite.vproxy.app.cmd.handle.resource;
 import net.cassite.vproxy.app.Application;
 import net.cassite.vproxy.app.cmd.Command;
 import net.cassite.vproxy.app.cmd.Resource;
+import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.ResourceType;
+import net.cassite.vproxy.app.cmd.handle.param.PolicyHandle;
 import net.cassite.vproxy.component.app.TcpLB;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 
+import java.util.LinkedList;
 import java.util.List;
 
 public class EventLoopGroupHandle {
@@ -18,6 +21,16 @@ public class EventLoopGroupHandle {
             throw new Exception(eventLoopGroup.type.fullname + " is on top level");
     }
 
+    public static void checkCreateEventLoopGroup(Command cmd) throws Exception {
+        if (cmd.args.containsKey(Param.policy))
+            PolicyHandle.check(cmd);
+    }
+
+    public static void checkUpdateEventLoopGroup(Command cmd) throws Exception {
+        if (cmd.args.containsKey(Param.policy))
+            PolicyHandle.check(cmd);
+    }
+
     public static EventLoopGroup get(Resource resource) throws Exception {
         return get(resource.alias);
     }
@@ -30,8 +43,26 @@ public class EventLoopGroupHandle {
         return Application.get().eventLoopGroupHolder.names();
     }
 
+    public static List<EventLoopGroupRef> details() throws Exception {
+        List<EventLoopGroupRef> result = new LinkedList<>();
+        for (String name : names()) {
+            result.add(new EventLoopGroupRef(get(name)));
+        }
+        return result;
+    }
+
     public static void add(Command cmd) throws Exception {
         Application.get().eventLoopGroupHolder.add(cmd.resource.alias);
+        if (cmd.args.containsKey(Param.policy)) {
+            get(cmd.resource).setPolicy(PolicyHandle.get(cmd));
+        }
+    }
+
+    public static void update(Command cmd) throws Exception {
+        EventLoopGroup g = get(cmd.resource);
+        if (cmd.args.containsKey(Param.policy)) {
+            g.setPolicy(PolicyHandle.get(cmd));
+        }
     }
 
     public static void preCheck(Command cmd) throws Exception {
@@ -61,7 +92,7 @@ public class EventLoopGroupHandle {
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
-            sb.append(elg.alias);
+            sb.append(elg.alias).append(" -> policy ").append(elg.getPolicy());
             for (String name : elg.names()) {
                 sb.append("\n    ").append(name);
             }
@@ -6,7 +6,9 @@ import net.cassite.vproxy.app.cmd.Resource;
 import net.cassite.vproxy.app.cmd.ResourceType;
 import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
+import net.cassite.vproxy.selector.SelectorEventLoop;
 
+import java.util.LinkedList;
 import java.util.List;
 
 public class EventLoopHandle {
@@ -31,6 +33,15 @@ public class EventLoopHandle {
         return g.names();
     }
 
+    public static List<EventLoopRef> details(Resource targetResource) throws Exception {
+        EventLoopGroup g = EventLoopGroupHandle.get(targetResource);
+        List<EventLoopRef> result = new LinkedList<>();
+        for (String name : g.names()) {
+            result.add(new EventLoopRef(g.get(name)));
+        }
+        return result;
+    }
+
     public static void add(Command cmd) throws Exception {
         EventLoopGroup g = EventLoopGroupHandle.get(cmd.prepositionResource);
         g.add(cmd.resource.alias);
@@ -40,4 +51,26 @@ public class EventLoopHandle {
         EventLoopGroup g = EventLoopGroupHandle.get(cmd.prepositionResource);
         g.remove(cmd.resource.alias);
     }
+
+    public static class EventLoopRef {
+        public final EventLoopWrapper eventLoop;
+
+        public EventLoopRef(EventLoopWrapper eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        @Override
+        public String toString() {
+            SelectorEventLoop loop = eventLoop.getSelectorEventLoop();
+            // show the last window, old values should not hide the current state
+            return eventLoop.alias + " -> select (" + loop.getSelectTimeHistogram().getLastWindow() + ")"
+                + " handling (" + loop.getHandlingTimeHistogram().getLastWindow() + ")"
+                + " tasks (" + loop.getTaskTimeHistogram().getLastWindow() + ")"
+                + " timer-lateness (" + loop.getTimerLatenessHistogram().getLastWindow() + ")"
+                + " ready-keys (" + loop.getReadyKeysHistogram().getLastWindow() + ")"
+                + " interest-ops-changes " + loop.getInterestOpsChangeCount()
+                + " wakeups " + loop.getWakeupIssuedCount()
+                + " suppressed-wakeups " + loop.getWakeupSuppressedCount();
+        }
+    }
 }
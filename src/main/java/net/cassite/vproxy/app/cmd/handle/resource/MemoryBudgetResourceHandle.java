@@ -0,0 +1,65 @@
+package net.cassite.vproxy.app.cmd.handle.resource;
+
+import net.cassite.vproxy.app.Application;
+import net.cassite.vproxy.app.cmd.Resource;
+import net.cassite.vproxy.app.cmd.ResourceType;
+import net.cassite.vproxy.component.app.TcpLB;
+import net.cassite.vproxy.component.exception.NotFoundException;
+import net.cassite.vproxy.util.MemoryBudget;
+
+import java.util.LinkedList;
+import java.util.List;
+
+public class MemoryBudgetResourceHandle {
+    private MemoryBudgetResourceHandle() {
+    }
+
+    public static void checkMemoryBudget(Resource parent) throws Exception {
+        if (parent != null)
+            throw new Exception(ResourceType.memorybudget.fullname + " is on top level");
+    }
+
+    private static List<MemoryBudget> budgets() {
+        List<MemoryBudget> budgets = new LinkedList<>();
+        budgets.add(MemoryBudget.GLOBAL);
+        for (String name : Application.get().tcpLBHolder.names()) {
+            TcpLB tcpLB;
+            try {
+                tcpLB = Application.get().tcpLBHolder.get(name);
+            } catch (NotFoundException e) {
+                continue; // removed concurrently
+            }
+            budgets.add(tcpLB.memoryBudget);
+        }
+        return budgets;
+    }
+
+    public static List<String> names() {
+        List<String> names = new LinkedList<>();
+        for (MemoryBudget b : budgets()) {
+            names.add(b.name);
+        }
+        return names;
+    }
+
+    public static List<MemoryBudgetRef> details() {
+        List<MemoryBudgetRef> result = new LinkedList<>();
+        for (MemoryBudget b : budgets()) {
+            result.add(new MemoryBudgetRef(b));
+        }
+        return result;
+    }
+
+    public static class MemoryBudgetRef {
+        public final MemoryBudget budget;
+
+        public MemoryBudgetRef(MemoryBudget budget) {
+            this.budget = budget;
+        }
+
+        @Override
+        public String toString() {
+            return budget.name + " -> " + budget;
+        }
+    }
+}
@@ -96,16 +96,17 @@ public class ServerHandle {
         public String toString() {
             /*
              * e.g. with host
-             * google -> google.com now connect to 216.58.197.238:443 via 10.240.200.151 weight 10 currently UP
+             * google -> google.com now connect to 216.58.197.238:443 via 10.240.200.151 weight 10 connect-ewma 1250us currently UP
              * or without host
-             * google -> connect to 216.58.197.238:443 via 10.240.200.151 weight 10 currently UP
+             * google -> connect to 216.58.197.238:443 via 10.240.200.151 weight 10 connect-ewma 1250us currently UP
              * or for logic deleted: add * before alias
-             * *google -> google.com now connect to 216.58.197.238:443 via 10.240.200.151 weight 10 currently UP
+             * *google -> google.com now connect to 216.58.197.238:443 via 10.240.200.151 weight 10 connect-ewma 1250us currently UP
              */
             return (h.isLogicDelete() ? "*" : "") + h.alias + " ->"
                 + (h.hostName == null ? "" : " host " + h.hostName + " now" /* now connected to */)
                 + " connect to " + Utils.ipStr(h.server.getAddress().getAddress()) + ":" + h.server.getPort()
                 + " via " + Utils.ipStr(h.local.getAddress()) + " weight " + h.getWeight()
+                + " connect-ewma " + (long) (h.getConnectCostEwma() / 1000) + "us"
                 + " currently " + (h.healthy ? "UP" : "DOWN");
         }
     }
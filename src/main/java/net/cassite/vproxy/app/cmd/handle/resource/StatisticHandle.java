@@ -8,8 +8,18 @@ public class StatisticHandle {
     private StatisticHandle() {
     }
 
+    // the listening sockets of a tcp-lb are managed as a unit
+    private static boolean isBindServerOfTcpLB(Resource parent) {
+        return parent.type == ResourceType.bs
+            && parent.parentResource != null
+            && parent.parentResource.type == ResourceType.tl;
+    }
+
     public static long bytesIn(Resource parent) throws Exception {
-        if (parent.type == ResourceType.bs) {
+        if (isBindServerOfTcpLB(parent)) {
+            BindServerHandle.get(parent); // make sure the bind server exists
+            return TcpLBHandle.get(parent.parentResource).getFromRemoteBytes();
+        } else if (parent.type == ResourceType.bs) {
             return BindServerHandle.get(parent).getFromRemoteBytes();
         } else if (parent.type == ResourceType.conn) {
             return ConnectionHandle.get(parent).getFromRemoteBytes();
@@ -20,7 +30,10 @@ public class StatisticHandle {
     }
 
     public static long bytesOut(Resource parent) throws Exception {
-        if (parent.type == ResourceType.bs) {
+        if (isBindServerOfTcpLB(parent)) {
+            BindServerHandle.get(parent);
+            return TcpLBHandle.get(parent.parentResource).getToRemoteBytes();
+        } else if (parent.type == ResourceType.bs) {
             return BindServerHandle.get(parent).getToRemoteBytes();
         } else if (parent.type == ResourceType.conn) {
             return ConnectionHandle.get(parent).getToRemoteBytes();
@@ -31,7 +44,33 @@ public class StatisticHandle {
     }
 
     public static long acceptedConnCount(Resource parent) throws Exception {
+        if (isBindServerOfTcpLB(parent)) {
+            BindServerHandle.get(parent);
+            return TcpLBHandle.get(parent.parentResource).getHistoryAcceptedConnectionCount();
+        }
         BindServer bs = BindServerHandle.get(parent);
         return bs.getHistoryAcceptedConnectionCount();
     }
+
+    // the udp statistics are recorded by the bind server itself
+    public static long recvPacketCount(Resource parent) throws Exception {
+        return BindServerHandle.get(parent).getRecvPacketCount();
+    }
+
+    public static long recvDroppedCount(Resource parent) throws Exception {
+        return BindServerHandle.get(parent).getRecvDroppedCount();
+    }
+
+    public static long recvBudgetExhaustedCount(Resource parent) throws Exception {
+        return BindServerHandle.get(parent).getRecvBudgetExhaustedCount();
+    }
+
+    public static long acceptBudgetExhaustedCount(Resource parent) throws Exception {
+        if (isBindServerOfTcpLB(parent)) {
+            BindServerHandle.get(parent);
+            return TcpLBHandle.get(parent.parentResource).getAcceptBudgetExhaustedCount();
+        }
+        BindServer bs = BindServerHandle.get(parent);
+        return bs.getAcceptBudgetExhaustedCount();
+    }
 }
@@ -2,10 +2,18 @@ package net.cassite.vproxy.app.cmd.handle.resource;
 
 import net.cassite.vproxy.app.Application;
 import net.cassite.vproxy.app.cmd.Command;
+import net.cassite.vproxy.app.cmd.Flag;
 import net.cassite.vproxy.app.cmd.Param;
 import net.cassite.vproxy.app.cmd.Resource;
+import net.cassite.vproxy.app.cmd.handle.param.AcceptBudgetHandle;
 import net.cassite.vproxy.app.cmd.handle.param.AddrHandle;
+import net.cassite.vproxy.app.cmd.handle.param.HighWatermarkHandle;
+import net.cassite.vproxy.app.cmd.handle.param.CorkThresholdHandle;
+import net.cassite.vproxy.app.cmd.handle.param.IOBudgetHandle;
 import net.cassite.vproxy.app.cmd.handle.param.InBufferSizeHandle;
+import net.cassite.vproxy.app.cmd.handle.param.LowWatermarkHandle;
+import net.cassite.vproxy.app.cmd.handle.param.MemoryBudgetHandle;
+import net.cassite.vproxy.app.cmd.handle.param.MinBufferSizeHandle;
 import net.cassite.vproxy.app.cmd.handle.param.OutBufferSizeHandle;
 import net.cassite.vproxy.app.cmd.handle.param.PersistHandle;
 import net.cassite.vproxy.component.app.TcpLB;
@@ -13,6 +21,7 @@ import net.cassite.vproxy.component.elgroup.EventLoopGroup;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.component.secure.SecurityGroup;
 import net.cassite.vproxy.component.svrgroup.ServerGroups;
+import net.cassite.vproxy.connection.BindServer;
 import net.cassite.vproxy.util.Utils;
 
 import java.net.InetSocketAddress;
@@ -54,6 +63,47 @@ public class TcpLBHandle {
             PersistHandle.check(cmd);
         else
             cmd.args.put(Param.persist, "0");
+
+        if (cmd.args.containsKey(Param.acceptbudget))
+            AcceptBudgetHandle.check(cmd);
+        else
+            cmd.args.put(Param.acceptbudget, "" + BindServer.DEFAULT_ACCEPT_BUDGET);
+
+        if (cmd.args.containsKey(Param.iobudget))
+            IOBudgetHandle.check(cmd);
+        else
+            cmd.args.put(Param.iobudget, "0");
+
+        if (cmd.args.containsKey(Param.corkthreshold))
+            CorkThresholdHandle.check(cmd);
+        else
+            cmd.args.put(Param.corkthreshold, "0");
+
+        if (cmd.args.containsKey(Param.minbuffersize))
+            MinBufferSizeHandle.check(cmd);
+        else
+            cmd.args.put(Param.minbuffersize, "0");
+
+        if (cmd.args.containsKey(Param.memorybudget))
+            MemoryBudgetHandle.check(cmd);
+        else
+            cmd.args.put(Param.memorybudget, "0");
+
+        if (cmd.args.containsKey(Param.highwatermark))
+            HighWatermarkHandle.check(cmd);
+        else
+            cmd.args.put(Param.highwatermark, "100");
+
+        if (cmd.args.containsKey(Param.lowwatermark))
+            LowWatermarkHandle.check(cmd);
+        else
+            cmd.args.put(Param.lowwatermark, "" + HighWatermarkHandle.get(cmd));
+
+        if (LowWatermarkHandle.get(cmd) > HighWatermarkHandle.get(cmd))
+            throw new Exception(Param.lowwatermark.fullname + " should not be greater than " + Param.highwatermark.fullname);
+
+        if (cmd.flags.contains(Flag.reuseport) && !BindServer.isReusePortSupported())
+            throw new Exception(Flag.reuseport.fullname + " is not supported on this platform");
     }
 
     public static void checkUpdateTcpLB(Command cmd) throws Exception {
@@ -65,6 +115,27 @@ public class TcpLBHandle {
 
         if (cmd.args.containsKey(Param.persist))
             PersistHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.acceptbudget))
+            AcceptBudgetHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.iobudget))
+            IOBudgetHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.corkthreshold))
+            CorkThresholdHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.minbuffersize))
+            MinBufferSizeHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.memorybudget))
+            MemoryBudgetHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.highwatermark))
+            HighWatermarkHandle.check(cmd);
+
+        if (cmd.args.containsKey(Param.lowwatermark))
+            LowWatermarkHandle.check(cmd);
     }
 
     public static TcpLB get(Resource tcplb) throws NotFoundException {
@@ -100,9 +171,27 @@ public class TcpLBHandle {
             secg = SecurityGroup.allowAll();
         }
         int persist = PersistHandle.get(cmd);
+        boolean reusePort = cmd.flags.contains(Flag.reuseport);
         Application.get().tcpLBHolder.add(
-            alias, acceptor, worker, addr, backend, inBufferSize, outBufferSize, secg, persist
+            alias, acceptor, worker, addr, backend, inBufferSize, outBufferSize, secg, persist, reusePort
         );
+        TcpLB tcpLB = Application.get().tcpLBHolder.get(alias);
+        tcpLB.setAcceptBudget(AcceptBudgetHandle.get(cmd));
+        tcpLB.setIOBudget(IOBudgetHandle.get(cmd));
+        tcpLB.setCorkThreshold(CorkThresholdHandle.get(cmd));
+        tcpLB.setMinBufferSize(MinBufferSizeHandle.get(cmd));
+        tcpLB.setMemoryBudgetLimit(MemoryBudgetHandle.get(cmd));
+        tcpLB.setWatermarks(HighWatermarkHandle.get(cmd), LowWatermarkHandle.get(cmd));
+        if (cmd.flags.contains(Flag.handleonacceptor)) {
+            tcpLB.setHandleOnAcceptLoop(true);
+        } else if (cmd.flags.contains(Flag.handleonworker)) {
+            tcpLB.setHandleOnAcceptLoop(false);
+        }
+        if (cmd.flags.contains(Flag.lazybuffer)) {
+            tcpLB.setLazyBuffers(true);
+        } else if (cmd.flags.contains(Flag.eagerbuffer)) {
+            tcpLB.setLazyBuffers(false);
+        }
     }
 
     public static void forceRemove(Command cmd) throws Exception {
@@ -121,6 +210,38 @@ public class TcpLBHandle {
         if (cmd.args.containsKey(Param.persist)) {
             tcpLB.persistTimeout = PersistHandle.get(cmd);
         }
+        if (cmd.args.containsKey(Param.acceptbudget)) {
+            tcpLB.setAcceptBudget(AcceptBudgetHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.iobudget)) {
+            tcpLB.setIOBudget(IOBudgetHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.corkthreshold)) {
+            tcpLB.setCorkThreshold(CorkThresholdHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.minbuffersize)) {
+            tcpLB.setMinBufferSize(MinBufferSizeHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.memorybudget)) {
+            tcpLB.setMemoryBudgetLimit(MemoryBudgetHandle.get(cmd));
+        }
+        if (cmd.args.containsKey(Param.highwatermark) || cmd.args.containsKey(Param.lowwatermark)) {
+            int high = cmd.args.containsKey(Param.highwatermark) ? HighWatermarkHandle.get(cmd) : tcpLB.getHighWatermark();
+            int low = cmd.args.containsKey(Param.lowwatermark) ? LowWatermarkHandle.get(cmd) : tcpLB.getLowWatermark();
+            if (low > high)
+                throw new Exception(Param.lowwatermark.fullname + " should not be greater than " + Param.highwatermark.fullname);
+            tcpLB.setWatermarks(high, low);
+        }
+        if (cmd.flags.contains(Flag.handleonacceptor)) {
+            tcpLB.setHandleOnAcceptLoop(true);
+        } else if (cmd.flags.contains(Flag.handleonworker)) {
+            tcpLB.setHandleOnAcceptLoop(false);
+        }
+        if (cmd.flags.contains(Flag.lazybuffer)) {
+            tcpLB.setLazyBuffers(true);
+        } else if (cmd.flags.contains(Flag.eagerbuffer)) {
+            tcpLB.setLazyBuffers(false);
+        }
     }
 
     public static class TcpLBRef {
@@ -134,10 +255,20 @@ public class TcpLBHandle {
         public String toString() {
             return tcpLB.alias + " -> acceptor " + tcpLB.acceptorGroup.alias + " worker " + tcpLB.workerGroup.alias
                 + " bind " + Utils.ipStr(tcpLB.bindAddress.getAddress().getAddress()) + ":" + tcpLB.bindAddress.getPort()
+                + (tcpLB.reusePort ? " reuse-port listeners " + tcpLB.listenerCount() : "")
                 + " backends " + tcpLB.backends.alias
                 + " in buffer size " + tcpLB.getInBufferSize() + " out buffer size " + tcpLB.getOutBufferSize()
+                + " min buffer size " + tcpLB.getMinBufferSize()
+                + " buffer grow " + tcpLB.getBufferGrowCount() + " shrink " + tcpLB.getBufferShrinkCount()
                 + " persist " + tcpLB.persistTimeout
-                + " security-group " + tcpLB.securityGroup.alias;
+                + " accept-budget " + tcpLB.getAcceptBudget() + " io-budget " + tcpLB.getIOBudget()
+                + " cork-threshold " + tcpLB.getCorkThreshold()
+                + " memory-budget " + tcpLB.memoryBudget.getLimit() + " memory-used " + tcpLB.memoryBudget.getUsed()
+                + " high-water " + tcpLB.memoryBudget.getHighWaterMark() + " rejected " + tcpLB.memoryBudget.getRejectedCount()
+                + " high-watermark " + tcpLB.getHighWatermark() + " low-watermark " + tcpLB.getLowWatermark()
+                + " security-group " + tcpLB.securityGroup.alias
+                + " " + (tcpLB.isHandleOnAcceptLoop() ? "handle-on-acceptor" : "handle-on-worker")
+                + " " + (tcpLB.isLazyBuffers() ? "lazy-buffer" : "eager-buffer");
         }
     }
 }
@@ -186,7 +186,7 @@ public class Shutdown {
                     continue;
                 }
 
-                String cmd = "add event-loop-group " + elg.alias;
+                String cmd = "add event-loop-group " + elg.alias + " policy " + elg.getPolicy();
                 commands.add(cmd);
                 eventLoopGroups.add(elg);
                 eventLoopGroupNames.add(name);
@@ -351,10 +351,18 @@ public class Shutdown {
                     " event-loop-group " + tl.workerGroup.alias +
                     " address " + tl.server.id() + " server-groups " + tl.backends.alias +
                     " in-buffer-size " + tl.getInBufferSize() + " out-buffer-size " + tl.getOutBufferSize() +
-                    " persist " + tl.persistTimeout;
+                    " persist " + tl.persistTimeout + " accept-budget " + tl.getAcceptBudget() + " io-budget " + tl.getIOBudget() +
+                    " cork-threshold " + tl.getCorkThreshold() +
+                    " min-buffer-size " + tl.getMinBufferSize() + " memory-budget " + tl.memoryBudget.getLimit() +
+                    " high-watermark " + tl.getHighWatermark() + " low-watermark " + tl.getLowWatermark();
                 if (!tl.securityGroup.alias.equals(SecurityGroup.defaultName)) {
                     cmd += " security-group " + tl.securityGroup.alias;
                 }
+                if (tl.reusePort) {
+                    cmd += " reuse-port";
+                }
+                cmd += " " + (tl.isHandleOnAcceptLoop() ? "handle-on-acceptor" : "handle-on-worker");
+                cmd += " " + (tl.isLazyBuffers() ? "lazy-buffer" : "eager-buffer");
                 commands.add(cmd);
             }
         }
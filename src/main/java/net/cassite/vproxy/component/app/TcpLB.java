@@ -12,20 +12,28 @@ import net.cassite.vproxy.component.svrgroup.ServerGroups;
 import net.cassite.vproxy.connection.BindServer;
 import net.cassite.vproxy.connection.Connection;
 import net.cassite.vproxy.connection.Connector;
+import net.cassite.vproxy.connection.NetEventLoop;
 import net.cassite.vproxy.connection.Protocol;
 import net.cassite.vproxy.selector.SelectorEventLoop;
 import net.cassite.vproxy.selector.TimerEvent;
 import net.cassite.vproxy.util.LogType;
 import net.cassite.vproxy.util.Logger;
+import net.cassite.vproxy.util.MemoryBudget;
 import net.cassite.vproxy.util.ThreadSafe;
+import net.cassite.vproxy.util.ringbuffer.ResizeRecorder;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 public class TcpLB {
     class LBProxyEventHandler implements ProxyEventHandler {
@@ -50,6 +58,29 @@ public class TcpLB {
         }
     }
 
+    // an additional listening socket bound with SO_REUSEPORT
+    // each acceptor loop except the one handling the primary server owns one of them
+    // the listeners only own the accept loop and the server, other settings are read from the lb config
+    class ReusePortListener implements ProxyEventHandler {
+        final EventLoopWrapper loop;
+        final BindServer server;
+        final Proxy proxy;
+
+        ReusePortListener(EventLoopWrapper loop, BindServer server) {
+            this.loop = loop;
+            this.server = server;
+            this.proxy = new Proxy(proxyNetConfig, loop, server, this);
+        }
+
+        @Override
+        public void serverRemoved(BindServer server) {
+            // the loop is removed or closed (or the lb is stopped)
+            // other listeners are still accepting, the kernel will spread connections to them
+            assert Logger.lowLevelDebug("reuse port listener of lb(" + alias + ") removed from loop " + loop.alias);
+            retire(this);
+        }
+    }
+
     class LBAttach implements EventLoopGroupAttach {
         @Override
         public String id() {
@@ -73,20 +104,22 @@ public class TcpLB {
         }
     }
 
-    @ThreadSafe(false)
+    // the timer operations are thread safe, but with reuse port
+    // the same client may be handled on different acceptor loops at the same time
+    // so the methods are synchronized
+    @ThreadSafe
     public class Persist {
         public final InetAddress clientAddress;
         public final Connector connector;
         TimerEvent timeoutEvent;
 
+        // call refresh() to start the timer
         Persist(InetAddress clientAddress, Connector connector) {
             this.clientAddress = clientAddress;
             this.connector = connector;
-
-            refresh();
         }
 
-        void refresh() {
+        synchronized void refresh() {
             // stop the old timer first
             if (timeoutEvent != null) {
                 timeoutEvent.cancel();
@@ -98,20 +131,20 @@ public class TcpLB {
             if (loop == null) {
                 // cannot handle the persist timeout
                 // so let's just remove the persist entry from map
-                persistMap.remove(clientAddress);
+                persistMap.remove(clientAddress, this);
                 return;
             }
             timeoutEvent = loop.delay(persistTimeout, () ->
-                /* persistence expired */ persistMap.remove(clientAddress));
+                /* persistence expired */ persistMap.remove(clientAddress, this));
         }
 
-        public void remove() {
+        public synchronized void remove() {
             if (timeoutEvent != null) {
                 timeoutEvent.cancel();
                 timeoutEvent = null;
             }
-            // remove from map
-            persistMap.remove(clientAddress);
+            // remove from map, a new record of the client may be already put
+            persistMap.remove(clientAddress, this);
         }
     }
 
@@ -127,10 +160,8 @@ public class TcpLB {
     // the modifiable fields only have effect when new connection arrives
 
     // the persisted connector map
-    // it will only be modified from one thread
-    // in data panel, no need to handle concurrency
-    // though it might be retrieved from control panel
-    // so we use concurrent hash map instead
+    // it's modified by acceptor loops (more than one when reuse port is enabled)
+    // and retrieved from control panel
     public final ConcurrentMap<InetAddress, Persist> persistMap = new ConcurrentHashMap<>();
 
     // true means the lb is stopped, but it can still re-start.
@@ -149,6 +180,34 @@ public class TcpLB {
     public final BindServer server;
     private final ProxyNetConfig proxyNetConfig = new ProxyNetConfig();
     private final LBProxyEventHandler proxyEventHandler = new LBProxyEventHandler();
+    // the share of the global direct memory budget
+    public final MemoryBudget memoryBudget;
+
+    // when enabled, every acceptor loop listens on the bind address with its own socket
+    public final boolean reusePort;
+    private final ConcurrentMap<EventLoopWrapper, ReusePortListener> reusePortListeners = new ConcurrentHashMap<>();
+    // closed listeners whose sessions are not all closed yet, they are still counted in statistics and sessions
+    // retiring and reading statistics are guarded by the set, so a listener is never missed or counted twice
+    private final Set<ReusePortListener> retiredListeners = new HashSet<>();
+    // statistics of closed listeners without sessions, so that the aggregated numbers do not go backwards
+    private final LongAdder retiredFromRemoteBytes = new LongAdder();
+    private final LongAdder retiredToRemoteBytes = new LongAdder();
+    private final LongAdder retiredAcceptedConnectionCount = new LongAdder();
+    private final LongAdder retiredAcceptBudgetExhaustedCount = new LongAdder();
+    // resizing of adaptive buffers
+    private final LongAdder bufferGrowCount = new LongAdder();
+    private final LongAdder bufferShrinkCount = new LongAdder();
+    private final ResizeRecorder resizeRecorder = new ResizeRecorder() {
+        @Override
+        public void incGrow() {
+            bufferGrowCount.increment();
+        }
+
+        @Override
+        public void incShrink() {
+            bufferShrinkCount.increment();
+        }
+    };
 
     public TcpLB(String alias,
                  EventLoopGroup acceptorGroup,
@@ -158,6 +217,18 @@ public class TcpLB {
                  int inBufferSize, int outBufferSize,
                  SecurityGroup securityGroup,
                  int persistTimeout) throws IOException, AlreadyExistException, ClosedException {
+        this(alias, acceptorGroup, workerGroup, bindAddress, backends, inBufferSize, outBufferSize, securityGroup, persistTimeout, false);
+    }
+
+    public TcpLB(String alias,
+                 EventLoopGroup acceptorGroup,
+                 EventLoopGroup workerGroup,
+                 InetSocketAddress bindAddress,
+                 ServerGroups backends,
+                 int inBufferSize, int outBufferSize,
+                 SecurityGroup securityGroup,
+                 int persistTimeout,
+                 boolean reusePort) throws IOException, AlreadyExistException, ClosedException {
         this.alias = alias;
         this.acceptorGroup = acceptorGroup;
         this.workerGroup = workerGroup;
@@ -167,9 +238,11 @@ public class TcpLB {
         this.outBufferSize = outBufferSize;
         this.securityGroup = securityGroup;
         this.persistTimeout = persistTimeout;
+        this.reusePort = reusePort;
+        this.memoryBudget = new MemoryBudget(alias, 0, MemoryBudget.GLOBAL);
 
         // create server
-        this.server = BindServer.create(bindAddress);
+        this.server = BindServer.create(bindAddress, reusePort);
 
         // init proxyNetConfig
         // acceptEventLoop will be assigned in start() method
@@ -185,6 +258,8 @@ public class TcpLB {
             })
             .setInBufferSize(inBufferSize)
             .setOutBufferSize(outBufferSize)
+            .setResizeRecorder(resizeRecorder)
+            .setMemoryBudget(memoryBudget)
             .setServer(this.server);
         // we do not create proxy object here
         // if it's created, it should start to run
@@ -232,14 +307,17 @@ public class TcpLB {
         // then we get a new connector
 
         // get a server from backends
-        Connector connector = backends.next();
+        Connector connector = backends.next(remoteAddress);
         if (connector == null)
             return null; // return null if cannot get any
         assert Logger.lowLevelDebug("got a backend: " + connector);
         // record the connector
         if (persistTimeout > 0) {
-            Persist p = new Persist(remoteAddress, connector);
-            persistMap.put(remoteAddress, p);
+            // with reuse port, the same client may be accepted on multiple acceptor loops at the same time,
+            // only one record is kept, and all of them use the connector of it
+            Persist p = persistMap.computeIfAbsent(remoteAddress, addr -> new Persist(addr, connector));
+            p.refresh();
+            return p.connector;
         }
         return connector;
     }
@@ -258,6 +336,14 @@ public class TcpLB {
         }
         assert Logger.lowLevelDebug("got a event loop, do re-dispatch");
         proxyNetConfig.setAcceptLoop(w);
+        if (reusePort) {
+            // the loop now handles the primary server, so its own listener is not needed
+            ReusePortListener l = reusePortListeners.get(w);
+            if (l != null) {
+                l.proxy.stop();
+                retire(l);
+            }
+        }
 
         // also, we should re-dispatch the persist records
         // before start accepting connections
@@ -277,6 +363,10 @@ public class TcpLB {
             if (proxy != null) { // quick handle when proxy is not null
                 assert Logger.lowLevelDebug("already started, ignore the start() call");
                 stopped = false;
+                if (reusePort) {
+                    // maybe new loops are added into the acceptor group
+                    startReusePortListeners();
+                }
                 return;
             }
 
@@ -303,11 +393,80 @@ public class TcpLB {
                 proxyNetConfig.setAcceptLoop(null); // remove the loop from config
                 throw e;
             }
+            if (reusePort) {
+                startReusePortListeners();
+            }
 
             assert Logger.lowLevelDebug("lb " + alias + " started");
         }
     }
 
+    // create listeners for the acceptor loops which do not have one
+    // should be called with the lb locked and the primary server started
+    private void startReusePortListeners() throws IOException {
+        NetEventLoop primaryLoop = proxyNetConfig.getAcceptLoop();
+        for (EventLoopWrapper w : acceptorGroup.list()) {
+            if (w == primaryLoop || reusePortListeners.containsKey(w))
+                continue;
+            // bind to the address of the primary server, in case the port is chosen by the system
+            BindServer bs = BindServer.create(server.bind, true);
+            bs.setAcceptBudget(server.getAcceptBudget());
+            ReusePortListener l = new ReusePortListener(w, bs);
+            reusePortListeners.put(w, l);
+            try {
+                l.proxy.handle();
+            } catch (IOException e) {
+                assert Logger.lowLevelDebug("starting reuse port listener on " + w.alias + " failed");
+                reusePortListeners.remove(w);
+                bs.close();
+                throw e;
+            }
+            assert Logger.lowLevelDebug("reuse port listener of lb " + alias + " started on " + w.alias);
+        }
+    }
+
+    // close the listener, it's kept in statistics until all its sessions are closed
+    private void retire(ReusePortListener l) {
+        synchronized (retiredListeners) {
+            if (!reusePortListeners.remove(l.loop, l))
+                return; // already retired
+            retiredListeners.add(l);
+            sweepRetiredListeners();
+        }
+        l.server.close();
+    }
+
+    // release the retired listeners without sessions, and keep their statistics
+    // should be called with the set locked
+    private void sweepRetiredListeners() {
+        Iterator<ReusePortListener> ite = retiredListeners.iterator();
+        while (ite.hasNext()) {
+            ReusePortListener l = ite.next();
+            if (l.proxy.sessionCount() != 0)
+                continue;
+            ite.remove();
+            retiredFromRemoteBytes.add(l.server.getFromRemoteBytes());
+            retiredToRemoteBytes.add(l.server.getToRemoteBytes());
+            retiredAcceptedConnectionCount.add(l.server.getHistoryAcceptedConnectionCount());
+            retiredAcceptBudgetExhaustedCount.add(l.server.getAcceptBudgetExhaustedCount());
+        }
+    }
+
+    // sum the value of all listeners except the primary one
+    private long sumListeners(ToLongFunction<BindServer> f, LongAdder released) {
+        synchronized (retiredListeners) {
+            sweepRetiredListeners();
+            long n = released.longValue();
+            for (ReusePortListener l : reusePortListeners.values()) {
+                n += f.applyAsLong(l.server);
+            }
+            for (ReusePortListener l : retiredListeners) {
+                n += f.applyAsLong(l.server);
+            }
+            return n;
+        }
+    }
+
     public void stop() {
         assert Logger.lowLevelDebug("stop() called on lb " + alias);
         stopped = true;
@@ -320,6 +479,10 @@ public class TcpLB {
         }
         proxy.stop();
         this.proxyNetConfig.setAcceptLoop(null); // remove the event loop from config
+        for (ReusePortListener l : reusePortListeners.values()) {
+            l.proxy.stop();
+            retire(l);
+        }
     }
 
     public void destroy() {
@@ -340,14 +503,31 @@ public class TcpLB {
     }
 
     public int sessionCount() {
+        int count = 0;
+        synchronized (retiredListeners) {
+            for (ReusePortListener l : reusePortListeners.values()) {
+                count += l.proxy.sessionCount();
+            }
+            for (ReusePortListener l : retiredListeners) {
+                count += l.proxy.sessionCount();
+            }
+        }
         Proxy p = proxy;
         if (p == null) {
-            return 0;
+            return count;
         }
-        return p.sessionCount();
+        return count + p.sessionCount();
     }
 
     public void copySessions(Collection<? super Session> coll) {
+        synchronized (retiredListeners) {
+            for (ReusePortListener l : reusePortListeners.values()) {
+                l.proxy.copySessions(coll);
+            }
+            for (ReusePortListener l : retiredListeners) {
+                l.proxy.copySessions(coll);
+            }
+        }
         Proxy p = proxy;
         if (p == null) {
             return;
@@ -355,6 +535,36 @@ public class TcpLB {
         p.copySessions(coll);
     }
 
+    // the primary server and the reuse port listeners
+    public void copyServers(Collection<? super BindServer> coll) {
+        coll.add(server);
+        for (ReusePortListener l : reusePortListeners.values()) {
+            coll.add(l.server);
+        }
+    }
+
+    public int listenerCount() {
+        return 1 + reusePortListeners.size();
+    }
+
+    // --- START statistics aggregated from all listening sockets ---
+    public long getFromRemoteBytes() {
+        return server.getFromRemoteBytes() + sumListeners(BindServer::getFromRemoteBytes, retiredFromRemoteBytes);
+    }
+
+    public long getToRemoteBytes() {
+        return server.getToRemoteBytes() + sumListeners(BindServer::getToRemoteBytes, retiredToRemoteBytes);
+    }
+
+    public long getHistoryAcceptedConnectionCount() {
+        return server.getHistoryAcceptedConnectionCount() + sumListeners(BindServer::getHistoryAcceptedConnectionCount, retiredAcceptedConnectionCount);
+    }
+
+    public long getAcceptBudgetExhaustedCount() {
+        return server.getAcceptBudgetExhaustedCount() + sumListeners(BindServer::getAcceptBudgetExhaustedCount, retiredAcceptBudgetExhaustedCount);
+    }
+    // --- END statistics ---
+
     public void setInBufferSize(int inBufferSize) {
         this.inBufferSize = inBufferSize;
         proxyNetConfig.setInBufferSize(inBufferSize);
@@ -365,6 +575,83 @@ public class TcpLB {
         proxyNetConfig.setOutBufferSize(outBufferSize);
     }
 
+    public void setAcceptBudget(int acceptBudget) {
+        server.setAcceptBudget(acceptBudget);
+        for (ReusePortListener l : reusePortListeners.values()) {
+            l.server.setAcceptBudget(acceptBudget);
+        }
+    }
+
+    public void setIOBudget(int ioBudget) {
+        if (ioBudget < 0)
+            throw new IllegalArgumentException("ioBudget < 0");
+        proxyNetConfig.setIOBudget(ioBudget);
+    }
+
+    /**
+     * @param corkThreshold when &gt; 0, small writes (less than the threshold) of new connections are deferred to
+     *                      the end of the event loop round, so chunks stored in one round are sent with one call.
+     *                      0 means writing immediately (the default)
+     */
+    public void setCorkThreshold(int corkThreshold) {
+        if (corkThreshold < 0)
+            throw new IllegalArgumentException("corkThreshold < 0");
+        proxyNetConfig.setCorkThreshold(corkThreshold);
+    }
+
+    /**
+     * @param handleOnAcceptLoop true: connections are handled end-to-end on the acceptor loop which accepts them,
+     *                           the worker group is not used for new connections.
+     *                           use with reuse-port to let every loop accept and handle its own share.
+     *                           false: connections are dispatched to the worker group (the default)
+     */
+    public void setHandleOnAcceptLoop(boolean handleOnAcceptLoop) {
+        proxyNetConfig.setHandleOnAcceptLoop(handleOnAcceptLoop);
+    }
+
+    /**
+     * @param lazyBuffers true: the buffers of new connections hold direct memory only when there are bytes in flight,
+     *                    which saves memory when there are lots of idle connections.
+     *                    false: the buffers hold direct memory until the connection closes (the default)
+     */
+    public void setLazyBuffers(boolean lazyBuffers) {
+        proxyNetConfig.setLazyBuffers(lazyBuffers);
+    }
+
+    /**
+     * @param minBufferSize 0: the buffers of new connections have fixed sizes (in/out buffer size, the default).
+     *                      otherwise the buffers start from minBufferSize, grow when they are filled up,
+     *                      and shrink back when the usage is low, bounded by in/out buffer size
+     */
+    public void setMinBufferSize(int minBufferSize) {
+        if (minBufferSize < 0)
+            throw new IllegalArgumentException("minBufferSize < 0");
+        proxyNetConfig.setMinBufferSize(minBufferSize);
+    }
+
+    /**
+     * @param limit max bytes of direct memory held by buffers of this lb,
+     *              new connections are rejected when the buffers cannot fit in.
+     *              0 means only limited by the global budget (the default)
+     */
+    public void setMemoryBudgetLimit(long limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit < 0");
+        memoryBudget.setLimit(limit);
+    }
+
+    /**
+     * @param high stop reading from a connection when its in buffer reaches high% of the capacity (100 by default)
+     * @param low  continue reading when the buffer falls to low% of the capacity (100 by default, means any free space),
+     *             a lower value keeps the reading paused until more bytes are sent,
+     *             which reduces the changes of interest ops for bulk transfer
+     */
+    public void setWatermarks(int high, int low) {
+        if (high < 1 || high > 100 || low < 0 || low > high)
+            throw new IllegalArgumentException("invalid watermarks: high " + high + ", low " + low);
+        proxyNetConfig.setWatermarks(high, low);
+    }
+
     public int getInBufferSize() {
         return inBufferSize;
     }
@@ -372,4 +659,44 @@ public class TcpLB {
     public int getOutBufferSize() {
         return outBufferSize;
     }
+
+    public int getAcceptBudget() {
+        return server.getAcceptBudget();
+    }
+
+    public int getIOBudget() {
+        return proxyNetConfig.getIOBudget();
+    }
+
+    public int getCorkThreshold() {
+        return proxyNetConfig.getCorkThreshold();
+    }
+
+    public boolean isHandleOnAcceptLoop() {
+        return proxyNetConfig.isHandleOnAcceptLoop();
+    }
+
+    public boolean isLazyBuffers() {
+        return proxyNetConfig.isLazyBuffers();
+    }
+
+    public int getMinBufferSize() {
+        return proxyNetConfig.getMinBufferSize();
+    }
+
+    public int getHighWatermark() {
+        return proxyNetConfig.getHighWatermark();
+    }
+
+    public int getLowWatermark() {
+        return proxyNetConfig.getLowWatermark();
+    }
+
+    public long getBufferGrowCount() {
+        return bufferGrowCount.longValue();
+    }
+
+    public long getBufferShrinkCount() {
+        return bufferShrinkCount.longValue();
+    }
 }
@@ -15,20 +15,24 @@ import java.nio.channels.InterruptedByTimeoutException;
 // it's useful when running health check
 public class ConnectClient {
     class ConnectClientConnectionHandler implements ClientConnectionHandler {
-        private final Callback<Void, IOException> callback;
+        private final Callback<Long, IOException> callback;
         private final TimerEvent connectionTimeoutEvent;
+        private final long connectStart;
+        private long connectCost;
         private boolean done = false;
         private TimerEvent delayTimeoutEvent;
 
-        ConnectClientConnectionHandler(Callback<Void, IOException> callback, TimerEvent connectionTimeoutEvent) {
+        ConnectClientConnectionHandler(Callback<Long, IOException> callback, TimerEvent connectionTimeoutEvent, long connectStart) {
             this.callback = callback;
             this.connectionTimeoutEvent = connectionTimeoutEvent;
+            this.connectStart = connectStart;
         }
 
         @SuppressWarnings("unchecked")
         @Override
         public void connected(ClientConnectionHandlerContext ctx) {
             cancelTimers(); // cancel timer if possible
+            connectCost = System.nanoTime() - connectStart;
             if (checkProtocol == CheckProtocol.tcp) {
                 // for non-delay tcp, directly close the connection and return success
                 closeAndCallSucc(ctx);
@@ -98,7 +102,7 @@ public class ConnectClient {
         private void closeAndCallSucc(ConnectionHandlerContext ctx) {
             done = true;
             ctx.connection.close();
-            if (!callback.isCalled() /*already called by timer*/ && !stopped) callback.succeeded(null);
+            if (!callback.isCalled() /*already called by timer*/ && !stopped) callback.succeeded(connectCost);
         }
     }
 
@@ -122,7 +126,23 @@ public class ConnectClient {
     }
 
     public void handle(Callback<Void, IOException> cb) {
+        handleAndMeasure(new Callback<Long, IOException>() {
+            @Override
+            protected void onSucceeded(Long connectCost) {
+                cb.succeeded(null);
+            }
+
+            @Override
+            protected void onFailed(IOException err) {
+                cb.failed(err);
+            }
+        });
+    }
+
+    // the callback succeeds with the time cost of establishing the connection (in nanoseconds)
+    public void handleAndMeasure(Callback<Long, IOException> cb) {
         // connect to remote
+        long connectStart = System.nanoTime();
         ClientConnection conn;
         try {
             conn = ClientConnection.create(remote, local,
@@ -140,7 +160,7 @@ public class ConnectClient {
             if (!cb.isCalled() /*called by connection*/ && !stopped) cb.failed(new InterruptedByTimeoutException());
         });
         try {
-            eventLoop.addClientConnection(conn, null, new ConnectClientConnectionHandler(cb, timer));
+            eventLoop.addClientConnection(conn, null, new ConnectClientConnectionHandler(cb, timer, connectStart));
         } catch (IOException e) {
             if (!stopped) cb.failed(e);
             // exception occurred, so ignore timeout
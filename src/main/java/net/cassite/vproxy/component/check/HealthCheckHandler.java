@@ -9,5 +9,11 @@ public interface HealthCheckHandler {
 
     void upOnce(SocketAddress remote);
 
+    // connectCost: nanoseconds spent on establishing the connection
+    // override it to receive the cost, by default the cost is ignored
+    default void upOnce(SocketAddress remote, long connectCost) {
+        upOnce(remote);
+    }
+
     void downOnce(SocketAddress remote);
 }
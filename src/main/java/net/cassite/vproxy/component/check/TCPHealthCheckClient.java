@@ -11,8 +11,8 @@ import java.net.InetSocketAddress;
 
 public class TCPHealthCheckClient {
     class ConnectResultHandler {
-        void onSucceeded() {
-            handler.upOnce(connectClient.remote);
+        void onSucceeded(long connectCost) {
+            handler.upOnce(connectClient.remote, connectCost);
             if (currentDown > 0) {
                 // decrease down count if it's not zero
                 --currentDown;
@@ -110,10 +110,10 @@ public class TCPHealthCheckClient {
             return;
         }
 
-        connectClient.handle(new Callback<Void, IOException>() {
+        connectClient.handleAndMeasure(new Callback<Long, IOException>() {
             @Override
-            protected void onSucceeded(Void value) {
-                connectResultHandler.onSucceeded();
+            protected void onSucceeded(Long connectCost) {
+                connectResultHandler.onSucceeded(connectCost);
                 cb.run();
             }
 
@@ -4,12 +4,14 @@ import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.ClosedException;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopConfig;
 import net.cassite.vproxy.util.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -20,6 +22,7 @@ public class EventLoopGroup {
     private boolean preClose = false; // if true, then all MODIFY operations are disabled or return default value
     private boolean closed = false; // if true, then all operations are disabled or return default value
     private final AtomicInteger cursor = new AtomicInteger(0); // current cursor of the eventLoops
+    private volatile LoopSelectPolicy policy = LoopSelectPolicy.rr;
     private final ConcurrentHashSet<EventLoopGroupAttach> attaches = new ConcurrentHashSet<>();
 
     public EventLoopGroup(String alias) {
@@ -54,7 +57,20 @@ public class EventLoopGroup {
     }
 
     @ThreadSafe
-    public synchronized void add(String alias) throws AlreadyExistException, IOException, ClosedException {
+    public List<EventLoopWrapper> list() {
+        if (closed) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(eventLoops);
+    }
+
+    @ThreadSafe
+    public void add(String alias) throws AlreadyExistException, IOException, ClosedException {
+        add(alias, new SelectorEventLoopConfig());
+    }
+
+    @ThreadSafe
+    public synchronized void add(String alias, SelectorEventLoopConfig config) throws AlreadyExistException, IOException, ClosedException {
         if (preClose) {
             throw new ClosedException();
         }
@@ -63,7 +79,7 @@ public class EventLoopGroup {
             if (w.alias.equals(alias))
                 throw new AlreadyExistException();
         }
-        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open();
+        SelectorEventLoop selectorEventLoop = SelectorEventLoop.open(config);
         EventLoopWrapper el = new EventLoopWrapper(alias, selectorEventLoop);
         ArrayList<EventLoopWrapper> newLs = new ArrayList<>(ls.size() + 1);
         newLs.addAll(ls);
@@ -188,13 +204,104 @@ public class EventLoopGroup {
         this.preClose = preClose;
     }
 
+    public LoopSelectPolicy getPolicy() {
+        return policy;
+    }
+
+    @ThreadSafe
+    public void setPolicy(LoopSelectPolicy policy) {
+        this.policy = policy;
+    }
+
     @ThreadSafe
     public EventLoopWrapper next() {
         if (preClose)
             return null;
 
         ArrayList<EventLoopWrapper> ls = eventLoops;
-        return next(ls, 0);
+        switch (policy) {
+            case lc:
+                return nextLeastChannels(ls);
+            case lbt:
+                return nextLeastBusy(ls);
+            case p2c:
+                return nextP2C(ls);
+            case rr:
+            default:
+                return next(ls, 0);
+        }
+    }
+
+    private EventLoopWrapper nextLeastChannels(ArrayList<EventLoopWrapper> ls) {
+        EventLoopWrapper result = null;
+        int min = Integer.MAX_VALUE;
+        for (EventLoopWrapper w : ls) {
+            SelectorEventLoop loop = w.getSelectorEventLoop();
+            if (loop.isClosed())
+                continue;
+            int count = loop.getRegisteredChannelCount();
+            if (count < min) {
+                min = count;
+                result = w;
+            }
+        }
+        return result;
+    }
+
+    // the busy time is smoothed and only updated once per window,
+    // so loops within this range are considered equally busy and compared by registered channels,
+    // which are counted immediately, otherwise a burst of connections would go to the same loop
+    private static final int BUSY_TOLERANCE_PERMILLE = 50;
+
+    private EventLoopWrapper nextLeastBusy(ArrayList<EventLoopWrapper> ls) {
+        int minBusy = Integer.MAX_VALUE;
+        for (EventLoopWrapper w : ls) {
+            SelectorEventLoop loop = w.getSelectorEventLoop();
+            if (loop.isClosed())
+                continue;
+            int busy = loop.getRecentBusyPermille();
+            if (busy < minBusy) {
+                minBusy = busy;
+            }
+        }
+        if (minBusy == Integer.MAX_VALUE)
+            return null;
+
+        EventLoopWrapper result = null;
+        int minCount = Integer.MAX_VALUE;
+        for (EventLoopWrapper w : ls) {
+            SelectorEventLoop loop = w.getSelectorEventLoop();
+            if (loop.isClosed())
+                continue;
+            if (loop.getRecentBusyPermille() > minBusy + BUSY_TOLERANCE_PERMILLE)
+                continue;
+            int count = loop.getRegisteredChannelCount();
+            if (count < minCount) {
+                minCount = count;
+                result = w;
+            }
+        }
+        return result;
+    }
+
+    private EventLoopWrapper nextP2C(ArrayList<EventLoopWrapper> ls) {
+        int size = ls.size();
+        if (size < 2) {
+            return next(ls, 0);
+        }
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        int a = rand.nextInt(size);
+        int b = rand.nextInt(size - 1);
+        if (b >= a) {
+            ++b; // make sure the two choices are different
+        }
+        SelectorEventLoop loopA = ls.get(a).getSelectorEventLoop();
+        SelectorEventLoop loopB = ls.get(b).getSelectorEventLoop();
+        if (loopA.isClosed() || loopB.isClosed()) {
+            // maybe the list is operated in another thread
+            return next(ls, 0);
+        }
+        return loopA.getRegisteredChannelCount() <= loopB.getRegisteredChannelCount() ? ls.get(a) : ls.get(b);
     }
 
     private EventLoopWrapper next(ArrayList<EventLoopWrapper> ls, int recursion) {
@@ -0,0 +1,24 @@
+package net.cassite.vproxy.component.elgroup;
+
+/**
+ * how an event loop group chooses the next event loop
+ */
+public enum LoopSelectPolicy {
+    /**
+     * round robin
+     */
+    rr,
+    /**
+     * the loop with the least registered channels
+     */
+    lc,
+    /**
+     * the loop with the least busy time recently,
+     * the one with less channels if the busy time is close (within 5%)
+     */
+    lbt,
+    /**
+     * pick two loops randomly, choose the one with less registered channels
+     */
+    p2c,
+}
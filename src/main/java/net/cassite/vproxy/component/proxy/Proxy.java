@@ -5,6 +5,7 @@ import net.cassite.vproxy.protocol.ProtocolConnectionHandler;
 import net.cassite.vproxy.protocol.ProtocolHandler;
 import net.cassite.vproxy.protocol.ProtocolHandlerContext;
 import net.cassite.vproxy.util.*;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
 
 import java.io.IOException;
 import java.nio.channels.NetworkChannel;
@@ -16,19 +17,25 @@ import java.util.Collection;
  * the session operations will always be handled in the same event loop
  */
 public class Proxy {
-    private static void utilValidate(ProxyNetConfig config) {
-        if (config.acceptLoop == null)
+    private static void utilValidate(ProxyNetConfig config, NetEventLoop acceptLoop, BindServer server) {
+        if (acceptLoop == null)
             throw new IllegalArgumentException("no accept loop");
         if (config.connGen == null)
             throw new IllegalArgumentException("no connection generator");
-        if (config.handleLoopProvider == null)
+        if (config.handleLoopProvider == null && !config.handleOnAcceptLoop)
             throw new IllegalArgumentException("no handler loop provider");
-        if (config.server == null)
+        if (server == null)
             throw new IllegalArgumentException("no server");
         if (config.inBufferSize <= 0)
             throw new IllegalArgumentException("inBufferSize <= 0");
         if (config.outBufferSize <= 0)
             throw new IllegalArgumentException("outBufferSize <= 0");
+        if (config.ioBudget < 0)
+            throw new IllegalArgumentException("ioBudget < 0");
+        if (config.corkThreshold < 0)
+            throw new IllegalArgumentException("corkThreshold < 0");
+        if (config.minBufferSize < 0)
+            throw new IllegalArgumentException("minBufferSize < 0");
     }
 
     private static void utilCloseConnection(Connection connection) {
@@ -50,28 +57,40 @@ public class Proxy {
     class SessionServerHandler implements ServerHandler {
         @Override
         public void acceptFail(ServerHandlerContext ctx, IOException err) {
-            Logger.fatal(LogType.SERVER_ACCEPT_FAIL, "accept connection failed, server = " + config.server + ", err = " + err);
+            Logger.fatal(LogType.SERVER_ACCEPT_FAIL, "accept connection failed, server = " + server() + ", err = " + err);
         }
 
         @Override
         public void connection(ServerHandlerContext ctx, Connection connection) {
+            connection.setIOBudget(config.ioBudget);
+            connection.setCorkThreshold(config.corkThreshold);
             switch (config.connGen.get().type()) {
                 case handler:
-                    handleHandler(connection);
+                    handleHandler(ctx.eventLoop, connection);
                     break;
                 case direct:
                 default:
-                    handleDirect(connection);
+                    handleDirect(ctx.eventLoop, connection);
             }
         }
 
-        private void handleDirect(Connection connection) {
+        // retrieve the loop to handle the connection
+        private NetEventLoop handleLoop(NetEventLoop acceptLoop) {
+            if (config.handleOnAcceptLoop) {
+                // the connection is handled where it's accepted
+                // no need to register it into another thread
+                return acceptLoop;
+            }
+            return config.handleLoopProvider.get();
+        }
+
+        private void handleDirect(NetEventLoop acceptLoop, Connection connection) {
             // make connection to another end point
             Connector connector = config.connGen.get().genConnector(connection);
-            handleDirect(connection, connector);
+            handleDirect(acceptLoop, connection, connector);
         }
 
-        private void handleDirect(Connection connection, Connector connector) {
+        private void handleDirect(NetEventLoop acceptLoop, Connection connection, Connector connector) {
             // check whether address tuple is null
             // null means the user code fail to provide a new connection
             // maybe user think that the backend is not working, or the source ip is forbidden
@@ -84,6 +103,9 @@ public class Proxy {
             }
 
             ClientConnection clientConnection;
+            // the connector may be shared by connections on different loops (e.g. persisted clients)
+            // so the start time is kept by the connection handler
+            long connectStart = System.nanoTime();
             try {
                 clientConnection = connector.connect(/*switch the two buffers to make a PROXY*/connection.getOutBuffer(), connection.getInBuffer());
             } catch (IOException e) {
@@ -94,9 +116,11 @@ public class Proxy {
                 utilCloseConnectionAndReleaseBuffers(connection);
                 return;
             }
+            clientConnection.setIOBudget(config.ioBudget);
+            clientConnection.setCorkThreshold(config.corkThreshold);
 
             Session session = new Session(connection, clientConnection);
-            ClientConnectionHandler handler = new SessionClientConnectionHandler(session);
+            ClientConnectionHandler handler = new SessionClientConnectionHandler(session, connectStart);
 
             // we get a new event loop for handling
             // the event loop is provided by user
@@ -110,7 +134,7 @@ public class Proxy {
                 NetEventLoop foo = connector.loop();
                 if (foo == null) {
                     assert Logger.lowLevelDebug("connector did not provide any loop, retrieve a new one");
-                    loop = config.handleLoopProvider.get();
+                    loop = handleLoop(acceptLoop);
                 } else {
                     assert Logger.lowLevelDebug("connector provided a loop");
                     loop = foo;
@@ -122,17 +146,18 @@ public class Proxy {
                 Logger.warn(LogType.NO_EVENT_LOOP, "cannot get event loop for client connection " + clientConnection);
                 return;
             }
+            // record the session before registering
+            // the loop may be another thread, and may close the session
+            // and remove the record before addClientConnection() returns
+            sessions.add(session);
+            // the session record will be removed in `removed()` callback
             try {
                 loop.addClientConnection(clientConnection, null, handler);
-
-                // here the handler added successfully, we can record the session
-                sessions.add(session);
-                // the session record will be removed in `removed()` callback
-
             } catch (IOException e) {
                 Logger.fatal(LogType.EVENT_LOOP_ADD_FAIL, "register passive connection into event loop failed, passive conn = " + clientConnection + ", err = " + e);
                 // should not happen
                 // but if it happens, we close both sides
+                sessions.remove(session);
                 utilCloseSessionAndReleaseBuffers(session);
             }
         }
@@ -148,6 +173,12 @@ public class Proxy {
 
             @Override
             protected void onSucceeded(Connector connector) {
+                if (active.isClosed()) {
+                    // the client is gone while the handler is working
+                    // the buffers are already released when the connection is removed
+                    assert Logger.lowLevelDebug("the connection " + active + " is closed before handled");
+                    return;
+                }
                 // remove the connection from loop first
                 // because we want to remove the old ConnectionHandler
                 // then handle it as direct
@@ -164,7 +195,8 @@ public class Proxy {
                 // will be checked in the following method
 
                 // handle like a normal proxy:
-                handleDirect(active, connector);
+                // the handler loop is considered as the accept loop
+                handleDirect(loop, active, connector);
             }
 
             @Override
@@ -177,16 +209,16 @@ public class Proxy {
         }
 
         @SuppressWarnings(/*ignore generics here*/"unchecked")
-        private void handleHandler(Connection connection) {
+        private void handleHandler(NetEventLoop acceptLoop, Connection connection) {
             // retrieve the handler
             ProtocolHandler pHandler = config.connGen.get().handler();
             // retrieve an event loop provided by user code
             // the net flow will be handled here
-            NetEventLoop loop = config.handleLoopProvider.get();
+            NetEventLoop loop = handleLoop(acceptLoop);
             if (loop == null) {
                 // the loop not exist
                 Logger.warn(LogType.NO_EVENT_LOOP, "cannot get event loop for handler");
-                connection.close();
+                utilCloseConnectionAndReleaseBuffers(connection);
                 return;
             }
 
@@ -200,7 +232,7 @@ public class Proxy {
                 // user code fail to provide the data
                 Logger.error(LogType.IMPROPER_USE, "user code should set a tuple(T, null) to the data field");
                 // close the connection because we cannot handle it anymore
-                connection.close();
+                utilCloseConnectionAndReleaseBuffers(connection);
                 return;
             }
             tup = new Tuple<>(tup.left, new HandlerCallback(loop, connection));
@@ -216,14 +248,42 @@ public class Proxy {
                 // and do some log
                 Logger.error(LogType.EVENT_LOOP_ADD_FAIL, "add new connection into loop failed", e);
                 // the connection should be closed by the lib
-                connection.close();
+                // it's not in the loop, so the buffers are not released when removed
+                utilCloseConnectionAndReleaseBuffers(connection);
             }
         }
 
         @Override
         public Tuple<RingBuffer, RingBuffer> getIOBuffers(NetworkChannel channel) {
-            RingBuffer inBuffer = RingBuffer.allocateDirect(config.inBufferSize);
-            RingBuffer outBuffer = RingBuffer.allocateDirect(config.outBufferSize);
+            int inCap = config.inBufferSize;
+            int outCap = config.outBufferSize;
+            if (config.minBufferSize > 0) {
+                inCap = Math.min(config.minBufferSize, inCap);
+                outCap = Math.min(config.minBufferSize, outCap);
+            }
+            // reserve the initial capacities, and the reservation is handed to the buffers
+            // the buffers reserve more themselves when growing
+            if (!config.memoryBudget.tryReserve((long) inCap + outCap)) {
+                assert Logger.lowLevelDebug("memory budget " + config.memoryBudget.name + " exhausted, reject the connection");
+                return null; // the connection will be closed
+            }
+            SimpleRingBuffer inBuffer;
+            SimpleRingBuffer outBuffer;
+            if (config.minBufferSize > 0) {
+                inBuffer = SimpleRingBuffer.allocateDirectAdaptive(inCap, config.inBufferSize,
+                    config.lazyBuffers, config.resizeRecorder, config.memoryBudget);
+                outBuffer = SimpleRingBuffer.allocateDirectAdaptive(outCap, config.outBufferSize,
+                    config.lazyBuffers, config.resizeRecorder, config.memoryBudget);
+            } else if (config.lazyBuffers) {
+                inBuffer = SimpleRingBuffer.allocateDirectLazy(inCap, config.memoryBudget);
+                outBuffer = SimpleRingBuffer.allocateDirectLazy(outCap, config.memoryBudget);
+            } else {
+                inBuffer = SimpleRingBuffer.allocateDirect(inCap, config.memoryBudget);
+                outBuffer = SimpleRingBuffer.allocateDirect(outCap, config.memoryBudget);
+            }
+            // the in buffer of one connection is the out buffer of the other one
+            inBuffer.setWatermarks(config.highWatermark, config.lowWatermark);
+            outBuffer.setWatermarks(config.highWatermark, config.lowWatermark);
             return new Tuple<>(inBuffer, outBuffer);
         }
 
@@ -292,16 +352,22 @@ public class Proxy {
 
     class SessionClientConnectionHandler implements ClientConnectionHandler {
         private final Session session;
+        private final long connectStart;
         private boolean isConnected = false;
 
-        SessionClientConnectionHandler(Session session) {
+        SessionClientConnectionHandler(Session session, long connectStart) {
             this.session = session;
+            this.connectStart = connectStart;
         }
 
         @Override
         public void connected(ClientConnectionHandlerContext ctx) {
             assert Logger.lowLevelDebug("passive connection established: " + ctx.connection);
             isConnected = true; // it's connected
+            Connector connector = ctx.connection.getConnector();
+            if (connector != null) {
+                connector.connectionSucceeded(System.nanoTime() - connectStart);
+            }
 
             // now we can add active connection into event loop
             // use event loop from context
@@ -374,21 +440,47 @@ public class Proxy {
     }
 
     private final ProxyNetConfig config;
+    // null means reading from the config
+    private final NetEventLoop acceptLoop;
+    private final BindServer server;
     private final ProxyEventHandler handler;
     private final ConcurrentHashSet<Session> sessions = new ConcurrentHashSet<>();
 
     public Proxy(ProxyNetConfig config, ProxyEventHandler handler) {
+        this(config, null, null, handler);
+    }
+
+    /**
+     * the accept loop and the server are specified for this proxy, other settings are read from the config,
+     * so the config can be shared by proxies listening on different sockets
+     *
+     * @param acceptLoop the accept loop, or null to use the one in the config
+     * @param server     the server, or null to use the one in the config
+     */
+    public Proxy(ProxyNetConfig config, NetEventLoop acceptLoop, BindServer server, ProxyEventHandler handler) {
         this.handler = handler;
         this.config = config;
+        this.acceptLoop = acceptLoop;
+        this.server = server;
+    }
+
+    private NetEventLoop acceptLoop() {
+        return acceptLoop == null ? config.acceptLoop : acceptLoop;
+    }
+
+    private BindServer server() {
+        return server == null ? config.server : server;
     }
 
     public void handle() throws IOException {
-        utilValidate(config);
-        config.acceptLoop.addServer(config.server, null, new SessionServerHandler());
+        NetEventLoop acceptLoop = acceptLoop();
+        BindServer server = server();
+        utilValidate(config, acceptLoop, server);
+        acceptLoop.addServer(server, null, new SessionServerHandler());
     }
 
     public void stop() {
-        config.acceptLoop.removeServer(config.server);
+        acceptLoop().removeServer(server());
     }
 
     public int sessionCount() {
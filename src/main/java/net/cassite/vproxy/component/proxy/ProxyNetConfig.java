@@ -2,6 +2,8 @@ package net.cassite.vproxy.component.proxy;
 
 import net.cassite.vproxy.connection.BindServer;
 import net.cassite.vproxy.connection.NetEventLoop;
+import net.cassite.vproxy.util.MemoryBudget;
+import net.cassite.vproxy.util.ringbuffer.ResizeRecorder;
 
 import java.util.function.Supplier;
 
@@ -9,11 +11,30 @@ public class ProxyNetConfig {
     NetEventLoop acceptLoop;
     BindServer server;
     NetEventLoopProvider handleLoopProvider;
+    // when true, the accepted connections are handled on the accept loop
+    // the handleLoopProvider is not used and can be null
+    boolean handleOnAcceptLoop = false;
     Supplier<ConnectorGen> connGen;
 
 
     int inBufferSize = 128;
     int outBufferSize = 128;
+    int ioBudget = 0;
+    // writes smaller than the threshold are deferred to the end of the loop round, 0 means disabled
+    int corkThreshold = 0;
+    // when true, the direct memory of the buffers is only held when there are bytes in flight
+    boolean lazyBuffers = false;
+    // 0 means the buffer sizes are fixed
+    // otherwise the buffers start from minBufferSize and grow up to in/out buffer size
+    int minBufferSize = 0;
+    ResizeRecorder resizeRecorder;
+    // the direct memory of the buffers is counted in the budget
+    // new connections are rejected when the budget cannot hold their buffers
+    MemoryBudget memoryBudget = MemoryBudget.GLOBAL;
+    // percentage of the buffer capacity
+    // stop reading when the in buffer reaches the high watermark, and continue when it falls to the low watermark
+    int highWatermark = 100;
+    int lowWatermark = 100;
 
     public ProxyNetConfig setAcceptLoop(NetEventLoop acceptLoop) {
         this.acceptLoop = acceptLoop;
@@ -30,6 +51,11 @@ public class ProxyNetConfig {
         return this;
     }
 
+    public ProxyNetConfig setHandleOnAcceptLoop(boolean handleOnAcceptLoop) {
+        this.handleOnAcceptLoop = handleOnAcceptLoop;
+        return this;
+    }
+
     public ProxyNetConfig setConnGen(Supplier<ConnectorGen> connGen) {
         this.connGen = connGen;
         return this;
@@ -45,6 +71,42 @@ public class ProxyNetConfig {
         return this;
     }
 
+    public ProxyNetConfig setIOBudget(int ioBudget) {
+        this.ioBudget = ioBudget;
+        return this;
+    }
+
+    public ProxyNetConfig setCorkThreshold(int corkThreshold) {
+        this.corkThreshold = corkThreshold;
+        return this;
+    }
+
+    public ProxyNetConfig setLazyBuffers(boolean lazyBuffers) {
+        this.lazyBuffers = lazyBuffers;
+        return this;
+    }
+
+    public ProxyNetConfig setMinBufferSize(int minBufferSize) {
+        this.minBufferSize = minBufferSize;
+        return this;
+    }
+
+    public ProxyNetConfig setResizeRecorder(ResizeRecorder resizeRecorder) {
+        this.resizeRecorder = resizeRecorder;
+        return this;
+    }
+
+    public ProxyNetConfig setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    public ProxyNetConfig setWatermarks(int highWatermark, int lowWatermark) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        return this;
+    }
+
     public NetEventLoop getAcceptLoop() {
         return acceptLoop;
     }
@@ -57,6 +119,10 @@ public class ProxyNetConfig {
         return handleLoopProvider;
     }
 
+    public boolean isHandleOnAcceptLoop() {
+        return handleOnAcceptLoop;
+    }
+
     public Supplier<ConnectorGen> getConnGen() {
         return connGen;
     }
@@ -68,4 +134,36 @@ public class ProxyNetConfig {
     public int getOutBufferSize() {
         return outBufferSize;
     }
+
+    public int getIOBudget() {
+        return ioBudget;
+    }
+
+    public int getCorkThreshold() {
+        return corkThreshold;
+    }
+
+    public boolean isLazyBuffers() {
+        return lazyBuffers;
+    }
+
+    public int getMinBufferSize() {
+        return minBufferSize;
+    }
+
+    public ResizeRecorder getResizeRecorder() {
+        return resizeRecorder;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
 }
@@ -0,0 +1,159 @@
+package net.cassite.vproxy.component.svrgroup;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/*
+ * A min heap in which each node records its position,
+ * so a node can be removed or moved after its key changes in O(log n).
+ * Ties should be broken by the comparator, otherwise the order of equal nodes is undefined.
+ *
+ * Not thread safe, the users guard it with their own locks.
+ */
+class IndexedHeap<E extends IndexedHeap.Node> {
+    static class Node {
+        int heapIndex = -1; // -1 means not in the heap, only modified by the heap
+
+        boolean inHeap() {
+            return heapIndex != -1;
+        }
+    }
+
+    private final Comparator<? super E> comparator;
+    private final ArrayList<E> heap;
+    private final ArrayList<E> skipped = new ArrayList<>(); // only used in first()
+
+    IndexedHeap(Comparator<? super E> comparator, int initialCapacity) {
+        this.comparator = comparator;
+        this.heap = new ArrayList<>(initialCapacity);
+    }
+
+    /**
+     * replace all nodes in the heap, costs O(n)
+     */
+    void reset(List<E> nodes) {
+        for (E e : heap) {
+            e.heapIndex = -1;
+        }
+        heap.clear();
+        for (E e : nodes) {
+            e.heapIndex = heap.size();
+            heap.add(e);
+        }
+        for (int i = (heap.size() >>> 1) - 1; i >= 0; --i) {
+            siftDown(i);
+        }
+    }
+
+    void offer(E e) {
+        e.heapIndex = heap.size();
+        heap.add(e);
+        siftUp(e.heapIndex);
+    }
+
+    void remove(E e) {
+        if (e.heapIndex != -1) {
+            remove(e.heapIndex);
+        }
+    }
+
+    /**
+     * move the node after its key changed
+     */
+    void fix(E e) {
+        int idx = e.heapIndex;
+        if (idx == -1)
+            return;
+        siftDown(idx);
+        if (heap.get(idx) == e) {
+            siftUp(idx);
+        }
+    }
+
+    /**
+     * find the least node accepted by the predicate.
+     * rejected nodes are taken out while searching and put back afterwards,
+     * so each node is tested at most once.
+     * the predicate may change the key of the tested node,
+     * and the accepted node is moved before the rejected ones are put back
+     *
+     * @return null if no node is accepted
+     */
+    E first(Predicate<? super E> accept) {
+        E picked = null;
+        while (!heap.isEmpty()) {
+            E top = heap.get(0);
+            if (accept.test(top)) {
+                siftDown(0);
+                picked = top;
+                break;
+            }
+            remove(0);
+            skipped.add(top);
+        }
+        if (!skipped.isEmpty()) {
+            for (E e : skipped) {
+                offer(e);
+            }
+            skipped.clear();
+        }
+        return picked;
+    }
+
+    private boolean less(E a, E b) {
+        return comparator.compare(a, b) < 0;
+    }
+
+    private void set(int idx, E e) {
+        heap.set(idx, e);
+        e.heapIndex = idx;
+    }
+
+    private void remove(int idx) {
+        E removed = heap.get(idx);
+        removed.heapIndex = -1;
+        E last = heap.remove(heap.size() - 1);
+        if (idx == heap.size())
+            return;
+        set(idx, last);
+        siftDown(idx);
+        if (heap.get(idx) == last) {
+            siftUp(idx);
+        }
+    }
+
+    private void siftUp(int idx) {
+        E e = heap.get(idx);
+        while (idx > 0) {
+            int parent = (idx - 1) >>> 1;
+            E p = heap.get(parent);
+            if (!less(e, p))
+                break;
+            set(idx, p);
+            idx = parent;
+        }
+        set(idx, e);
+    }
+
+    private void siftDown(int idx) {
+        E e = heap.get(idx);
+        int size = heap.size();
+        int half = size >>> 1;
+        while (idx < half) {
+            int child = (idx << 1) + 1;
+            E c = heap.get(child);
+            int right = child + 1;
+            if (right < size && less(heap.get(right), c)) {
+                child = right;
+                c = heap.get(child);
+            }
+            if (!less(c, e))
+                break;
+            set(idx, c);
+            idx = child;
+        }
+        set(idx, e);
+    }
+}
@@ -0,0 +1,147 @@
+package net.cassite.vproxy.component.svrgroup;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/*
+ * Maglev consistent hashing:
+ * see https://research.google/pubs/pub44824/
+ *
+ * A lookup table of M (a prime) slots is filled by the elements in turn,
+ * each element tries the slots in its own permutation:
+ *   offset = h1(key) % M, skip = h2(key) % (M - 1) + 1,
+ *   permutation[j] = (offset + j * skip) % M
+ * and takes the first slot not taken yet.
+ * A client address is hashed into a slot, and the element in the slot is picked.
+ *
+ * The permutations only depend on the keys of the elements,
+ * so when an element is added or removed, most slots keep the same elements,
+ * which means most clients still go to the same element,
+ * and there's no need to record the client-element relations.
+ *
+ * Elements with greater weights take more turns when filling the table,
+ * so they own more slots.
+ *
+ * The table is immutable after built, so lookups do not lock.
+ * Rebuilding reuses the permutations of the previous table (they only depend on the keys),
+ * and costs O(M log M) in the worst case (usually a few milliseconds).
+ */
+public class Maglev<T> {
+    public static final int TABLE_SIZE = 65537; // should be much greater than the count of elements
+
+    private static class Permutation {
+        final int offset;
+        final int skip;
+
+        Permutation(String key) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            this.offset = (int) ((hash(bytes, 0xcbf29ce484222325L) & Long.MAX_VALUE) % TABLE_SIZE);
+            this.skip = (int) ((hash(bytes, 0x84222325cbf29ce4L) & Long.MAX_VALUE) % (TABLE_SIZE - 1)) + 1;
+        }
+    }
+
+    private final Object[] elements;
+    private final int[] table;
+    private final HashMap<String, Permutation> permutations; // key -> permutation, reused when rebuilding
+
+    /**
+     * @param elements elements, all of them are put into the table except those with weight &lt;= 0
+     * @param key      retrieve the key from the element, which determines the slots of the element.
+     *                 should be the same for the same element (e.g. alias) even across processes
+     * @param weight   retrieve weight from the element
+     * @param previous the previous table, may be null
+     */
+    public Maglev(List<T> elements, Function<T, String> key, ToIntFunction<T> weight, Maglev<T> previous) {
+        int n = 0;
+        int maxWeight = 0;
+        for (T e : elements) {
+            int w = weight.applyAsInt(e);
+            if (w > 0) {
+                ++n;
+                maxWeight = Math.max(maxWeight, w);
+            }
+        }
+        this.elements = new Object[n];
+        int[] weights = new int[n];
+        Permutation[] perms = new Permutation[n];
+        this.permutations = new HashMap<>();
+        int idx = 0;
+        for (T e : elements) {
+            int w = weight.applyAsInt(e);
+            if (w <= 0)
+                continue;
+            String k = key.apply(e);
+            Permutation p = previous == null ? null : previous.permutations.get(k);
+            if (p == null) {
+                p = new Permutation(k);
+            }
+            permutations.put(k, p);
+            this.elements[idx] = e;
+            weights[idx] = w;
+            perms[idx] = p;
+            ++idx;
+        }
+
+        this.table = new int[TABLE_SIZE];
+        if (n == 0)
+            return;
+        populate(weights, maxWeight, perms);
+    }
+
+    private void populate(int[] weights, int maxWeight, Permutation[] perms) {
+        int n = weights.length;
+        int[] next = new int[n]; // the next index in the permutation of each element
+        long[] credits = new long[n]; // an element takes a turn when its credit reaches maxWeight
+        Arrays.fill(table, -1);
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < n; ++i) {
+                credits[i] += weights[i];
+                if (credits[i] < maxWeight)
+                    continue;
+                credits[i] -= maxWeight;
+
+                Permutation p = perms[i];
+                int slot;
+                do {
+                    slot = (int) ((p.offset + (long) next[i] * p.skip) % TABLE_SIZE);
+                    ++next[i];
+                } while (table[slot] != -1);
+                table[slot] = i;
+                if (++filled == TABLE_SIZE)
+                    return;
+            }
+        }
+    }
+
+    /**
+     * @return null if the table is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T lookup(InetAddress address) {
+        if (elements.length == 0)
+            return null;
+        long h = hash(address.getAddress(), 0xcbf29ce484222325L);
+        return (T) elements[table[(int) ((h & Long.MAX_VALUE) % TABLE_SIZE)]];
+    }
+
+    // fnv-1a, then mix the bits (the finalizer of murmur3)
+    static long hash(byte[] bytes, long seed) {
+        long h = seed;
+        for (byte b : bytes) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -3,4 +3,7 @@ package net.cassite.vproxy.component.svrgroup;
 public enum Method {
     wrr,
     wlc,
+    maglev,
+    p2c,
+    ewma,
 }
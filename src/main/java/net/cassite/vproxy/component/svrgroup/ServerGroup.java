@@ -23,11 +23,12 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 public class ServerGroup {
     public class ServerHandle implements EventLoopAttach, NetFlowRecorder, ConnCloseHandler {
@@ -37,6 +38,7 @@ public class ServerGroup {
                 healthy = true;
                 Logger.info(LogType.HEALTH_CHECK_CHANGE,
                     "server " + ServerHandle.this.alias + "(" + server + ") status changed to UP");
+                healthChanged(ServerHandle.this);
 
                 // remove the replaced server because this server is UP
                 if (toLogicDelete != null) {
@@ -54,6 +56,7 @@ public class ServerGroup {
                 healthy = false;
                 Logger.info(LogType.HEALTH_CHECK_CHANGE,
                     "server " + ServerHandle.this.alias + "(" + server + ") status changed to DOWN");
+                healthChanged(ServerHandle.this);
 
                 // alert event
                 alertListeners(lsn -> lsn.down(ServerHandle.this));
@@ -65,6 +68,12 @@ public class ServerGroup {
                 assert Logger.lowLevelDebug("up once for " + ServerHandle.this.alias + "(" + server + ")");
             }
 
+            @Override
+            public void upOnce(SocketAddress remote, long connectCost) {
+                upOnce(remote);
+                recordConnectCost(connectCost);
+            }
+
             @Override
             public void downOnce(SocketAddress remote) {
                 // do nothing but debug log
@@ -118,6 +127,11 @@ public class ServerGroup {
         private final LongAdder toRemoteBytes = new LongAdder();
 
         private ConcurrentHashSet<Connection> connMap = new ConcurrentHashSet<>();
+        // the size of connMap, it's cheaper to read than the size of the set
+        private final AtomicInteger connectionCount = new AtomicInteger(0);
+        // peak ewma of the connect cost (nanoseconds), 0 means not measured yet
+        private volatile double connectCostEwma = 0;
+        private long connectCostRecordTime = 0;
 
         public Object data; // the data field, not used by this lib
 
@@ -158,15 +172,61 @@ public class ServerGroup {
 
         @Override
         public void onConnClose(Connection conn) {
-            connMap.remove(conn);
+            if (connMap.remove(conn)) {
+                connectionCount.decrementAndGet();
+                connectionCountChanged();
+            }
         }
 
         void attachConnection(Connection conn) {
-            connMap.add(conn);
+            if (connMap.add(conn)) {
+                connectionCount.incrementAndGet();
+                connectionCountChanged();
+            }
+        }
+
+        private void connectionCountChanged() {
+            // only wlc keeps the servers ordered by connections
+            // the wlc is rebuilt with current connection counts when the method changes
+            WLC<ServerHandle> wlc = _wlc;
+            if (wlc != null) {
+                wlc.update(this);
+            }
         }
 
         public int connectionCount() {
-            return connMap.size();
+            return connectionCount.get();
+        }
+
+        // record the time cost of a connection (both proxied connections and health check connections)
+        void recordConnectCost(long cost) {
+            recordConnectCost(cost, System.nanoTime());
+        }
+
+        /**
+         * record the time cost of a connection
+         *
+         * @param cost the connect cost in nanoseconds
+         * @param now  System.nanoTime() when the cost is measured
+         */
+        public synchronized void recordConnectCost(long cost, long now) {
+            double ewma = connectCostEwma;
+            if (ewma == 0 || cost > ewma) {
+                // the peak is taken directly, so that a slowing down server is avoided immediately
+                connectCostEwma = cost;
+            } else {
+                // the older the average is, the less it affects the new one
+                double w = Math.exp(-(double) (now - connectCostRecordTime) / EWMA_DECAY);
+                connectCostEwma = ewma * w + cost * (1 - w);
+            }
+            connectCostRecordTime = now;
+        }
+
+        /**
+         * @return ewma of the connect cost in nanoseconds, 0 means not measured yet
+         */
+        public double getConnectCostEwma() {
+            return connectCostEwma;
         }
 
         public void copyConnections(Collection<? super Connection> c) {
@@ -181,7 +241,12 @@ public class ServerGroup {
             boolean needReload = this.weight != weight;
             this.weight = weight;
             if (needReload) {
-                resetMethodRelatedFields();
+                if (!_wrr.setWeight(this, weight)) {
+                    wrrReset();
+                }
+                wlcReset();
+                weightedReset();
+                maglevReset();
             }
         }
 
@@ -306,36 +371,28 @@ public class ServerGroup {
     public final String alias;
     public final EventLoopGroup eventLoopGroup;
     private HealthCheckConfig healthCheckConfig;
-    private Method method;
+    private volatile Method method;
     private final Attach attach;
     private ArrayList<ServerHandle> servers = new ArrayList<>(0);
     private final CopyOnWriteArraySet<ServerListener> serverListeners = new CopyOnWriteArraySet<>();
 
     // START fields for WRR
-    static class WRR {
-        int[] seq;
-        final AtomicInteger wrrCursor = new AtomicInteger(0);
-        final ArrayList<ServerHandle> servers; // = servers;
-
-        WRR(List<ServerHandle> servers) {
-            this.servers = new ArrayList<>(servers);
-        }
-    }
-
-    private WRR _wrr;
+    private WRR<ServerHandle> _wrr;
     // END fields for WRR
 
     // START fields for WLC
-    static class WLC {
-        final ArrayList<ServerHandle> servers;
+    private volatile WLC<ServerHandle> _wlc; // null if the method is not wlc
+    // END fields for WLC
 
-        WLC(List<ServerHandle> servers) {
-            this.servers = new ArrayList<>(servers);
-        }
-    }
+    // START fields for P2C and EWMA
+    private volatile ArrayList<ServerHandle> _weighted = new ArrayList<>(0); // servers with weight > 0, empty if the method is not p2c nor ewma
+    // END fields for P2C and EWMA
 
-    private WLC _wlc;
-    // END fields for WLC
+    // START fields for MAGLEV
+    private volatile Maglev<ServerHandle> _maglev; // null if the method is not maglev
+    private volatile boolean maglevDirty = false; // the health state changed after the table is built
+    private final AtomicBoolean maglevRebuilding = new AtomicBoolean(false);
+    // END fields for MAGLEV
 
     public ServerGroup(String alias,
                        EventLoopGroup eventLoopGroup,
@@ -355,10 +412,24 @@ public class ServerGroup {
      * @return null if not found any healthy
      */
     public SvrHandleConnector next() {
+        return next(null);
+    }
+
+    /**
+     * @param source the client address, used by hash based methods (maglev), may be null
+     * @return null if not found any healthy
+     */
+    public SvrHandleConnector next(InetAddress source) {
         if (method == Method.wrr) {
             return wrrNext();
         } else if (method == Method.wlc) {
             return wlcNext();
+        } else if (method == Method.maglev) {
+            return maglevNext(source);
+        } else if (method == Method.p2c) {
+            return p2cNext();
+        } else if (method == Method.ewma) {
+            return ewmaNext();
         } else {
             Logger.shouldNotHappen("unsupported method " + method);
             // use wrr instead
@@ -401,161 +472,202 @@ public class ServerGroup {
      */
 
     private SvrHandleConnector wlcNext() {
-        return wlcNext(_wlc, 0);
+        // the scan above is replaced by a heap ordered by C(Si) / W(Si)
+        // so that the pick costs O(log n) for large groups, see WLC
+        WLC<ServerHandle> wlc = _wlc;
+        if (wlc == null) // the method is just changed and the heap is not built yet
+            return wlcScan(servers);
+        ServerHandle h = wlc.next();
+        if (h == null)
+            return null; // return null if no healthy servers
+        return h.makeConnector();
     }
 
-    private SvrHandleConnector wlcNext(WLC wlc, int mStart) {
-        if (mStart >= wlc.servers.size())
-            return null;
-
-        if (wlc.servers.isEmpty())
-            return null;
-        int m, n, WSm, CSm, WSi, CSi;
-        ServerHandle Sm;
-        m = mStart;
-        n = wlc.servers.size();
-        // for (m = 0; m < n; ++m) {
-        { // --------- START ---------
-            Sm = wlc.servers.get(m);
-            WSm = Sm.weight;
-            CSm = Sm.connectionCount();
-        } // --------- END ---------
-        if (!Sm.healthy) {
-            return wlcNext(wlc, mStart + 1);
-        }
-        // if (WSm > 0) {
-        for (int i = m + 1; i < n; ++i) {
-            ServerHandle Si = wlc.servers.get(i);
-            WSi = Si.weight;
-            CSi = Si.connectionCount();
-            if (CSm * WSi > CSi * WSm && Si.healthy) {
-                m = i;
-                { // --------- START ---------
-                    Sm = wlc.servers.get(m);
-                    WSm = Sm.weight;
-                    CSm = Sm.connectionCount();
-                } // --------- END ---------
+    // the scan described above, it reads the current connection counts
+    // used by methods which do not maintain the wlc heap
+    private SvrHandleConnector wlcScan(ArrayList<ServerHandle> servers) {
+        ServerHandle Sm = null;
+        for (ServerHandle Si : servers) {
+            if (!Si.healthy || Si.weight <= 0)
+                continue;
+            if (Sm == null || (long) Sm.connectionCount() * Si.weight > (long) Si.connectionCount() * Sm.weight) {
+                Sm = Si;
             }
         }
+        if (Sm == null)
+            return null;
         return Sm.makeConnector();
-        // }
-        // }
-        // return null;
     }
 
     private SvrHandleConnector wrrNext() {
-        return wrrNext(this._wrr, 0);
+        return wrrNext(this._wrr);
+    }
+
+    private SvrHandleConnector wrrNext(WRR<ServerHandle> wrr) {
+        ServerHandle h = wrr.next(s -> s.healthy);
+        if (h == null)
+            return null; // return null if no healthy elements
+        return h.makeConnector();
+    }
+
+    /*
+     * Power of two choices:
+     * randomly sample two healthy servers (from servers with weight > 0),
+     * and pick the one with less connections per weight, i.e. C(a) * W(b) <= C(b) * W(a).
+     * It costs O(1) regardless of the count of servers,
+     * and avoids the herd behavior of always picking the least loaded one.
+     * If healthy servers cannot be sampled in a few tries (most servers are DOWN),
+     * fall back to scanning with wlc (the heap is only maintained for wlc, so it's not used).
+     */
+    private static final int P2C_SAMPLE_TRIES = 8;
+
+    private SvrHandleConnector p2cNext() {
+        ArrayList<ServerHandle> servers = _weighted;
+        int n = servers.size();
+        if (n == 0)
+            return null;
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        ServerHandle a = null;
+        ServerHandle b = null;
+        for (int i = 0; i < P2C_SAMPLE_TRIES && b == null; ++i) {
+            ServerHandle h = servers.get(rand.nextInt(n));
+            if (!h.healthy || h == a)
+                continue;
+            if (a == null) {
+                a = h;
+            } else {
+                b = h;
+            }
+        }
+        if (a == null)
+            return wlcScan(servers);
+        if (b != null && (long) b.connectionCount() * a.weight < (long) a.connectionCount() * b.weight) {
+            a = b;
+        }
+        return a.makeConnector();
     }
 
-    private SvrHandleConnector wrrNext(WRR wrr, int recursion) {
-        if (recursion > wrr.seq.length)
+    /*
+     * Peak EWMA:
+     * each server keeps an exponentially-weighted moving average of the connect cost L(Si),
+     * measured when connecting to the server and when doing health check.
+     * when a sample is greater than the average, the average is set to the sample (the peak),
+     * otherwise the sample is merged into the average, and older averages decay faster.
+     *
+     * The new connection is assigned to the server j, in which
+     *   L(Sj) * (C(Sj) + 1) / W(Sj) = min { L(Si) * (C(Si) + 1) / W(Si) }, where W(Si) isn't zero
+     * so the servers responding slowly receive less connections,
+     * and the connections are still spread among servers with similar latency.
+     * Servers not measured yet are considered to be the fastest, and they will be measured soon.
+     */
+    private static final double EWMA_DECAY = 10_000_000_000d; // 10 seconds in nanoseconds
+
+    private SvrHandleConnector ewmaNext() {
+        ArrayList<ServerHandle> servers = _weighted;
+        ServerHandle best = null;
+        double bestScore = 0;
+        for (ServerHandle h : servers) {
+            if (!h.healthy)
+                continue;
+            double score = (h.connectCostEwma + 1) * (h.connectionCount() + 1) / h.weight;
+            if (best == null || score < bestScore) {
+                best = h;
+                bestScore = score;
+            }
+        }
+        if (best == null)
             return null;
-        if (wrr.seq.length == 0)
-            return null; // return null if no elements
+        return best.makeConnector();
+    }
 
-        int idx = wrr.wrrCursor.getAndIncrement();
-        if (idx >= wrr.seq.length) {
-            idx = idx % wrr.seq.length;
-            wrr.wrrCursor.set(idx + 1);
+    private SvrHandleConnector maglevNext(InetAddress source) {
+        Maglev<ServerHandle> maglev = _maglev;
+        if (source == null || maglev == null)
+            return wrrNext();
+        ServerHandle h = maglev.lookup(source);
+        if (h == null || !h.healthy) {
+            // no healthy servers, or the health state changed and the table is not rebuilt yet
+            return wrrNext();
         }
-        int realIdx = wrr.seq[idx];
-        ServerHandle h = wrr.servers.get(realIdx);
-        if (h.healthy)
-            return h.makeConnector();
-        else
-            return wrrNext(wrr, recursion + 1);
+        return h.makeConnector();
     }
 
     private void resetMethodRelatedFields() {
         wrrReset();
         wlcReset();
+        weightedReset();
+        maglevReset();
+    }
+
+    private void healthChanged(ServerHandle h) {
+        // the maglev table and the wlc heap consider the health state
+        // other methods check the health state when picking
+        maglevRebuildLater();
+        WLC<ServerHandle> wlc = _wlc;
+        if (wlc != null) {
+            wlc.availableChanged(h);
+        }
     }
 
     private void wlcReset() {
-        this._wlc = new WLC(this.servers.stream().filter(s -> s.weight > 0).collect(Collectors.toList()));
+        if (method != Method.wlc) {
+            this._wlc = null;
+            return;
+        }
+        WLC<ServerHandle> wlc = new WLC<>(this.servers, s -> s.weight, ServerHandle::connectionCount, s -> s.healthy);
+        this._wlc = wlc;
+        // connections attached or closed while building
+        // may be updated into the previous wlc, so read again after publishing
+        wlc.reload();
     }
 
-    private void wrrReset() {
-        WRR wrr = new WRR(this.servers.stream()
-            .filter(s -> s.weight > 0) // only consider those weight > 0
-            .collect(Collectors.toList()));
-        if (wrr.servers.isEmpty()) {
-            wrr.seq = new int[0];
-        } else {
-            // calculate the seq
-            List<Integer> listSeq = new LinkedList<>();
-            int[] weights = new int[wrr.servers.size()];
-            int[] original = new int[wrr.servers.size()];
-            // run calculation
-            int sum = 0;
-            for (int i = 0; i < wrr.servers.size(); i++) {
-                ServerHandle h = wrr.servers.get(i);
-                weights[i] = h.weight;
-                original[i] = h.weight;
-                sum += h.weight;
-            }
-            //noinspection Duplicates
-            while (true) {
-                int idx = maxIndex(weights);
-                listSeq.add(idx);
-                weights[idx] -= sum;
-                if (calculationEnd(weights)) {
-                    break;
-                }
-                for (int i = 0; i < weights.length; ++i) {
-                    weights[i] += original[i];
-                }
-                sum = sum(weights); // recalculate sum
-            }
-            int[] seq = new int[listSeq.size()];
-
-            // random is for this concern:
-            // if you deploy multiple instances of vproxy
-            // with exactly the same configuration
-            // behind a (w)rr LVS or other proxy servers
-            // without the `randStart`, first few connections
-            // will always be made to the same server
-            // which may cause some failure
-            int randStart = new Random().nextInt(seq.length);
-            // the random wll only run when updating config
-            Iterator<Integer> ite = listSeq.iterator();
-            int idx = 0;
-            while (ite.hasNext()) {
-                seq[(idx + randStart) % seq.length] = ite.next();
-                ++idx;
+    private void weightedReset() {
+        if (method != Method.p2c && method != Method.ewma) {
+            this._weighted = new ArrayList<>(0);
+            return;
+        }
+        ArrayList<ServerHandle> servers = this.servers;
+        ArrayList<ServerHandle> weighted = new ArrayList<>(servers.size());
+        for (ServerHandle h : servers) {
+            if (h.weight > 0) {
+                weighted.add(h);
             }
-            wrr.seq = seq;
         }
-
-        this._wrr = wrr;
+        this._weighted = weighted;
     }
 
-    private int sum(int[] weights) {
-        int s = 0;
-        for (int w : weights) {
-            s += w;
-        }
-        return s;
+    private void wrrReset() {
+        // servers with weight 0 are kept in the wrr but never picked
+        // so weight changes can be applied without rebuilding
+        this._wrr = new WRR<>(this.servers, s -> s.weight, this._wrr);
     }
 
-    private boolean calculationEnd(int[] weights) {
-        for (int w : weights) {
-            if (w != 0)
-                return false;
+    private synchronized void maglevReset() {
+        if (method != Method.maglev) {
+            this._maglev = null;
+            return;
         }
-        return true;
+        // unhealthy servers are not in the table,
+        // so that the clients of healthy servers are not affected
+        this._maglev = new Maglev<>(this.servers, s -> s.alias, s -> s.healthy ? s.weight : 0, this._maglev);
     }
 
-    private int maxIndex(int[] weights) {
-        int maxIdx = 0;
-        int maxVal = weights[0];
-        for (int i = 1; i < weights.length; ++i) {
-            if (weights[i] > maxVal) {
-                maxVal = weights[i];
-                maxIdx = i;
-            }
-        }
-        return maxIdx;
+    // the health state changes on event loops, and building the table takes a few milliseconds,
+    // so the table is rebuilt in another thread, and changes made while rebuilding are merged into one rebuild.
+    // the servers not healthy are skipped when picking, so the table in use is still correct before rebuilt
+    private void maglevRebuildLater() {
+        if (method != Method.maglev)
+            return;
+        maglevDirty = true;
+        if (!maglevRebuilding.compareAndSet(false, true))
+            return; // the running rebuild will check the dirty flag after finishing
+        new Thread(() -> {
+            do {
+                maglevDirty = false;
+                maglevReset();
+                maglevRebuilding.set(false);
+            } while (maglevDirty && maglevRebuilding.compareAndSet(false, true));
+        }, "MaglevRebuild:" + alias).start();
     }
 
     public void setMethod(Method method) {
@@ -4,23 +4,23 @@ import net.cassite.vproxy.component.exception.AlreadyExistException;
 import net.cassite.vproxy.component.exception.NotFoundException;
 import net.cassite.vproxy.connection.Connector;
 
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
 
 public class ServerGroups {
     public class ServerGroupHandle {
         public final String alias;
         public final ServerGroup group;
         private int weight;
+        private final long hashSeed; // used when choosing the group by client address
 
         public ServerGroupHandle(ServerGroup group, int weight) {
             this.alias = group.alias;
             this.group = group;
             this.weight = weight;
+            this.hashSeed = Maglev.hash(alias.getBytes(StandardCharsets.UTF_8), 0xcbf29ce484222325L);
         }
 
         public int getWeight() {
@@ -29,23 +29,15 @@ public class ServerGroups {
 
         public void setWeight(int weight) {
             this.weight = weight;
-            recalculateWRR();
-        }
-    }
-
-    class WRR {
-        final AtomicInteger cursor = new AtomicInteger(0);
-        final ArrayList<ServerGroupHandle> groups;
-        int[] seq;
-
-        WRR(ArrayList<ServerGroupHandle> serverGroups) {
-            this.groups = serverGroups;
+            if (!_wrr.setWeight(this, weight)) {
+                recalculateWRR();
+            }
         }
     }
 
     public final String alias;
     private ArrayList<ServerGroupHandle> serverGroups = new ArrayList<>(0);
-    private WRR _wrr;
+    private WRR<ServerGroupHandle> _wrr;
 
     public ServerGroups(String alias) {
         this.alias = alias;
@@ -53,81 +45,7 @@ public class ServerGroups {
     }
 
     private void recalculateWRR() {
-        ArrayList<ServerGroupHandle> groups =
-            serverGroups
-                .stream()
-                .filter(g -> g.weight > 0)
-                .collect(Collectors.toCollection(ArrayList::new));
-        WRR wrr = new WRR(groups);
-
-        if (wrr.groups.isEmpty()) {
-            wrr.seq = new int[0];
-        } else {
-            // calculate the seq
-            List<Integer> listSeq = new LinkedList<>();
-            int[] weights = new int[wrr.groups.size()];
-            int[] original = new int[wrr.groups.size()];
-            // run calculation
-            int sum = 0;
-            for (int i = 0; i < wrr.groups.size(); i++) {
-                ServerGroupHandle h = wrr.groups.get(i);
-                weights[i] = h.weight;
-                original[i] = h.weight;
-                sum += h.weight;
-            }
-            //noinspection Duplicates
-            while (true) {
-                int idx = maxIndex(weights);
-                listSeq.add(idx);
-                weights[idx] -= sum;
-                if (calculationEnd(weights)) {
-                    break;
-                }
-                for (int i = 0; i < weights.length; ++i) {
-                    weights[i] += original[i];
-                }
-                sum = sum(weights); // recalculate sum
-            }
-            int[] seq = new int[listSeq.size()];
-            Iterator<Integer> ite = listSeq.iterator();
-            int seqIdx = 0;
-            while (ite.hasNext()) {
-                int idx = ite.next();
-                seq[seqIdx++] = idx;
-            }
-
-            wrr.seq = seq;
-        }
-
-        _wrr = wrr;
-    }
-
-    private static int sum(int[] weights) {
-        int s = 0;
-        for (int w : weights) {
-            s += w;
-        }
-        return s;
-    }
-
-    private static boolean calculationEnd(int[] weights) {
-        for (int w : weights) {
-            if (w != 0)
-                return false;
-        }
-        return true;
-    }
-
-    private static int maxIndex(int[] weights) {
-        int maxIdx = 0;
-        int maxVal = weights[0];
-        for (int i = 1; i < weights.length; ++i) {
-            if (weights[i] > maxVal) {
-                maxVal = weights[i];
-                maxIdx = i;
-            }
-        }
-        return maxIdx;
+        _wrr = new WRR<>(serverGroups, g -> g.weight, _wrr);
     }
 
     public void add(ServerGroup group, int weight) throws AlreadyExistException {
@@ -166,23 +84,73 @@ public class ServerGroups {
     }
 
     public Connector next() {
-        WRR wrr = _wrr;
-        return next(wrr, 0);
+        return next(null);
     }
 
-    private /*use static to prevent access local variable*/ static Connector next(WRR wrr, int recursion) {
-        if (recursion > wrr.seq.length)
-            return null;
-        ++recursion;
+    /**
+     * @param source the client address, used by hash based methods (maglev), may be null
+     */
+    public Connector next(InetAddress source) {
+        if (source != null && hasHashMethod()) {
+            return hashNext(source);
+        }
+        WRR<ServerGroupHandle> wrr = _wrr;
+        // a group may have no healthy servers, so try other groups
+        for (int i = 0, size = wrr.size(); i < size; ++i) {
+            ServerGroupHandle h = wrr.next(g -> true);
+            if (h == null)
+                return null;
+            Connector connector = h.group.next(source);
+            if (connector != null)
+                return connector;
+        }
+        return null;
+    }
 
-        int idx = wrr.cursor.getAndIncrement();
-        if (wrr.seq.length <= idx) {
-            idx = idx % wrr.seq.length;
-            wrr.cursor.set(idx + 1);
+    private boolean hasHashMethod() {
+        for (ServerGroupHandle h : serverGroups) {
+            if (h.group.getMethod() == Method.maglev)
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * the group should also be chosen by the client address, otherwise the affinity is lost.
+     * weighted rendezvous hashing is used, the group with max score is chosen:
+     *   score = W(g) / -ln(hash(source, g) as a number in (0, 1))
+     * when a group is added or removed, only the clients of that group are affected
+     */
+    private Connector hashNext(InetAddress source) {
+        List<ServerGroupHandle> groups = serverGroups;
+        byte[] address = source.getAddress();
+        int size = groups.size();
+        double[] scores = new double[size];
+        for (int i = 0; i < size; ++i) {
+            ServerGroupHandle h = groups.get(i);
+            if (h.weight <= 0) {
+                scores[i] = -1;
+                continue;
+            }
+            long hash = Maglev.hash(address, h.hashSeed);
+            double u = ((hash >>> 11) + 1) / (double) (1L << 53); // (0, 1]
+            scores[i] = u == 1 ? Double.MAX_VALUE : h.weight / -Math.log(u);
+        }
+        // try groups from the highest score, a group may have no healthy servers
+        for (int n = 0; n < size; ++n) {
+            int max = -1;
+            for (int i = 0; i < size; ++i) {
+                if (scores[i] >= 0 && (max == -1 || scores[i] > scores[max])) {
+                    max = i;
+                }
+            }
+            if (max == -1)
+                return null;
+            Connector connector = groups.get(max).group.next(source);
+            if (connector != null)
+                return connector;
+            scores[max] = -1;
         }
-        Connector connector = wrr.groups.get(wrr.seq[idx]).group.next();
-        if (connector != null)
-            return connector;
-        return next(wrr, recursion);
+        return null;
     }
 }
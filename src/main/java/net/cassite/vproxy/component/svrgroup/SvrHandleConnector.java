@@ -35,6 +35,11 @@ public class SvrHandleConnector extends Connector {
         serverHandle.healthCheckClient.manuallyDownOnce();
     }
 
+    @Override
+    public void connectionSucceeded(long connectCost) {
+        serverHandle.recordConnectCost(connectCost);
+    }
+
     public String getHostName() {
         return serverHandle.hostName;
     }
@@ -0,0 +1,141 @@
+package net.cassite.vproxy.component.svrgroup;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/*
+ * Weighted least connection with an indexed heap:
+ *
+ * Elements with weight W(i) > 0 are kept in a min heap ordered by C(i) / W(i),
+ * i.e. a is before b when C(a) * W(b) < C(b) * W(a),
+ * ties are broken by the order of elements, so the result is the same as scanning the list.
+ * Each element records the position in the heap,
+ * so when the load of an element changes (a connection attached or closed),
+ * only the element is moved up or down, which costs O(log n).
+ * Picking the least loaded element costs O(log n) as well.
+ *
+ * The loads are changed by multiple worker loops,
+ * so the heap is guarded by the lock of this object,
+ * and the load is recorded in the entry when updating,
+ * so the heap stays consistent even if the loads change while sifting.
+ *
+ * Unavailable (e.g. unhealthy) elements are taken out of the heap when availableChanged() is called,
+ * and put back with the current load when they become available again,
+ * so DOWN servers (which usually have no connections) do not stay at the top of the heap.
+ * The health state is a public field which may be modified without notification,
+ * so unavailable elements found at the top when picking are skipped and put back.
+ */
+public class WLC<T> {
+    private static class Entry<T> extends IndexedHeap.Node {
+        final T element;
+        final int order; // break ties by the order of elements
+        final int weight;
+        int load;
+
+        Entry(T element, int order, int weight) {
+            this.element = element;
+            this.order = order;
+            this.weight = weight;
+        }
+    }
+
+    final ArrayList<T> elements; // elements with weight > 0
+    private final ToIntFunction<T> load;
+    private final Predicate<T> available;
+    private final IdentityHashMap<T, Entry<T>> entries;
+    private final IndexedHeap<Entry<T>> heap;
+    private final Predicate<Entry<T>> entryAvailable;
+
+    /**
+     * @param elements  elements, weight &lt;= 0 means never picked
+     * @param weight    retrieve weight from the element
+     * @param load      retrieve load (e.g. connection count) from the element
+     * @param available whether the element can be picked
+     */
+    public WLC(List<T> elements, ToIntFunction<T> weight, ToIntFunction<T> load, Predicate<T> available) {
+        this.elements = new ArrayList<>(elements.size());
+        this.load = load;
+        this.available = available;
+        this.entryAvailable = e -> available.test(e.element);
+        for (T e : elements) {
+            if (weight.applyAsInt(e) > 0) {
+                this.elements.add(e);
+            }
+        }
+        this.entries = new IdentityHashMap<>(this.elements.size());
+        this.heap = new IndexedHeap<>(WLC::compare, this.elements.size());
+        for (int i = 0; i < this.elements.size(); ++i) {
+            T e = this.elements.get(i);
+            entries.put(e, new Entry<>(e, i, weight.applyAsInt(e)));
+        }
+        reload();
+    }
+
+    /**
+     * re-read loads and availability of all elements and rebuild the heap, costs O(n).
+     * call this after the wlc is published, so that changes made while building are not lost
+     */
+    public synchronized void reload() {
+        ArrayList<Entry<T>> ls = new ArrayList<>(elements.size());
+        for (T element : elements) {
+            Entry<T> e = entries.get(element);
+            if (!available.test(element))
+                continue;
+            e.load = load.applyAsInt(element);
+            ls.add(e);
+        }
+        heap.reset(ls);
+    }
+
+    /**
+     * @return null if no element available
+     */
+    public synchronized T next() {
+        // unavailable elements are modified without notification, skip them
+        Entry<T> picked = heap.first(entryAvailable);
+        return picked == null ? null : picked.element;
+    }
+
+    /**
+     * reload the load of the element and move it in the heap
+     */
+    public synchronized void update(T element) {
+        Entry<T> entry = entries.get(element);
+        if (entry == null || !entry.inHeap())
+            return; // the load is read again when put back into the heap
+        int old = entry.load;
+        entry.load = load.applyAsInt(element);
+        if (entry.load != old) {
+            heap.fix(entry);
+        }
+    }
+
+    /**
+     * take the element out of the heap or put it back according to its availability
+     */
+    public synchronized void availableChanged(T element) {
+        Entry<T> entry = entries.get(element);
+        if (entry == null)
+            return;
+        boolean inHeap = entry.inHeap();
+        if (available.test(element)) {
+            if (!inHeap) {
+                entry.load = load.applyAsInt(element);
+                heap.offer(entry);
+            }
+        } else if (inHeap) {
+            heap.remove(entry);
+        }
+    }
+
+    private static int compare(Entry<?> a, Entry<?> b) {
+        long l = (long) a.load * b.weight;
+        long r = (long) b.load * a.weight;
+        if (l != r)
+            return l < r ? -1 : 1;
+        return Integer.compare(a.order, b.order);
+    }
+}
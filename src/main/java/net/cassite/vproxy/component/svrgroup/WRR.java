@@ -0,0 +1,178 @@
+package net.cassite.vproxy.component.svrgroup;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/*
+ * Weighted round robin with earliest deadline first (stride) scheduling:
+ *
+ * Each element with weight W(i) > 0 has a deadline D(i), and is picked once every 1/W(i) virtual time.
+ * For every pick:
+ *   the element m with min D(m) is picked,
+ *   the virtual time is set to D(m),
+ *   D(m) += 1/W(m).
+ *
+ * Elements are picked in proportion to their weights, and the picks are spread evenly,
+ * e.g. for weights {a:5, b:1, c:1}, b and c are picked between a's picks instead of after them,
+ * which is the same as the sequence we used to pre-calculate,
+ * but there's no need to build an array of ΣW(i) elements.
+ * The deadlines are kept in a heap, so each pick or weight change costs O(log n),
+ * and adding or removing elements costs O(n).
+ *
+ * Unavailable (e.g. unhealthy) elements are skipped as if they are picked,
+ * so their share goes to the following elements, the same as skipping in the sequence.
+ *
+ * A new element starts at a random point in its first 1/W(i) period.
+ * The random is for this concern:
+ * if you deploy multiple instances of vproxy
+ * with exactly the same configuration
+ * behind a (w)rr LVS or other proxy servers
+ * without the random start, first few connections
+ * will always be made to the same server
+ * which may cause some failure
+ *
+ * Worker loops pick from the same server group concurrently,
+ * so the state is split into shards, each with its own heap and lock,
+ * and a thread always picks from the same shard (chosen by the thread id).
+ * Each shard is a complete scheduler, so picks in every shard are in proportion to the weights,
+ * and so are the picks in total.
+ */
+public class WRR<T> {
+    // enough for worker loops to hardly share a shard, see shardCount()
+    private static final int SHARDS = shardCount();
+
+    private static int shardCount() {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() && n < 16) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    private static class Entry<T> extends IndexedHeap.Node { // not in the heap when weight <= 0
+        final T element;
+        final int order; // break ties by the order of elements
+        int weight;
+        double deadline;
+
+        Entry(T element, int order, int weight) {
+            this.element = element;
+            this.order = order;
+            this.weight = weight;
+        }
+    }
+
+    private static class Shard<T> {
+        private final IdentityHashMap<T, Entry<T>> entries;
+        private final IndexedHeap<Entry<T>> heap;
+        private double now = 0; // the virtual time
+
+        Shard(List<T> elements, ToIntFunction<T> weight, Shard<T> previous) {
+            this.entries = new IdentityHashMap<>(elements.size());
+            this.heap = new IndexedHeap<>(Shard::compare, elements.size());
+            if (previous == null) {
+                init(elements, weight, null);
+            } else {
+                //noinspection SynchronizationOnLocalVariableOrMethodParameter
+                synchronized (previous) {
+                    now = previous.now;
+                    init(elements, weight, previous);
+                }
+            }
+        }
+
+        private void init(List<T> elements, ToIntFunction<T> weight, Shard<T> previous) {
+            ThreadLocalRandom rand = ThreadLocalRandom.current();
+            for (int i = 0; i < elements.size(); ++i) {
+                T e = elements.get(i);
+                Entry<T> entry = new Entry<>(e, i, weight.applyAsInt(e));
+                entries.put(e, entry);
+                if (entry.weight <= 0)
+                    continue;
+                Entry<T> old = previous == null ? null : previous.entries.get(e);
+                if (old != null && old.inHeap()) {
+                    entry.deadline = old.deadline;
+                } else {
+                    entry.deadline = now + rand.nextDouble() / entry.weight;
+                }
+                heap.offer(entry);
+            }
+        }
+
+        synchronized T next(Predicate<T> available) {
+            // unavailable elements are skipped as if they are picked
+            Entry<T> picked = heap.first(e -> {
+                now = e.deadline;
+                e.deadline += 1.0 / e.weight;
+                return available.test(e.element);
+            });
+            return picked == null ? null : picked.element;
+        }
+
+        synchronized boolean setWeight(T element, int weight) {
+            Entry<T> entry = entries.get(element);
+            if (entry == null)
+                return false;
+            entry.weight = weight;
+            if (weight <= 0) {
+                heap.remove(entry);
+            } else if (!entry.inHeap()) {
+                entry.deadline = now + ThreadLocalRandom.current().nextDouble() / weight;
+                heap.offer(entry);
+            }
+            // otherwise the new weight applies after the next pick
+            return true;
+        }
+
+        private static int compare(Entry<?> a, Entry<?> b) {
+            int c = Double.compare(a.deadline, b.deadline);
+            if (c != 0)
+                return c;
+            return Integer.compare(a.order, b.order);
+        }
+    }
+
+    private final ArrayList<Shard<T>> shards;
+    private final int size;
+
+    /**
+     * @param elements elements, weight &lt;= 0 means never picked
+     * @param weight   retrieve weight from the element
+     * @param previous the wrr before elements change, deadlines of the kept elements are retained.
+     *                 null if it's a new wrr
+     */
+    public WRR(List<T> elements, ToIntFunction<T> weight, WRR<T> previous) {
+        this.shards = new ArrayList<>(SHARDS);
+        for (int i = 0; i < SHARDS; ++i) {
+            shards.add(new Shard<>(elements, weight, previous == null ? null : previous.shards.get(i)));
+        }
+        this.size = elements.size();
+    }
+
+    /**
+     * @param available whether the element can be picked
+     * @return null if no element available
+     */
+    public T next(Predicate<T> available) {
+        return shards.get((int) Thread.currentThread().getId() & (SHARDS - 1)).next(available);
+    }
+
+    /**
+     * @return false if the element is not in this wrr
+     */
+    public boolean setWeight(T element, int weight) {
+        for (Shard<T> shard : shards) {
+            if (!shard.setWeight(element, weight))
+                return false; // all shards have the same elements
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -2,12 +2,14 @@ package net.cassite.vproxy.connection;
 
 import net.cassite.vproxy.app.Config;
 import net.cassite.vproxy.selector.PeriodicEvent;
+import net.cassite.vproxy.util.LogType;
 import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.Utils;
 
 import java.io.IOException;
 import java.net.Inet6Address;
 import java.net.InetSocketAddress;
+import java.net.SocketOption;
 import java.net.StandardProtocolFamily;
 import java.net.StandardSocketOptions;
 import java.nio.channels.DatagramChannel;
@@ -64,7 +66,11 @@ public class BindServer implements NetFlowRecorder {
         }
     }
 
+    // SO_REUSEPORT is only exposed since jdk 9, and not all platforms support it
+    private static final SocketOption<Boolean> SO_REUSEPORT = findReusePortOption();
+
     public final InetSocketAddress bind;
+    public final boolean reusePort;
     private final String _id;
     public final SelectableChannel channel;
     final Protocol protocol;
@@ -77,18 +83,73 @@ public class BindServer implements NetFlowRecorder {
     private final LongAdder fromRemoteBytes = new LongAdder();
     private final LongAdder toRemoteBytes = new LongAdder();
     private long historyAcceptedConnectionCount = 0; // no concurrency when accepting connections
+    private long acceptBudgetExhaustedCount = 0; // no concurrency when accepting connections
+
+    // the max number of connections to accept when the server fires one accept event
+    // the left connections will be accepted in the next loop round
+    // to let other channels on the loop have a chance to run
+    public static final int DEFAULT_ACCEPT_BUDGET = 64;
+    private volatile int acceptBudget = DEFAULT_ACCEPT_BUDGET;
+
+    // udp statistics, only modified on the event loop
+    private long recvWakeupCount = 0;
+    private long recvPacketCount = 0;
+    private int lastWakeupRecvPackets = 0;
+    private long lastWakeupRecvBytes = 0;
+    private int lastWakeupRecvDropped = 0;
+    private long recvBudgetExhaustedCount = 0;
+    private long recvDroppedCount = 0; // received but failed to dispatch
+
+    // the max number of packets to receive when the udp server fires one readable event
+    public static final int DEFAULT_RECV_PACKET_BUDGET = 64;
+    private volatile int recvPacketBudget = Config.udpRecvPacketBudget;
 
     NetEventLoop _eventLoop = null;
 
     private boolean closed;
 
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (Exception e) {
+            assert Logger.lowLevelDebug("SO_REUSEPORT is not supported by the jdk: " + e);
+            return null;
+        }
+    }
+
+    public static boolean isReusePortSupported() {
+        if (SO_REUSEPORT == null)
+            return false;
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(SO_REUSEPORT);
+        } catch (IOException e) {
+            Logger.error(LogType.UNEXPECTED, "open a server socket channel failed when checking SO_REUSEPORT", e);
+            return false;
+        }
+    }
+
     public static BindServer create(InetSocketAddress bindAddress) throws IOException {
+        return create(bindAddress, false);
+    }
+
+    /**
+     * @param reusePort set SO_REUSEPORT on the listening socket,
+     *                  so that multiple sockets (each with SO_REUSEPORT set) can bind the same address,
+     *                  and the kernel will spread new connections among them
+     */
+    public static BindServer create(InetSocketAddress bindAddress, boolean reusePort) throws IOException {
         ServerSocketChannel channel = ServerSocketChannel.open();
-        channel.configureBlocking(false);
-        channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
-        channel.bind(bindAddress);
         try {
-            return new BindServer(Protocol.TCP, channel);
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                if (SO_REUSEPORT == null || !channel.supportedOptions().contains(SO_REUSEPORT))
+                    throw new IOException("SO_REUSEPORT is not supported");
+                channel.setOption(SO_REUSEPORT, true);
+            }
+            channel.bind(bindAddress);
+            return new BindServer(Protocol.TCP, channel, reusePort);
         } catch (IOException e) {
             channel.close(); // close the channel if create BindServer failed
             throw e;
@@ -105,15 +166,16 @@ public class BindServer implements NetFlowRecorder {
         channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
         channel.bind(bindAddress);
         try {
-            return new BindServer(Protocol.UDP, channel);
+            return new BindServer(Protocol.UDP, channel, false);
         } catch (IOException e) {
             channel.close(); // close the channel if create BindServer failed
             throw e;
         }
     }
 
-    private BindServer(Protocol protocol, NetworkChannel channel) throws IOException {
+    private BindServer(Protocol protocol, NetworkChannel channel, boolean reusePort) throws IOException {
         this.protocol = protocol;
+        this.reusePort = reusePort;
         assert (protocol == Protocol.TCP && channel instanceof ServerSocketChannel)
             || (protocol == Protocol.UDP && channel instanceof DatagramChannel);
 
@@ -148,8 +210,78 @@ public class BindServer implements NetFlowRecorder {
     public long getHistoryAcceptedConnectionCount() {
         return historyAcceptedConnectionCount;
     }
+
+    public void incAcceptBudgetExhaustedCount() {
+        ++acceptBudgetExhaustedCount;
+    }
+
+    public long getAcceptBudgetExhaustedCount() {
+        return acceptBudgetExhaustedCount;
+    }
+
+    // packets: dispatched packets, dropped: received but failed to dispatch
+    void recordRecvWakeup(int packets, long bytes, int dropped) {
+        ++recvWakeupCount;
+        recvDroppedCount += dropped;
+        recvPacketCount += packets;
+        lastWakeupRecvPackets = packets;
+        lastWakeupRecvBytes = bytes;
+        lastWakeupRecvDropped = dropped;
+    }
+
+    void incRecvBudgetExhaustedCount() {
+        ++recvBudgetExhaustedCount;
+    }
+
+    public long getRecvWakeupCount() {
+        return recvWakeupCount;
+    }
+
+    public long getRecvPacketCount() {
+        return recvPacketCount;
+    }
+
+    public int getLastWakeupRecvPackets() {
+        return lastWakeupRecvPackets;
+    }
+
+    public long getLastWakeupRecvBytes() {
+        return lastWakeupRecvBytes;
+    }
+
+    public int getLastWakeupRecvDropped() {
+        return lastWakeupRecvDropped;
+    }
+
+    public long getRecvBudgetExhaustedCount() {
+        return recvBudgetExhaustedCount;
+    }
+
+    public long getRecvDroppedCount() {
+        return recvDroppedCount;
+    }
     // --- END statistics ---
 
+    public int getAcceptBudget() {
+        return acceptBudget;
+    }
+
+    public void setAcceptBudget(int acceptBudget) {
+        if (acceptBudget < 1)
+            throw new IllegalArgumentException("acceptBudget should be at least 1");
+        this.acceptBudget = acceptBudget;
+    }
+
+    public int getRecvPacketBudget() {
+        return recvPacketBudget;
+    }
+
+    public void setRecvPacketBudget(int recvPacketBudget) {
+        if (recvPacketBudget < 1)
+            throw new IllegalArgumentException("recvPacketBudget should be at least 1");
+        this.recvPacketBudget = recvPacketBudget;
+    }
+
     public boolean isClosed() {
         return closed;
     }
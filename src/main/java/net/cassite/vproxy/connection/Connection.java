@@ -96,40 +96,80 @@ public class Connection implements NetFlowRecorder {
                     return; // end `Quick Write`
                 }
 
-                boolean addWriteOnLoop = true;
-                try {
-                    int write = getOutBuffer().writeTo((WritableByteChannel) channel);
-                    assert Logger.lowLevelDebug("wrote " + write + " bytes to " + Connection.this);
-                    if (write > 0) {
-                        incToRemoteBytes(write); // record net flow, it's writing, so is "to remote"
-                        // NOTE: should also record in NetEventLoop writable event
+                if (corkThreshold > 0 && getOutBuffer().used() < corkThreshold) {
+                    // cork the small write, more bytes may be stored in this loop round
+                    // and they will be written together when the round ends
+                    // or when the stored bytes reach the threshold (see storedET)
+                    corked = true;
+                    if (!corkFlushScheduled) {
+                        corkFlushScheduled = true;
+                        eventLoop.getSelectorEventLoop().runAtIterationEnd(flushCorked);
                     }
+                    return;
+                }
+
+                quickWrite(eventLoop);
+            }
+        }
+
+        @Override
+        public void storedET() {
+            if (!corked || getOutBuffer().used() < corkThreshold)
+                return;
+            NetEventLoop eventLoop = _eventLoop;
+            if (!closed && eventLoop != null) {
+                assert Logger.lowLevelDebug("corked bytes reach the threshold, flush for channel " + channel);
+                corked = false; // the task at the end of the round will do nothing
+                quickWrite(eventLoop);
+            }
+        }
+
+        void flushCorked() {
+            corkFlushScheduled = false;
+            if (!corked)
+                return; // already flushed when reaching the threshold
+            corked = false;
+            NetEventLoop eventLoop = _eventLoop;
+            if (!closed && eventLoop != null && getOutBuffer().used() != 0) {
+                assert Logger.lowLevelDebug("flush corked bytes for channel " + channel);
+                quickWrite(eventLoop);
+            }
+        }
+
+        private void quickWrite(NetEventLoop eventLoop) {
+            boolean addWriteOnLoop = true;
+            try {
+                int write = getOutBuffer().writeTo((WritableByteChannel) channel, ioLimit());
+                assert Logger.lowLevelDebug("wrote " + write + " bytes to " + Connection.this);
+                if (write > 0) {
+                    incToRemoteBytes(write); // record net flow, it's writing, so is "to remote"
+                    // NOTE: should also record in NetEventLoop writable event
+                }
+                if (getOutBuffer().used() == 0) {
+                    // have nothing to write now
+
+                    // at this time, we let user write again
+                    // in case there are still some bytes in
+                    // user buffer
+                    _cctx.handler.writable(_cctx);
+
                     if (getOutBuffer().used() == 0) {
-                        // have nothing to write now
-
-                        // at this time, we let user write again
-                        // in case there are still some bytes in
-                        // user buffer
-                        _cctx.handler.writable(_cctx);
-
-                        if (getOutBuffer().used() == 0) {
-                            // outBuffer still empty
-                            // do not add OP_WRITE
-                            assert Logger.lowLevelDebug("the out buffer is still empty, do NOT add op_write. " + channel);
-                            addWriteOnLoop = false;
-                        }
-                        // we do not write again if got any bytes
-                        // let the NetEventLoop handle
+                        // outBuffer still empty
+                        // do not add OP_WRITE
+                        assert Logger.lowLevelDebug("the out buffer is still empty, do NOT add op_write. " + channel);
+                        addWriteOnLoop = false;
                     }
-                } catch (IOException e) {
-                    // we ignore the exception
-                    // it should be handled in NetEventLoop
-                    assert Logger.lowLevelDebug("got exception in quick write: " + e);
-                }
-                if (addWriteOnLoop) {
-                    assert Logger.lowLevelDebug("add OP_WRITE for channel " + channel);
-                    eventLoop.getSelectorEventLoop().addOps(channel, SelectionKey.OP_WRITE);
+                    // we do not write again if got any bytes
+                    // let the NetEventLoop handle
                 }
+            } catch (IOException e) {
+                // we ignore the exception
+                // it should be handled in NetEventLoop
+                assert Logger.lowLevelDebug("got exception in quick write: " + e);
+            }
+            if (addWriteOnLoop) {
+                assert Logger.lowLevelDebug("add OP_WRITE for channel " + channel);
+                eventLoop.getSelectorEventLoop().addOps(channel, SelectionKey.OP_WRITE);
             }
         }
 
@@ -152,6 +192,7 @@ public class Connection implements NetFlowRecorder {
     // the connection is handled in a single thread, so no need to synchronize
     private long toRemoteBytes = 0; // out bytes
     private long fromRemoteBytes = 0; // in bytes
+    private long toRemoteWrites = 0; // write calls, each records the bytes it wrote
     // since it seldom (in most cases: never) changes, so let's just use a copy on write list
     private final List<NetFlowRecorder> netFlowRecorders = new CopyOnWriteArrayList<>();
     private final List<ConnCloseHandler> connCloseHandlers = new CopyOnWriteArrayList<>();
@@ -161,6 +202,20 @@ public class Connection implements NetFlowRecorder {
     /*private let ClientConnection have access*/ final InBufferETHandler inBufferETHandler;
     private final OutBufferETHandler outBufferETHandler;
     boolean remoteClosed = false;
+    // max bytes to read or write when handling one event of the connection
+    // the left bytes are handled in the next loop round
+    // so one busy connection will not starve other connections on the same loop
+    // 0 means no limit (bounded by the buffer size)
+    private int ioBudget = 0;
+
+    // when > 0, writes smaller than the threshold are deferred to the end of the current loop round
+    // so that small chunks stored in one round are written with one call
+    // the bytes are written as soon as they reach the threshold
+    // 0 means write immediately
+    private int corkThreshold = 0;
+    private boolean corkFlushScheduled = false;
+    private boolean corked = false; // bytes are waiting for the flush
+    private final Runnable flushCorked;
 
     private NetEventLoop _eventLoop = null;
     private ConnectionHandlerContext _cctx = null;
@@ -186,6 +241,7 @@ public class Connection implements NetFlowRecorder {
 
         inBufferETHandler = new InBufferETHandler();
         outBufferETHandler = new OutBufferETHandler();
+        flushCorked = outBufferETHandler::flushCorked;
 
         if (looksLikeAConnection) {
             // the fd is the server datagram socket, so will not remove OP_READ
@@ -206,6 +262,10 @@ public class Connection implements NetFlowRecorder {
         return toRemoteBytes;
     }
 
+    public long getToRemoteWrites() {
+        return toRemoteWrites;
+    }
+
     @Override
     public void incFromRemoteBytes(long bytes) {
         fromRemoteBytes += bytes;
@@ -217,12 +277,39 @@ public class Connection implements NetFlowRecorder {
     @Override
     public void incToRemoteBytes(long bytes) {
         toRemoteBytes += bytes;
+        ++toRemoteWrites;
         for (NetFlowRecorder nfr : netFlowRecorders) {
             nfr.incToRemoteBytes(bytes);
         }
     }
     // --- END statistics ---
 
+    public int getIOBudget() {
+        return ioBudget;
+    }
+
+    // NOTE: this is not thread safe
+    public void setIOBudget(int ioBudget) {
+        if (ioBudget < 0)
+            throw new IllegalArgumentException("ioBudget < 0");
+        this.ioBudget = ioBudget;
+    }
+
+    int ioLimit() {
+        return ioBudget == 0 ? Integer.MAX_VALUE : ioBudget;
+    }
+
+    public int getCorkThreshold() {
+        return corkThreshold;
+    }
+
+    // NOTE: this is not thread safe
+    public void setCorkThreshold(int corkThreshold) {
+        if (corkThreshold < 0)
+            throw new IllegalArgumentException("corkThreshold < 0");
+        this.corkThreshold = corkThreshold;
+    }
+
     // NOTE: this is not thread safe
     public void addNetFlowRecorder(NetFlowRecorder nfr) {
         netFlowRecorders.add(nfr);
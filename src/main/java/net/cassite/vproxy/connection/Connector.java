@@ -34,6 +34,12 @@ public class Connector {
         // do nothing in default implementation
     }
 
+    // let user code alert that the connection is established
+    // connectCost: nanoseconds from connect() to established
+    public void connectionSucceeded(long connectCost) {
+        // do nothing in default implementation
+    }
+
     // provide a event loop
     public NetEventLoop loop() {
         return null; // default: do not provide
@@ -81,7 +81,7 @@ public class NetEventLoop {
     @ThreadSafe
     public void addConnection(Connection connection, Object attachment, ConnectionHandler handler) throws IOException {
         int ops = 0;
-        if (connection.getInBuffer().free() > 0) {
+        if (!connection.getInBuffer().reachedHighWatermark()) {
             ops |= SelectionKey.OP_READ;
         }
         if (connection.getOutBuffer().used() > 0) {
@@ -112,7 +112,7 @@ public class NetEventLoop {
             fireConnected = connection.protocol == Protocol.TCP; // only TCP can have connection and fire event
 
             ops = 0;
-            if (connection.getInBuffer().free() > 0)
+            if (!connection.getInBuffer().reachedHighWatermark())
                 ops |= SelectionKey.OP_READ;
             if (connection.getOutBuffer().used() > 0)
                 ops |= SelectionKey.OP_WRITE;
@@ -138,18 +138,32 @@ class HandlerForTCPServer implements Handler<ServerSocketChannel> {
     @Override
     public void accept(HandlerContext<ServerSocketChannel> ctx) {
         ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
-
         ServerSocketChannel server = ctx.getChannel();
+
+        // accept until no pending connections or the budget is exhausted
+        int budget = sctx.server.getAcceptBudget();
+        for (int i = 0; i < budget; ++i) {
+            if (!acceptOne(sctx, server))
+                return;
+        }
+        // the server is still ready if there are pending connections
+        // so they will be accepted in the next loop round
+        assert Logger.lowLevelDebug("accept budget " + budget + " exhausted on " + sctx.server);
+        sctx.server.incAcceptBudgetExhaustedCount();
+    }
+
+    // return true if a connection is accepted (or refused by user code)
+    private boolean acceptOne(ServerHandlerContext sctx, ServerSocketChannel server) {
         SocketChannel sock;
         try {
             sock = server.accept();
         } catch (IOException e) {
             sctx.handler.acceptFail(sctx, e);
-            return;
+            return false;
         }
         if (sock == null) {
             assert Logger.lowLevelDebug("no socket yet, ignore this event");
-            return;
+            return false;
         }
         Tuple<RingBuffer, RingBuffer> ioBuffers = sctx.handler.getIOBuffers(sock);
         if (ioBuffers == null) { // the user code may return null if refuse to accept
@@ -165,15 +179,22 @@ class HandlerForTCPServer implements Handler<ServerSocketChannel> {
                     ioBuffers.left, ioBuffers.right, true/*it IS a connection*/);
             } catch (IOException e) {
                 Logger.shouldNotHappen("Connection object create failed: " + e);
-                return;
+                // release the buffers (and the memory reserved for them) and the socket
+                ioBuffers.left.clean();
+                ioBuffers.right.clean();
+                try {
+                    sock.close();
+                } catch (IOException e1) {
+                    Logger.shouldNotHappen("close the socket failed: " + e1);
+                }
+                return true; // the socket is accepted, try to accept the next one
             }
             conn.addNetFlowRecorder(sctx.server);
             sctx.handler.connection(sctx, conn);
         }
         // accept succeeded
         sctx.server.incHistoryAcceptedConnectionCount();
-        // then, we try to accept again, in case there are pending connections
-        accept(ctx);
+        return true;
     }
 
     @Override
@@ -204,12 +225,21 @@ class HandlerForTCPServer implements Handler<ServerSocketChannel> {
 }
 
 class HandlerForUDPServer implements Handler<DatagramChannel> {
-    // allocate a big buffer for udp temp data
     // the ip packet maximum is 65535 bytes
-    // create a buffer of 64k is ok because it's O(1) for any operation within 1 NetEventLoop
-    // reuse this buffer for every packet
+    private static final int MAX_PACKET = 65536;
+    // packets are received into one big direct buffer one after another
+    // every packet is given a MAX_PACKET space, and the next packet starts right after the received bytes
+    // so small packets can be batched in the buffer
+    // when the left space is not enough, packets in the buffer are dispatched and the buffer is reused
+    // it's O(1) for any operation within 1 NetEventLoop
     // so remember to reset cursors before operating
-    private final ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+    private static final int RECV_BUFFER_SIZE = 4 * MAX_PACKET;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECV_BUFFER_SIZE);
+    // the packets received in the buffer, reused between wakeups
+    private InetSocketAddress[] remotes = new InetSocketAddress[BindServer.DEFAULT_RECV_PACKET_BUDGET];
+    private int[] offsets = new int[BindServer.DEFAULT_RECV_PACKET_BUDGET];
+    private int[] lengths = new int[BindServer.DEFAULT_RECV_PACKET_BUDGET];
+
     private final NetEventLoop netEventLoop;
 
     HandlerForUDPServer(NetEventLoop netEventLoop) {
@@ -229,29 +259,86 @@ class HandlerForUDPServer implements Handler<DatagramChannel> {
     @Override
     public void readable(HandlerContext<DatagramChannel> ctx) {
         ServerHandlerContext sctx = (ServerHandlerContext) ctx.getAttachment();
+        BindServer server = sctx.server;
+        DatagramChannel channel = ctx.getChannel();
 
-        // reset cursor of buffer
-        buffer.position(0).limit(65536);
-
-        InetSocketAddress remote;
-        try {
-            remote = (InetSocketAddress) ctx.getChannel().receive(buffer);
-        } catch (IOException e) {
-            // exception occurred when reading the udp channel
-            // maybe it's reset from localhost
-            // or maybe a bug
-            Logger.shouldNotHappen("reading udp " + ctx.getChannel() + " raise error", e);
-            sctx.handler.exception(sctx, e);
-            return;
+        int budget = server.getRecvPacketBudget();
+        if (remotes.length < budget) {
+            remotes = new InetSocketAddress[budget];
+            offsets = new int[budget];
+            lengths = new int[budget];
         }
 
-        // read completed, flip the buffer for writing
-        buffer.flip();
+        int packets = 0; // received from the channel, used for the budget
+        int dropped = 0;
+        long bytes = 0;
+        boolean drained = false;
+        while (packets < budget && !drained) {
+            // receive as many packets as possible into the buffer
+            int n = 0;
+            int offset = 0;
+            IOException err = null;
+            while (packets + n < budget && RECV_BUFFER_SIZE - offset >= MAX_PACKET) {
+                // reset cursor of buffer
+                buffer.limit(offset + MAX_PACKET).position(offset);
+                InetSocketAddress remote;
+                try {
+                    remote = (InetSocketAddress) channel.receive(buffer);
+                } catch (IOException e) {
+                    err = e;
+                    break;
+                }
+                if (remote == null) {
+                    assert Logger.lowLevelDebug("no data yet, stop receiving");
+                    drained = true;
+                    break;
+                }
+                remotes[n] = remote;
+                offsets[n] = offset;
+                lengths[n] = buffer.position() - offset;
+                offset = buffer.position();
+                ++n;
+            }
+            // then dispatch the received packets
+            // a failed packet only affects its remote, so the others are still dispatched
+            for (int i = 0; i < n; ++i) {
+                buffer.limit(offsets[i] + lengths[i]).position(offsets[i]);
+                if (dispatch(ctx, sctx, remotes[i])) {
+                    bytes += lengths[i];
+                } else {
+                    // not logged as warnings, a flood of packets would flood the log as well
+                    // see recv-dropped-count of the bind server
+                    assert Logger.lowLevelDebug("dropping udp packet from " + remotes[i] + " on " + server);
+                    ++dropped;
+                }
+                remotes[i] = null; // release the reference
+            }
+            packets += n;
+            if (err != null) {
+                // exception occurred when reading the udp channel
+                // maybe it's reset from localhost
+                // or maybe a bug
+                Logger.shouldNotHappen("reading udp " + channel + " raise error", err);
+                sctx.handler.exception(sctx, err);
+                break;
+            }
+            if (!channel.isOpen()) {
+                break;
+            }
+        }
 
-        if (remote == null) {
-            assert Logger.lowLevelDebug("no data yet, ignore this event");
-            return;
+        server.recordRecvWakeup(packets - dropped, bytes, dropped);
+        if (!drained && packets == budget) {
+            // the channel is still readable
+            // the left packets will be received in the next loop round
+            assert Logger.lowLevelDebug("recv packet budget " + budget + " exhausted on " + server);
+            server.incRecvBudgetExhaustedCount();
         }
+    }
+
+    // the buffer position and limit should be set to the packet
+    // return false if failed to handle the packet
+    private boolean dispatch(HandlerContext<DatagramChannel> ctx, ServerHandlerContext sctx, InetSocketAddress remote) {
         BindServer server = sctx.server;
         BindServer.UDPConn udpConn = server.udpDummyConnMap.get(remote);
         if (udpConn == null) {
@@ -265,7 +352,7 @@ class HandlerForUDPServer implements Handler<DatagramChannel> {
             } catch (IOException e) {
                 Logger.shouldNotHappen("exception occurred when creating connection object for udp channel", e);
                 sctx.handler.exception(sctx, e);
-                return;
+                return false;
             }
 
             // retrieve context from user code
@@ -290,8 +377,7 @@ class HandlerForUDPServer implements Handler<DatagramChannel> {
         // fire readable event
         udpConn.cctx.handler.readable(udpConn.cctx);
         // writable event will be handled in connection `Quick Write` mechanism
-
-        readable(ctx); // then we call readable again in case now got another packet
+        return true;
     }
 
     @Override
@@ -334,7 +420,10 @@ class HandlerForConnection implements Handler<SelectableChannel> {
         }
         int read;
         try {
-            read = cctx.connection.getInBuffer().storeBytesFrom((ReadableByteChannel) /* it's definitely readable */ ctx.getChannel());
+            // read at most ioLimit bytes, if there are more bytes
+            // the OP_READ is still set, and they will be read in the next loop round
+            read = cctx.connection.getInBuffer().storeBytesFrom((ReadableByteChannel) /* it's definitely readable */ ctx.getChannel(),
+                cctx.connection.ioLimit());
         } catch (IOException e) {
             cctx.handler.exception(cctx, e);
             return;
@@ -356,9 +445,10 @@ class HandlerForConnection implements Handler<SelectableChannel> {
 
         cctx.connection.incFromRemoteBytes(read); // record net flow, it's reading, so is "from remote"
         cctx.handler.readable(cctx); // the in buffer definitely have some bytes, let client code read
-        if (cctx.connection.getInBuffer().free() == 0) {
-            // the in-buffer is full, and client code cannot read, remove read event
-            assert Logger.lowLevelDebug("the inBuffer is full now, remove READ event " + cctx.connection);
+        if (cctx.connection.getInBuffer().reachedHighWatermark()) {
+            // the in-buffer is full (or reached the high watermark), and client code cannot read, remove read event
+            // the read event will be added back when the buffer falls to the low watermark
+            assert Logger.lowLevelDebug("the inBuffer reached the high watermark, remove READ event " + cctx.connection);
             if (ctx.getChannel().isOpen()) { // the connection might be closed in readable(), so let's check
                 ctx.rmOps(SelectionKey.OP_READ);
             }
@@ -380,7 +470,9 @@ class HandlerForConnection implements Handler<SelectableChannel> {
         }
         int write;
         try {
-            write = cctx.connection.getOutBuffer().writeTo((WritableByteChannel) /* it's definitely writable */ ctx.getChannel());
+            // same as reading, the OP_WRITE is kept if the budget is used up
+            write = cctx.connection.getOutBuffer().writeTo((WritableByteChannel) /* it's definitely writable */ ctx.getChannel(),
+                cctx.connection.ioLimit());
         } catch (IOException e) {
             cctx.handler.exception(cctx, e);
             return;
@@ -3,9 +3,19 @@ package net.cassite.vproxy.http;
 import net.cassite.vproxy.protocol.ProtocolHandler;
 import net.cassite.vproxy.protocol.ProtocolHandlerContext;
 import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.ByteBufferChain;
 import net.cassite.vproxy.util.Logger;
 
+import java.nio.ByteBuffer;
+
 public abstract class HttpProtocolHandler implements ProtocolHandler<HttpContext> {
+    private static final ByteBuffer ERR_RESP_HEAD = ByteBufferChain.constant("" +
+        "HTTP/1.1 400 Bad Request\r\n" +
+        "Connection: Keep-Alive\r\n" + // we want to keep the connection open anyway
+        "Content-Length: ");
+    private static final ByteBuffer ERR_HTML_HEAD = ByteBufferChain.constant("\r\n\r\n<html><body><h1>");
+    private static final ByteBuffer ERR_HTML_TAIL = ByteBufferChain.constant("</h1></body></html>\r\n");
+
     private final boolean parseBody;
 
     protected HttpProtocolHandler(boolean parseBody) {
@@ -48,14 +58,14 @@ public abstract class HttpProtocolHandler implements ProtocolHandler<HttpContext
         }
 
         // send back error response
-        String htmlErrMsg = "<html><body><h1>" + errMsg + "</h1></body></html>\r\n";
-        String sendBack = "" +
-            "HTTP/1.1 400 Bad Request\r\n" +
-            "Connection: Keep-Alive\r\n" + // we want to keep the connection open anyway
-            "Content-Length: " + htmlErrMsg.length() + "\r\n" +
-            "\r\n" +
-            htmlErrMsg;
-        ctx.write(sendBack.getBytes());
+        byte[] errMsgBytes = errMsg.getBytes();
+        int htmlLen = ERR_HTML_HEAD.remaining() - 4/*\r\n\r\n*/ + errMsgBytes.length + ERR_HTML_TAIL.remaining();
+        ctx.write(new ByteBufferChain()
+            .appendConstant(ERR_RESP_HEAD)
+            .append(Integer.toString(htmlLen))
+            .appendConstant(ERR_HTML_HEAD)
+            .append(errMsgBytes)
+            .appendConstant(ERR_HTML_TAIL));
     }
 
     protected abstract void request(ProtocolHandlerContext<HttpContext> ctx);
@@ -44,5 +44,12 @@ public class ProtocolConnectionHandler implements ConnectionHandler {
             ctx.connection.close();
         }
         handler.end(pctx); // let handler know whether or not it's removed
+        if (ctx.connection.isClosed()) {
+            // the buffers will not be used after the connection is closed,
+            // release them (and the memory budget reserved for them)
+            // a connection removed without closing (e.g. handed to a proxy session) keeps the buffers
+            ctx.connection.getInBuffer().clean();
+            ctx.connection.getOutBuffer().clean();
+        }
     }
 }
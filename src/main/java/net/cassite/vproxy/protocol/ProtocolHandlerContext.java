@@ -2,14 +2,18 @@ package net.cassite.vproxy.protocol;
 
 import net.cassite.vproxy.connection.Connection;
 import net.cassite.vproxy.selector.SelectorEventLoop;
-import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.ByteBufferChain;
+import net.cassite.vproxy.util.Logger;
 import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
 
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class ProtocolHandlerContext<T> {
-    private final ConcurrentLinkedQueue<byte[]> bytesSeq = new ConcurrentLinkedQueue<>();
-    private ByteArrayChannel chnl = null; // the helper channel to write into out buffer
+    private final ConcurrentLinkedQueue<ByteBufferChain> bytesSeq = new ConcurrentLinkedQueue<>();
+    private ByteBufferChain chnl = null; // the chain being written
     public final String connectionId;
     public final Connection connection;
     // make inBuffer public for user code to read
@@ -35,18 +39,28 @@ public class ProtocolHandlerContext<T> {
     void doWrite() {
         // doWrite() should consider ET writable handler
 
-        if (chnl != null && chnl.used() == 0)
+        if (chnl != null && chnl.remaining() == 0)
             chnl = null; // remove channel if nothing to write
         if (chnl == null && bytesSeq.isEmpty())
             return; // nothing to write
         if (chnl == null) {
-            byte[] bytes = bytesSeq.poll();
-            assert bytes != null; // it only removes in one thread, so, no concurrency
-            chnl = ByteArrayChannel.fromFull(bytes);
+            chnl = bytesSeq.poll();
+            assert chnl != null; // it only removes in one thread, so, no concurrency
+        }
+        if (outBuffer.used() == 0) {
+            directWrite();
+            if (chnl == null)
+                return; // all written
         }
         while (true) {
             {
-                int size = outBuffer.storeBytesFrom(chnl);
+                int size;
+                try {
+                    size = outBuffer.storeBytesFrom(chnl);
+                } catch (IOException e) {
+                    // it's memory operation, should not happen
+                    throw new RuntimeException(e);
+                }
                 // the chnl might be null because buffer ET writable handler called
 
                 if (size == 0) {
@@ -56,27 +70,62 @@ public class ProtocolHandlerContext<T> {
                 }
             } // we should not use the `size` variable any more, so use a code block {} to prevent
 
-            if (chnl != null && chnl.used() != 0) {
+            if (chnl != null && chnl.remaining() != 0) {
                 break; // still have some bytes left, which means the outBuffer is full
                 // this is ok even after ET writable handler
             }
             // otherwise,
-            // this bytes array is already written
-            // get another array
-            byte[] bytes = bytesSeq.poll();
-            if (bytes == null) {
-                chnl = null;
+            // this chain is already written
+            // get another one
+            chnl = bytesSeq.poll();
+            if (chnl == null) {
                 break; // no more data to write
             }
-            chnl = ByteArrayChannel.fromFull(bytes);
             // let it loop
         }
     }
 
+    // when nothing is pending in the out buffer,
+    // write the fragments directly to the socket with gathering writes, without copying them into the out buffer.
+    // the bytes not written are left in chnl and will be stored into the out buffer
+    private void directWrite() {
+        // the out buffer may transform the data (e.g. ssl), then we cannot bypass it
+        if (!(outBuffer instanceof SimpleRingBuffer) || !(connection.channel instanceof SocketChannel))
+            return;
+        if (connection.isClosed())
+            return;
+        SocketChannel channel = (SocketChannel) connection.channel;
+        while (chnl != null) {
+            long n;
+            try {
+                n = chnl.writeTo(channel);
+            } catch (IOException e) {
+                // let the ring buffer path and the event loop handle the error
+                assert Logger.lowLevelDebug("direct write to " + connection + " failed: " + e);
+                return;
+            }
+            if (n > 0) {
+                connection.incToRemoteBytes(n); // record net flow, it's writing, so is "to remote"
+            }
+            if (chnl.remaining() != 0)
+                return; // the socket buffer is full
+            chnl = bytesSeq.poll();
+        }
+    }
+
     public void write(byte[] bytes) {
         if (bytes.length == 0)
             return; // do not write if the input array is empty
-        bytesSeq.add(bytes); // only record in this thread
+        write(new ByteBufferChain().append(bytes));
+    }
+
+    /**
+     * the fragments in the chain are not copied if they can be directly written to the connection
+     */
+    public void write(ByteBufferChain chain) {
+        if (chain.remaining() == 0)
+            return; // do not write if the input is empty
+        bytesSeq.add(chain); // only record in this thread
         loop.runOnLoop(this::doWrite); // run write in loop thread
     }
 
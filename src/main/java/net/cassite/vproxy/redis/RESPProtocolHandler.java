@@ -55,6 +55,8 @@ public class RESPProtocolHandler implements ProtocolHandler<RESPContext> {
                         ctx.write(Serializer.fromErrorString("Internal Error"));
                         return;
                     }
+                    // the reply is serialized into one array, which is wrapped without copying,
+                    // so it's already written directly to the socket when the out buffer is empty
                     ctx.write(bytes);
                 }
 
@@ -0,0 +1,95 @@
+package net.cassite.vproxy.selector;
+
+import net.cassite.vproxy.util.Logger;
+
+import java.lang.reflect.Field;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An array backed set replacing the selected-key HashSet inside the jdk selector.<br>
+ * The selector only adds keys into the set, and the event loop walks the array and resets it.<br>
+ * contains() always returns false, it's ok because every channel appears at most once in one select,
+ * and the set is always reset before the next select.
+ */
+final class SelectedKeySet extends AbstractSet<SelectionKey> {
+    SelectionKey[] keys = new SelectionKey[1024];
+    int size = 0;
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null)
+            return false;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+        }
+        keys[size++] = key;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+            private int idx = 0;
+
+            @Override
+            public boolean hasNext() {
+                return idx < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return keys[idx++];
+            }
+        };
+    }
+
+    /**
+     * replace the selected-key set of the selector
+     *
+     * @return the installed set, or null if the jdk does not allow
+     */
+    static SelectedKeySet install(Selector selector) {
+        try {
+            Class<?> selectorImplClass = Class.forName("sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+            if (!selectorImplClass.isAssignableFrom(selector.getClass())) {
+                assert Logger.lowLevelDebug("the selector " + selector.getClass() + " is not a sun.nio.ch.SelectorImpl");
+                return null;
+            }
+            Field selectedKeysField = selectorImplClass.getDeclaredField("selectedKeys");
+            Field publicSelectedKeysField = selectorImplClass.getDeclaredField("publicSelectedKeys");
+            SelectedKeySet set = new SelectedKeySet();
+            // may throw InaccessibleObjectException (a RuntimeException) on jdk 9+
+            // if java.base/sun.nio.ch is not opened
+            selectedKeysField.setAccessible(true);
+            publicSelectedKeysField.setAccessible(true);
+            selectedKeysField.set(selector, set);
+            publicSelectedKeysField.set(selector, set);
+            return set;
+        } catch (Throwable t) {
+            assert Logger.lowLevelDebug("Reflection failure: replacing selected keys failed " + t);
+            return null;
+        }
+    }
+}
@@ -5,34 +5,161 @@ import net.cassite.vproxy.util.*;
 import java.io.IOException;
 import java.nio.channels.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class SelectorEventLoop {
     static class RegisterData {
+        private static final AtomicIntegerFieldUpdater<RegisterData> OPS =
+            AtomicIntegerFieldUpdater.newUpdater(RegisterData.class, "ops");
+        private static final AtomicIntegerFieldUpdater<RegisterData> DIRTY =
+            AtomicIntegerFieldUpdater.newUpdater(RegisterData.class, "dirty");
+
         Handler handler;
         Object att;
+        SelectableChannel channel;
+        volatile int ops; // the expected interest ops
+        volatile int dirty; // 1 means ops should be applied to the key by the loop thread
+        boolean removed; // removed (maybe before the registration is applied), guarded by the channel
+
+        // return OPS_UNCHANGED if the ops are not changed
+        int updateOps(int mode, int ops) {
+            while (true) {
+                int old = this.ops;
+                int now;
+                if (mode == OPS_ADD) {
+                    now = old | ops;
+                } else if (mode == OPS_RM) {
+                    now = old & ~ops;
+                } else {
+                    now = ops;
+                }
+                if (old == now)
+                    return OPS_UNCHANGED;
+                if (OPS.compareAndSet(this, old, now))
+                    return now;
+            }
+        }
+
+        boolean markDirty() {
+            return DIRTY.compareAndSet(this, 0, 1);
+        }
     }
 
+    private static final int OPS_SET = 0;
+    private static final int OPS_ADD = 1;
+    private static final int OPS_RM = 2;
+    private static final int OPS_UNCHANGED = -1;
+    private static final int PENDING_QUEUE_CAPACITY = 1024;
+
     private final Selector selector;
-    private final TimeQueue<Runnable> timeQueue = new TimeQueue<>();
-    private final ConcurrentLinkedQueue<Runnable> runOnLoopEvents = new ConcurrentLinkedQueue<>();
+    private final SelectedKeySet selectedKeySet; // null if not optimized
+    private final TimeQueue<Runnable> timeQueue;
+    private final MPSCQueue<Runnable> runOnLoopEvents;
+    // only used when runOnLoopEvents is bounded and full
+    // producers never wait for the loop, which may be not started, or be waiting for the producer
+    private final MPSCQueue<Runnable> runOnLoopOverflow = new ChunkedMPSCQueue<>();
+    private final Consumer<Runnable> runTask = this::tryRunnable; // reuse the function object
+    // tasks to run after handling the selected keys of the current iteration, only accessed on the loop thread
+    private final ArrayDeque<Runnable> iterationEndTasks = new ArrayDeque<>();
     private final HandlerContext ctx = new HandlerContext(this); // always reuse the ctx object
     public volatile Thread runningThread;
 
+    // the wakeup state, used to avoid unnecessary wakeup() calls
+    // the loop sets SELECTING before checking tasks and select()
+    // and sets AWAKE after select() returns
+    // only the first task added during SELECTING triggers a wakeup
+    private static final int WAKEUP_STATE_AWAKE = 0;
+    private static final int WAKEUP_STATE_SELECTING = 1;
+    private static final int WAKEUP_STATE_WOKEN = 2;
+    private final AtomicInteger wakeupState = new AtomicInteger(WAKEUP_STATE_AWAKE);
+    private final LongAdder wakeupIssued = new LongAdder();
+    private final LongAdder wakeupSuppressed = new LongAdder();
+    private final LongAdder interestOpsChanged = new LongAdder();
+
+    // statistics, modified only on the loop thread
+    private volatile int lastIterationTaskCount = 0;
+    private volatile long totalTaskCount = 0;
+
+    // loop health histograms, recorded only on the loop thread
+    private final boolean recordStatistics;
+    private final Histogram selectTime = new Histogram("us"); // blocked in select()
+    private final Histogram handlingTime = new Histogram("us"); // handling selected keys
+    private final Histogram taskTime = new Histogram("us"); // running nextTick tasks and timer events
+    private final Histogram timerLateness = new Histogram("ms"); // actual fire time - scheduled time
+    private final Histogram readyKeys = new Histogram(""); // selected keys in one iteration
+    // the histograms are rotated on the loop thread in every window, so recent values can be retrieved
+    private static final long STATISTICS_WINDOW_NANOS = 10_000_000_000L; // 10s
+    private long statisticsWindowStart = System.nanoTime();
+
+    // the loop busy time (handling keys, tasks and timers) in recent windows
+    // used by event loop groups to choose a less busy loop
+    private static final long BUSY_WINDOW_NANOS = 100_000_000L; // 100ms
+    private long busyNanos = 0; // busy time in current window
+    private long busyWindowStart = System.nanoTime();
+    private volatile int recentBusyPermille = 0; // smoothed busy ratio of recent windows
+    private volatile long recentBusyUpdateTime = busyWindowStart;
+
     // these locks are a little tricky
     // see comments in loop() and close()
     private final Object CLOSE_LOCK = new Object();
     private List<Tuple<SelectableChannel, RegisterData>> THE_KEY_SET_BEFORE_SELECTOR_CLOSE;
     // see comments in add()/modify()/remove() and loop()
     private final Object OPERATE_SELECTOR_LOCK = new Object();
-
-    private SelectorEventLoop() throws IOException {
+    // count of threads operating the selector with OPERATE_SELECTOR_LOCK
+    // when operations are deferred, the loop only waits for the lock when this is not 0
+    private final AtomicInteger syncOperating = new AtomicInteger(0);
+
+    // when enabled, add/modify from other threads are recorded
+    // and applied by the loop thread in batch before selecting
+    private final boolean deferOperations;
+    // the bounded queues do not allocate when offering,
+    // the overflow queues are only used when the bounded ones are full
+    private final MPSCQueue<RegisterData> pendingRegistrations = new BoundedMPSCQueue<>(PENDING_QUEUE_CAPACITY);
+    private final MPSCQueue<RegisterData> pendingRegistrationOverflow = new ChunkedMPSCQueue<>();
+    private final Map<SelectableChannel, RegisterData> pendingRegistrationMap = new ConcurrentHashMap<>();
+    // channels registered (or waiting to be registered), maintained when adding and removing channels
+    // channels may be added or removed by other threads, so it's atomic
+    private final AtomicInteger registeredChannelCount = new AtomicInteger(0);
+    private final MPSCQueue<RegisterData> pendingOps = new BoundedMPSCQueue<>(PENDING_QUEUE_CAPACITY);
+    private final MPSCQueue<RegisterData> pendingOpsOverflow = new ChunkedMPSCQueue<>();
+    private final Consumer<RegisterData> applyRegistration = this::applyRegistration; // reuse the function object
+    private final Consumer<RegisterData> applyOps = this::applyOps; // reuse the function object
+
+    private SelectorEventLoop(SelectorEventLoopConfig config) throws IOException {
         this.selector = Selector.open();
+        if (config.optimizeSelectedKeys) {
+            this.selectedKeySet = SelectedKeySet.install(selector);
+            if (this.selectedKeySet == null) {
+                Logger.warn(LogType.ALERT, "cannot optimize selected keys for the event loop, fall back to the jdk implementation");
+            }
+        } else {
+            this.selectedKeySet = null;
+        }
+        if (config.timerEngine == TimerEngine.wheel) {
+            this.timeQueue = new TimingWheel<>(config.timingWheelTick);
+        } else {
+            this.timeQueue = new PriorityTimeQueue<>();
+        }
+        this.deferOperations = config.deferOperations;
+        this.recordStatistics = config.recordStatistics;
+        if (config.taskQueueCapacity > 0) {
+            this.runOnLoopEvents = new BoundedMPSCQueue<>(config.taskQueueCapacity);
+        } else {
+            this.runOnLoopEvents = new ChunkedMPSCQueue<>();
+        }
     }
 
     public static SelectorEventLoop open() throws IOException {
-        return new SelectorEventLoop();
+        return open(new SelectorEventLoopConfig());
+    }
+
+    public static SelectorEventLoop open(SelectorEventLoopConfig config) throws IOException {
+        return new SelectorEventLoop(config);
     }
 
     private void tryRunnable(Runnable r) {
@@ -45,80 +172,163 @@ public class SelectorEventLoop {
     }
 
     private void handleNonSelectEvents() {
-        handleRunOnLoopEvents();
-        handleTimeEvents();
+        int count = handleRunOnLoopEvents();
+        count += handleTimeEvents();
+        lastIterationTaskCount = count;
+        totalTaskCount += count;
     }
 
-    private void handleRunOnLoopEvents() {
-        Runnable r;
-        List<Runnable> toRun = new LinkedList<>();
-        while ((r = runOnLoopEvents.poll()) != null) {
-            toRun.add(r);
-        }
-        for (Runnable rr : toRun) {
-            tryRunnable(rr);
+    private int handleRunOnLoopEvents() {
+        // tasks added when running are handled in the next tick
+        // so record the overflow size before running any task
+        int overflow = runOnLoopOverflow.size();
+        int count = runOnLoopEvents.drain(runTask);
+        // tasks in the overflow queue are added after the bounded queue is full, so run them after
+        for (int i = 0; i < overflow; ++i) {
+            Runnable r = runOnLoopOverflow.poll();
+            if (r == null)
+                break;
+            tryRunnable(r);
+            ++count;
         }
+        return count;
     }
 
-    private void handleTimeEvents() {
-        List<Runnable> toRun = new LinkedList<>();
+    private int handleTimeEvents() {
+        // the current time is fixed in this tick
+        // so timers added when running will not be triggered in this tick, unless timeout is 0
+        int count = 0;
         while (timeQueue.nextTime() == 0) {
             Runnable r = timeQueue.pop();
-            toRun.add(r);
-        }
-        for (Runnable r : toRun) {
+            if (recordStatistics) {
+                // get the time for each timer, the previous ones may run for a long time
+                timerLateness.record(System.currentTimeMillis() - timeQueue.getLastTriggerTime());
+            }
             tryRunnable(r);
+            ++count;
+        }
+        return count;
+    }
+
+    private void handleIterationEndTasks() {
+        // tasks added when running are handled at the end of the next iteration
+        int size = iterationEndTasks.size();
+        for (int i = 0; i < size; ++i) {
+            tryRunnable(iterationEndTasks.poll());
+        }
+    }
+
+    private boolean hasRunOnLoopEvents() {
+        return !runOnLoopEvents.isEmpty() || !runOnLoopOverflow.isEmpty() || !iterationEndTasks.isEmpty()
+            || !pendingRegistrations.isEmpty() || !pendingRegistrationOverflow.isEmpty()
+            || !pendingOps.isEmpty() || !pendingOpsOverflow.isEmpty();
+    }
+
+    private void applyPendingOperations() {
+        // registrations first, then the ops may apply to the newly registered keys
+        pendingRegistrations.drain(applyRegistration);
+        pendingRegistrationOverflow.drain(applyRegistration);
+        pendingOps.drain(applyOps);
+        pendingOpsOverflow.drain(applyOps);
+    }
+
+    private void applyRegistration(RegisterData registerData) {
+        SelectableChannel channel = registerData.channel;
+        boolean failed = false;
+        //noinspection SynchronizationOnLocalVariableOrMethodParameter
+        synchronized (channel) {
+            if (registerData.removed)
+                return; // removed before registering
+            try {
+                add0(channel, registerData.ops, registerData);
+            } catch (IOException e) {
+                assert Logger.lowLevelDebug("register channel failed " + e);
+                registerData.removed = true;
+                failed = true;
+            }
+            pendingRegistrationMap.remove(channel, registerData);
+        }
+        if (failed) {
+            registeredChannelCount.decrementAndGet();
+            triggerRemovedCallback(channel, registerData);
+        }
+    }
+
+    private void applyOps(RegisterData registerData) {
+        // clear the flag before reading ops
+        // so ops modified after reading will be applied in the next round
+        registerData.dirty = 0;
+        SelectionKey key = registerData.channel.keyFor(selector);
+        if (key == null || !key.isValid())
+            return; // not registered yet (will use the latest ops when registering) or already removed
+        try {
+            key.interestOps(registerData.ops);
+        } catch (CancelledKeyException ignore) {
+            // removed concurrently
         }
     }
 
-    @SuppressWarnings("unchecked")
     private void doHandling(Iterator<SelectionKey> keys) {
         while (keys.hasNext()) {
             SelectionKey key = keys.next();
             keys.remove();
+            handleKey(key);
+        }
+    }
 
-            RegisterData registerData = (RegisterData) key.attachment();
+    private void doHandling(SelectedKeySet keySet) {
+        SelectionKey[] keys = keySet.keys;
+        int size = keySet.size;
+        for (int i = 0; i < size; ++i) {
+            SelectionKey key = keys[i];
+            keys[i] = null;
+            handleKey(key);
+        }
+        keySet.size = 0;
+    }
 
-            SelectableChannel channel = key.channel();
-            Handler handler = registerData.handler;
+    @SuppressWarnings("unchecked")
+    private void handleKey(SelectionKey key) {
+        RegisterData registerData = (RegisterData) key.attachment();
 
-            ctx.channel = channel;
-            ctx.attachment = registerData.att;
+        SelectableChannel channel = key.channel();
+        Handler handler = registerData.handler;
 
-            if (!key.isValid()) {
-                //noinspection UnnecessaryContinue
-                continue;
-            } else if (!channel.isOpen()) {
-                Logger.stderr("channel is closed but still firing");
-            } else {
-                int readyOps = key.readyOps();
-                // handle read first because it's most likely to happen
-                if ((readyOps & SelectionKey.OP_READ) != 0) {
-                    try {
-                        handler.readable(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
-                    }
-                } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
-                    try {
-                        handler.connected(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
-                    }
-                } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
-                    try {
-                        handler.accept(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
-                    }
+        ctx.channel = channel;
+        ctx.attachment = registerData.att;
+
+        if (!key.isValid()) {
+            return;
+        } else if (!channel.isOpen()) {
+            Logger.stderr("channel is closed but still firing");
+        } else {
+            int readyOps = key.readyOps();
+            // handle read first because it's most likely to happen
+            if ((readyOps & SelectionKey.OP_READ) != 0) {
+                try {
+                    handler.readable(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the readable callback got exception", t);
                 }
-                // read and write may happen in the same loop round
-                if ((readyOps & SelectionKey.OP_WRITE) != 0) {
-                    try {
-                        handler.writable(ctx);
-                    } catch (Throwable t) {
-                        Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
-                    }
+            } else if ((readyOps & SelectionKey.OP_CONNECT) != 0) {
+                try {
+                    handler.connected(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the connected callback got exception", t);
+                }
+            } else if ((readyOps & SelectionKey.OP_ACCEPT) != 0) {
+                try {
+                    handler.accept(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the accept callback got exception", t);
+                }
+            }
+            // read and write may happen in the same loop round
+            if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                try {
+                    handler.writable(ctx);
+                } catch (Throwable t) {
+                    Logger.error(LogType.IMPROPER_USE, "the writable callback got exception", t);
                 }
             }
         }
@@ -148,6 +358,7 @@ public class SelectorEventLoop {
     public void loop() {
         runningThread = Thread.currentThread();
         while (selector.isOpen()) {
+            long taskNanos;
             synchronized (CLOSE_LOCK) {
                 // yes, we lock the whole while body (except the select part)
                 // it's ok because we won't close the loop from inside the loop
@@ -159,16 +370,28 @@ public class SelectorEventLoop {
 
                 // handle some non select events
                 timeQueue.setCurrent(System.currentTimeMillis());
+                long taskStart = System.nanoTime();
                 handleNonSelectEvents();
+                taskNanos = System.nanoTime() - taskStart;
+                if (recordStatistics) {
+                    taskTime.record(taskNanos / 1000);
+                }
+                if (deferOperations) {
+                    applyPendingOperations();
+                }
             }
             // here we do not lock select()
             // let close() have chance to run
 
             final int selectedSize;
+            // set the state before checking tasks
+            // if a task is added after the check, the producer will see SELECTING and wake the selector
+            wakeupState.set(WAKEUP_STATE_SELECTING);
+            long selectStart = System.nanoTime();
             try {
-                if (timeQueue.isEmpty() && runOnLoopEvents.isEmpty()) {
+                if (timeQueue.isEmpty() && !hasRunOnLoopEvents()) {
                     selectedSize = selector.select(); // let it sleep
-                } else if (!runOnLoopEvents.isEmpty()) {
+                } else if (hasRunOnLoopEvents()) {
                     selectedSize = selector.selectNow(); // immediately return
                 } else {
                     int time = timeQueue.nextTime();
@@ -182,12 +405,20 @@ public class SelectorEventLoop {
                 // let's ignore this exception and continue
                 // if it's closed, the next loop will not run
                 continue;
+            } finally {
+                wakeupState.set(WAKEUP_STATE_AWAKE);
+            }
+            long selectEnd = System.nanoTime();
+            if (recordStatistics) {
+                selectTime.record((selectEnd - selectStart) / 1000);
             }
 
             // we lock the OPERATE_SELECTOR_LOCK
             // to make sure the add() is finished
             // and the selectionKeys will be working in the next loop
-            synchronized (OPERATE_SELECTOR_LOCK) { // do nothing, just wait for lock to release
+            if (!deferOperations || syncOperating.get() != 0) {
+                synchronized (OPERATE_SELECTOR_LOCK) { // do nothing, just wait for lock to release
+                }
             }
 
             // here we lock again
@@ -198,10 +429,27 @@ public class SelectorEventLoop {
                 if (!selector.isOpen())
                     break; // break if it's closed
 
-                if (selectedSize > 0) {
+                if (recordStatistics) {
+                    readyKeys.record(selectedKeySet != null ? selectedKeySet.size : selector.selectedKeys().size());
+                }
+                if (selectedKeySet != null) {
+                    // the set may contain keys even when selectedSize is 0
+                    // e.g. a key's ready ops updated without increasing the count
+                    if (selectedKeySet.size > 0) {
+                        doHandling(selectedKeySet);
+                    }
+                } else if (selectedSize > 0) {
                     Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
                     doHandling(keys);
                 }
+                handleIterationEndTasks();
+                // the time waiting for the OPERATE_SELECTOR_LOCK is considered busy as well
+                long handlingEnd = System.nanoTime();
+                if (recordStatistics) {
+                    handlingTime.record((handlingEnd - selectEnd) / 1000);
+                    rotateStatistics(handlingEnd);
+                }
+                recordBusy(taskNanos + handlingEnd - selectEnd, handlingEnd);
             }
             // while-loop ends here
         }
@@ -210,16 +458,76 @@ public class SelectorEventLoop {
         release();
     }
 
+    private void rotateStatistics(long now) {
+        if (now - statisticsWindowStart < STATISTICS_WINDOW_NANOS)
+            return;
+        statisticsWindowStart = now;
+        selectTime.rotate();
+        handlingTime.rotate();
+        taskTime.rotate();
+        timerLateness.rotate();
+        readyKeys.rotate();
+    }
+
+    private void recordBusy(long busy, long now) {
+        busyNanos += busy;
+        long window = now - busyWindowStart;
+        if (window >= BUSY_WINDOW_NANOS) {
+            int permille = (int) (busyNanos * 1000 / window);
+            recentBusyPermille = (recentBusyPermille + permille) / 2;
+            recentBusyUpdateTime = now;
+            busyNanos = 0;
+            busyWindowStart = now;
+        }
+    }
+
     private boolean needLockAndWake() {
         return runningThread != null && Thread.currentThread() != runningThread;
     }
 
+    // wake the selector only when it's selecting and not woken yet
+    private void wakeupIfSelecting() {
+        if (wakeupState.compareAndSet(WAKEUP_STATE_SELECTING, WAKEUP_STATE_WOKEN)) {
+            wakeupIssued.increment();
+            selector.wakeup();
+        } else {
+            wakeupSuppressed.increment();
+        }
+    }
+
+    // the selector must be woken, e.g. when operating on keys
+    private void forceWakeup() {
+        wakeupState.set(WAKEUP_STATE_WOKEN);
+        wakeupIssued.increment();
+        selector.wakeup();
+    }
+
     @ThreadSafe
     public void nextTick(Runnable r) {
-        runOnLoopEvents.add(r);
-        if (runningThread == null || Thread.currentThread() == runningThread)
-            return; // we do not need to wakeup because it's not started or is already waken up
-        selector.wakeup(); // wake the selector because new event is added
+        // keep the order of tasks added by the same thread:
+        // once the overflow queue is used, following tasks should go into it as well until it's consumed
+        if (runOnLoopOverflow.size() != 0 || !runOnLoopEvents.offer(r)) {
+            runOnLoopOverflow.offer(r);
+        }
+        if (Thread.currentThread() == runningThread)
+            return; // we do not need to wakeup because it's already waken up
+        if (runningThread == null)
+            return; // we do not need to wakeup because it's not started
+        wakeupIfSelecting(); // wake the selector because new event is added
+    }
+
+    /**
+     * run the task after all selected keys of the current iteration are handled,
+     * e.g. to coalesce work triggered by multiple events in one iteration.<br>
+     * if it's not called on the loop thread, the task is run as a nextTick event
+     */
+    @ThreadSafe
+    public void runAtIterationEnd(Runnable r) {
+        if (runningThread != null && Thread.currentThread() == runningThread) {
+            iterationEndTasks.add(r);
+        } else {
+            nextTick(r);
+        }
     }
 
     @ThreadSafe
@@ -247,21 +555,63 @@ public class SelectorEventLoop {
         return pe;
     }
 
+    /**
+     * register the channel.
+     * if operations are deferred and not on the loop thread,
+     * the channel will be registered by the loop thread before next select
+     */
     @ThreadSafe
     @SuppressWarnings("DuplicateThrows")
     public <CHANNEL extends SelectableChannel> void add(CHANNEL channel, int ops, Object attachment, Handler<CHANNEL> handler) throws ClosedChannelException, IOException {
+        add(channel, ops, attachment, handler, false);
+    }
+
+    /**
+     * register the channel, the channel is registered when this method returns
+     */
+    @ThreadSafe
+    @SuppressWarnings("DuplicateThrows")
+    public <CHANNEL extends SelectableChannel> void addSync(CHANNEL channel, int ops, Object attachment, Handler<CHANNEL> handler) throws ClosedChannelException, IOException {
+        add(channel, ops, attachment, handler, true);
+    }
+
+    @SuppressWarnings("DuplicateThrows")
+    private <CHANNEL extends SelectableChannel> void add(CHANNEL channel, int ops, Object attachment, Handler<CHANNEL> handler, boolean sync) throws ClosedChannelException, IOException {
         channel.configureBlocking(false);
         RegisterData registerData = new RegisterData();
         registerData.att = attachment;
         registerData.handler = handler;
+        registerData.channel = channel;
+        registerData.ops = ops;
         if (needLockAndWake()) {
-            synchronized (OPERATE_SELECTOR_LOCK) { // lock it to make sure register is done
-                selector.wakeup();
-                add0(channel, ops, registerData);
+            if (deferOperations && !sync) {
+                if (!channel.isOpen())
+                    throw new ClosedChannelException();
+                pendingRegistrationMap.put(channel, registerData);
+                registeredChannelCount.incrementAndGet();
+                offerPending(pendingRegistrations, pendingRegistrationOverflow, registerData);
+                wakeupIfSelecting();
+                return;
+            }
+            syncOperating.incrementAndGet();
+            try {
+                synchronized (OPERATE_SELECTOR_LOCK) { // lock it to make sure register is done
+                    forceWakeup();
+                    add0(channel, ops, registerData);
+                }
+            } finally {
+                syncOperating.decrementAndGet();
             }
         } else {
             add0(channel, ops, registerData);
         }
+        registeredChannelCount.incrementAndGet();
+    }
+
+    private static void offerPending(MPSCQueue<RegisterData> q, MPSCQueue<RegisterData> overflow, RegisterData registerData) {
+        if (!q.offer(registerData)) {
+            overflow.offer(registerData);
+        }
     }
 
     // a helper function for adding a channel into the selector
@@ -289,71 +639,149 @@ public class SelectorEventLoop {
         }
     }
 
-    private void doModify(SelectionKey key, int ops) {
+    // other threads may modify the ops at the same time (and apply them with the lock),
+    // so always apply the latest expected ops instead of the value computed by this call,
+    // and retry if the ops are changed while applying,
+    // then the key always ends up with the latest ops.
+    // the ops are compared with the key, so a mismatch left by a race is fixed by the next call
+    private void applyOpsOnLoop(SelectionKey key, RegisterData registerData) {
+        int expected;
+        do {
+            expected = registerData.ops;
+            if (key.interestOps() != expected) {
+                key.interestOps(expected);
+            }
+        } while (registerData.ops != expected);
+    }
+
+    private RegisterData getRegisterData(SelectableChannel channel) {
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null)
+            return (RegisterData) key.attachment();
+        RegisterData registerData = pendingRegistrationMap.get(channel);
+        if (registerData == null)
+            throw new IllegalArgumentException("channel is not registered with this selector");
+        return registerData;
+    }
+
+    private void doModify(SelectableChannel channel, int mode, int ops, boolean sync) {
+        RegisterData registerData = getRegisterData(channel);
+        boolean changed = registerData.updateOps(mode, ops) != OPS_UNCHANGED;
+        if (changed) {
+            interestOpsChanged.increment();
+        }
+        if (!needLockAndWake()) {
+            SelectionKey key = channel.keyFor(selector);
+            if (key == null) { // the registration is not applied yet
+                if (changed && registerData.markDirty()) {
+                    offerPending(pendingOps, pendingOpsOverflow, registerData);
+                }
+                return;
+            }
+            applyOpsOnLoop(key, registerData);
+            return;
+        }
+        if (!changed && !sync)
+            return; // nothing to apply, the one who changed the ops will apply them
+        if (deferOperations && !sync) {
+            if (registerData.markDirty()) {
+                offerPending(pendingOps, pendingOpsOverflow, registerData);
+                wakeupIfSelecting();
+            }
+            return;
+        }
         // the document says whether interestOps() blocks or not
         // is implementation dependent
         // so we consider a lock and wake
-        if (needLockAndWake()) {
+        SelectionKey key = getKeyCheckNull(channel);
+        syncOperating.incrementAndGet();
+        try {
             synchronized (OPERATE_SELECTOR_LOCK) {
-                selector.wakeup();
-                key.interestOps(ops);
+                forceWakeup();
+                key.interestOps(registerData.ops);
             }
-        } else {
-            key.interestOps(ops);
+        } finally {
+            syncOperating.decrementAndGet();
         }
     }
 
     @ThreadSafe
     public void modify(SelectableChannel channel, int ops) {
-        SelectionKey key = getKeyCheckNull(channel);
-        doModify(key, ops);
+        doModify(channel, OPS_SET, ops, false);
+    }
+
+    /**
+     * modify the interest ops, the ops are set when this method returns
+     */
+    @ThreadSafe
+    public void modifySync(SelectableChannel channel, int ops) {
+        doModify(channel, OPS_SET, ops, true);
     }
 
     @ThreadSafe
     public void addOps(SelectableChannel channel, int ops) {
-        SelectionKey key = getKeyCheckNull(channel);
-        doModify(key, key.interestOps() | ops);
+        doModify(channel, OPS_ADD, ops, false);
     }
 
     @ThreadSafe
     public void rmOps(SelectableChannel channel, int ops) {
-        SelectionKey key = getKeyCheckNull(channel);
-        doModify(key, key.interestOps() & ~ops);
+        doModify(channel, OPS_RM, ops, false);
     }
 
     @ThreadSafe
     public void remove(SelectableChannel channel) {
         SelectionKey key;
+        RegisterData att;
         // synchronize the channel
         // to prevent it being canceled from multiple threads
         //noinspection SynchronizationOnLocalVariableOrMethodParameter
         synchronized (channel) {
             key = channel.keyFor(selector);
-            if (key == null)
-                return;
+            if (key == null) {
+                // maybe the registration is not applied yet
+                att = pendingRegistrationMap.remove(channel);
+                if (att == null)
+                    return;
+                att.removed = true;
+            } else {
+                att = (RegisterData) key.attachment();
+                if (att.removed)
+                    return; // already removed, the key is not deregistered yet
+                att.removed = true;
+            }
         }
-        RegisterData att = (RegisterData) key.attachment();
-        if (needLockAndWake()) {
-            synchronized (OPERATE_SELECTOR_LOCK) { // lock it to make sure cancel is done
-                selector.wakeup();
+        registeredChannelCount.decrementAndGet();
+        if (key != null) {
+            if (!needLockAndWake()) {
                 key.cancel();
+            } else if (deferOperations) {
+                // cancel() is thread safe
+                // wake the selector to let the key deregister, so that the channel can be closed in time
+                key.cancel();
+                wakeupIfSelecting();
+            } else {
+                syncOperating.incrementAndGet();
+                try {
+                    synchronized (OPERATE_SELECTOR_LOCK) { // lock it to make sure cancel is done
+                        forceWakeup();
+                        key.cancel();
+                    }
+                } finally {
+                    syncOperating.decrementAndGet();
+                }
             }
-        } else {
-            key.cancel();
         }
         triggerRemovedCallback(channel, att);
     }
 
     @ThreadSafe
     public int getOps(SelectableChannel channel) {
-        SelectionKey key = getKeyCheckNull(channel);
-        return key.interestOps();
+        return getRegisterData(channel).ops;
     }
 
     @ThreadSafe
     public Object getAtt(SelectableChannel channel) {
-        SelectionKey key = getKeyCheckNull(channel);
-        return key.attachment();
+        return getRegisterData(channel);
     }
 
     private SelectionKey getKeyCheckNull(SelectableChannel channel) {
@@ -375,6 +803,134 @@ public class SelectorEventLoop {
         }
     }
 
+    /**
+     * @return count of nextTick tasks and timer events executed in the last loop iteration
+     */
+    @ThreadSafe
+    public int getLastIterationTaskCount() {
+        return lastIterationTaskCount;
+    }
+
+    /**
+     * @return count of nextTick tasks and timer events executed since the loop started
+     */
+    @ThreadSafe
+    public long getTotalTaskCount() {
+        return totalTaskCount;
+    }
+
+    /**
+     * @return true if the selected-key set is replaced with the array backed one
+     */
+    @ThreadSafe
+    public boolean isSelectedKeysOptimized() {
+        return selectedKeySet != null;
+    }
+
+    /**
+     * @return count of selector.wakeup() calls
+     */
+    @ThreadSafe
+    public long getWakeupIssuedCount() {
+        return wakeupIssued.sum();
+    }
+
+    /**
+     * @return count of wakeups skipped because the loop is not selecting or already woken
+     */
+    @ThreadSafe
+    public long getWakeupSuppressedCount() {
+        return wakeupSuppressed.sum();
+    }
+
+    /**
+     * @return count of modifications which actually changed the interest ops of a channel
+     */
+    @ThreadSafe
+    public long getInterestOpsChangeCount() {
+        return interestOpsChanged.sum();
+    }
+
+    /**
+     * @return histogram of microseconds blocked in select() in each iteration
+     */
+    @ThreadSafe
+    public Histogram getSelectTimeHistogram() {
+        return selectTime;
+    }
+
+    /**
+     * @return histogram of microseconds handling the selected keys in each iteration
+     */
+    @ThreadSafe
+    public Histogram getHandlingTimeHistogram() {
+        return handlingTime;
+    }
+
+    /**
+     * @return histogram of microseconds running nextTick tasks and timer events in each iteration
+     */
+    @ThreadSafe
+    public Histogram getTaskTimeHistogram() {
+        return taskTime;
+    }
+
+    /**
+     * @return histogram of milliseconds between the scheduled time and the actual fire time of timer events
+     */
+    @ThreadSafe
+    public Histogram getTimerLatenessHistogram() {
+        return timerLateness;
+    }
+
+    /**
+     * @return histogram of selected keys in each iteration
+     */
+    @ThreadSafe
+    public Histogram getReadyKeysHistogram() {
+        return readyKeys;
+    }
+
+    /**
+     * @return approximate count of channels registered (or waiting to be registered) on this loop
+     */
+    @ThreadSafe
+    public int getRegisteredChannelCount() {
+        return registeredChannelCount.get();
+    }
+
+    /**
+     * @return permille of time the loop spent on handling events and tasks in recent 100ms windows,
+     * the value is smoothed
+     */
+    @ThreadSafe
+    public int getRecentBusyPermille() {
+        if (System.nanoTime() - recentBusyUpdateTime > 2 * BUSY_WINDOW_NANOS) {
+            // the loop is not updating
+            // it's idle if blocked in select() for a long time
+            // otherwise it's blocked by some long running handlers or tasks
+            return wakeupState.get() == WAKEUP_STATE_AWAKE ? 1000 : 0;
+        }
+        return recentBusyPermille;
+    }
+
+    /**
+     * @return approximate count of tasks waiting to be executed
+     */
+    @ThreadSafe
+    public int getPendingTaskCount() {
+        return runOnLoopEvents.size() + runOnLoopOverflow.size();
+    }
+
+    /**
+     * @return approximate count of deferred registrations and ops waiting to be applied
+     */
+    @ThreadSafe
+    public int getPendingOperationCount() {
+        return pendingRegistrations.size() + pendingRegistrationOverflow.size()
+            + pendingOps.size() + pendingOpsOverflow.size();
+    }
+
     @ThreadSafe
     public boolean isClosed() {
         return !selector.isOpen();
@@ -397,6 +953,10 @@ public class SelectorEventLoop {
                     for (SelectionKey key : keys) {
                         THE_KEY_SET_BEFORE_SELECTOR_CLOSE.add(new Tuple<>(key.channel(), (RegisterData) key.attachment()));
                     }
+                    // registrations not applied yet
+                    for (RegisterData registerData : pendingRegistrationMap.values()) {
+                        THE_KEY_SET_BEFORE_SELECTOR_CLOSE.add(new Tuple<>(registerData.channel, registerData));
+                    }
                 } catch (ConcurrentModificationException ignore) {
                     // there might be adding and removing occur when closing the selector
                     // but we do not lock them for performance concern
@@ -0,0 +1,92 @@
+package net.cassite.vproxy.selector;
+
+import net.cassite.vproxy.app.Config;
+
+public class SelectorEventLoopConfig {
+    TimerEngine timerEngine = Config.timerEngine;
+    int timingWheelTick = Config.timingWheelTick;
+    int taskQueueCapacity = 4096; // 0 means unbounded
+    boolean deferOperations = Config.deferSelectorOperations;
+    boolean optimizeSelectedKeys = Config.optimizeSelectedKeys;
+    boolean recordStatistics = Config.eventLoopStatistics;
+
+    public SelectorEventLoopConfig setTimerEngine(TimerEngine timerEngine) {
+        this.timerEngine = timerEngine;
+        return this;
+    }
+
+    public SelectorEventLoopConfig setTimingWheelTick(int timingWheelTick) {
+        if (timingWheelTick < 1)
+            throw new IllegalArgumentException("timingWheelTick should be at least 1ms");
+        this.timingWheelTick = timingWheelTick;
+        return this;
+    }
+
+    /**
+     * @param taskQueueCapacity capacity of the nextTick queue, default 4096, 0 means unbounded.
+     *                          when the bounded queue is full, tasks are put into an unbounded overflow queue,
+     *                          the callers never wait for the loop.
+     *                          the bounded queue allocates nothing when offering,
+     *                          the unbounded queue allocates a chunk for every 1024 tasks
+     */
+    public SelectorEventLoopConfig setTaskQueueCapacity(int taskQueueCapacity) {
+        if (taskQueueCapacity < 0)
+            throw new IllegalArgumentException("taskQueueCapacity should not be negative");
+        this.taskQueueCapacity = taskQueueCapacity;
+        return this;
+    }
+
+    /**
+     * @param deferOperations when set to true, add/modify/addOps/rmOps called from other threads
+     *                        will be applied by the loop thread in batch before next select,
+     *                        without locking and forcing wakeup.
+     *                        use addSync/modifySync if the operation should be done when the method returns
+     */
+    public SelectorEventLoopConfig setDeferOperations(boolean deferOperations) {
+        this.deferOperations = deferOperations;
+        return this;
+    }
+
+    /**
+     * @param optimizeSelectedKeys replace the selected-key set of the jdk selector with an array,
+     *                             falls back to the jdk implementation if it's not allowed
+     *                             (on jdk 16+ the jvm should be started with --add-opens java.base/sun.nio.ch=ALL-UNNAMED)
+     */
+    public SelectorEventLoopConfig setOptimizeSelectedKeys(boolean optimizeSelectedKeys) {
+        this.optimizeSelectedKeys = optimizeSelectedKeys;
+        return this;
+    }
+
+    /**
+     * @param recordStatistics record histograms of select time, handling time, task time,
+     *                         timer lateness and ready keys of each iteration
+     */
+    public SelectorEventLoopConfig setRecordStatistics(boolean recordStatistics) {
+        this.recordStatistics = recordStatistics;
+        return this;
+    }
+
+    public TimerEngine getTimerEngine() {
+        return timerEngine;
+    }
+
+    public int getTimingWheelTick() {
+        return timingWheelTick;
+    }
+
+    public int getTaskQueueCapacity() {
+        return taskQueueCapacity;
+    }
+
+    public boolean isDeferOperations() {
+        return deferOperations;
+    }
+
+    public boolean isOptimizeSelectedKeys() {
+        return optimizeSelectedKeys;
+    }
+
+    public boolean isRecordStatistics() {
+        return recordStatistics;
+    }
+}
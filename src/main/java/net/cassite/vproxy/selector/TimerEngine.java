@@ -0,0 +1,12 @@
+package net.cassite.vproxy.selector;
+
+public enum TimerEngine {
+    /**
+     * binary heap, O(log n) for push and pop, O(n) for cancel
+     */
+    queue,
+    /**
+     * hierarchical timing wheel, O(1) for push and cancel, tick based
+     */
+    wheel,
+}
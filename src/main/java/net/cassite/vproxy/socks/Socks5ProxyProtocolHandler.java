@@ -8,10 +8,13 @@ import net.cassite.vproxy.util.*;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 public class Socks5ProxyProtocolHandler implements ProtocolHandler<Tuple<Socks5ProxyContext, Callback<Connector, IOException>>> {
+    private static final ByteBuffer NO_ACCEPTABLE_METHODS = ByteBufferChain.constant(new byte[]{5, (byte) 0xFF});
+
     private final Socks5ConnectorProvider connectorProvider;
 
     public Socks5ProxyProtocolHandler(Socks5ConnectorProvider connectorProvider) {
@@ -319,7 +322,7 @@ public class Socks5ProxyProtocolHandler implements ProtocolHandler<Tuple<Socks5P
         }
 
         if (pctx.isDoingAuth) {
-            ctx.write(new byte[]{5, (byte) 0xFF});
+            ctx.write(new ByteBufferChain().appendConstant(NO_ACCEPTABLE_METHODS));
         } else {
             if (pctx.errType == 0) {
                 pctx.errType = 1;
@@ -0,0 +1,112 @@
+package net.cassite.vproxy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A bounded array based mpsc queue, nothing is allocated when offering or polling.<br>
+ * Each slot has a sequence number telling whether the slot is ready to be written or to be read.
+ */
+public class BoundedMPSCQueue<E> implements MPSCQueue<E> {
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0); // next index to write
+    private final AtomicLong head = new AtomicLong(0); // next index to read, only modified by the consumer
+
+    /**
+     * @param capacity will be rounded up to a power of 2
+     */
+    public BoundedMPSCQueue(int capacity) {
+        if (capacity < 2)
+            throw new IllegalArgumentException("capacity should be at least 2");
+        if (capacity > (1 << 30))
+            throw new IllegalArgumentException("capacity too large");
+        int cap = Integer.highestOneBit(capacity);
+        if (cap < capacity) {
+            cap <<= 1;
+        }
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.buffer = new AtomicReferenceArray<>(cap);
+        this.sequences = new AtomicLongArray(cap);
+        for (int i = 0; i < cap; ++i) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return false if the queue is full
+     */
+    @Override
+    @ThreadSafe
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        long t;
+        int idx;
+        while (true) {
+            t = tail.get();
+            idx = (int) (t & mask);
+            long diff = sequences.get(idx) - t;
+            if (diff == 0) {
+                if (tail.compareAndSet(t, t + 1))
+                    break;
+            } else if (diff < 0) {
+                return false; // the slot is not consumed yet, so the queue is full
+            }
+            // otherwise another producer took the slot, retry
+        }
+        buffer.lazySet(idx, e);
+        sequences.set(idx, t + 1); // publish
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        long h = head.get();
+        int idx = (int) (h & mask);
+        if (sequences.get(idx) != h + 1)
+            return null; // empty or the producer has not finished writing
+        E e = buffer.get(idx);
+        buffer.lazySet(idx, null);
+        sequences.lazySet(idx, h + capacity);
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    @Override
+    public int drain(Consumer<? super E> consumer) {
+        long end = tail.get();
+        int count = 0;
+        while (head.get() < end) {
+            E e = poll();
+            if (e == null)
+                break; // not published yet
+            ++count;
+            consumer.accept(e);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    @Override
+    @ThreadSafe
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0)
+            return 0;
+        return (int) Math.min(size, capacity);
+    }
+}
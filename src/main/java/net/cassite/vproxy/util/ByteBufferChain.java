@@ -0,0 +1,119 @@
+package net.cassite.vproxy.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * A chain of byte buffer fragments to be written in order.<br>
+ * The fragments are NOT copied when appending, so do not modify them after appending.<br>
+ * Constants (see {@link #constant(String)}) can be shared and appended many times,
+ * each time a duplicate is appended so that the positions are independent.<br>
+ * The chain can be written with one gathering write,
+ * or be read (copied) as a channel, e.g. into a ring buffer.
+ */
+public class ByteBufferChain implements ReadableByteChannel {
+    private final ArrayDeque<ByteBuffer> fragments = new ArrayDeque<>();
+    private long remaining = 0;
+
+    /**
+     * @return a read only direct buffer, which can be written to sockets without copying into a temporary direct buffer
+     */
+    public static ByteBuffer constant(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes).flip();
+        return buf.asReadOnlyBuffer();
+    }
+
+    public static ByteBuffer constant(String str) {
+        return constant(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public ByteBufferChain append(ByteBuffer fragment) {
+        if (fragment.hasRemaining()) {
+            fragments.add(fragment);
+            remaining += fragment.remaining();
+        }
+        return this;
+    }
+
+    public ByteBufferChain append(byte[] bytes) {
+        return append(ByteBuffer.wrap(bytes));
+    }
+
+    public ByteBufferChain append(String str) {
+        return append(str.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public ByteBufferChain appendConstant(ByteBuffer constant) {
+        return append(constant.duplicate());
+    }
+
+    public long remaining() {
+        return remaining;
+    }
+
+    public int fragmentCount() {
+        return fragments.size();
+    }
+
+    /**
+     * write all fragments with one call
+     *
+     * @return bytes written
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        if (remaining == 0)
+            return 0;
+        long n = channel.write(fragments.toArray(new ByteBuffer[0]));
+        consumed(n);
+        return n;
+    }
+
+    private void consumed(long n) {
+        remaining -= n;
+        ByteBuffer head;
+        while ((head = fragments.peek()) != null && !head.hasRemaining()) {
+            fragments.poll();
+        }
+    }
+
+    /**
+     * copy bytes into dst
+     *
+     * @return bytes copied, 0 when there's nothing left
+     */
+    @Override
+    public int read(ByteBuffer dst) {
+        int total = 0;
+        for (ByteBuffer f : fragments) {
+            if (!dst.hasRemaining())
+                break;
+            int len = Math.min(f.remaining(), dst.remaining());
+            if (len == f.remaining()) {
+                dst.put(f);
+            } else {
+                int lim = f.limit();
+                f.limit(f.position() + len);
+                dst.put(f);
+                f.limit(lim);
+            }
+            total += len;
+        }
+        consumed(total);
+        return total;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // do nothing
+    }
+}
@@ -0,0 +1,126 @@
+package net.cassite.vproxy.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * An unbounded mpsc queue made of linked array chunks.<br>
+ * Only one chunk is allocated for every `chunkSize` elements,
+ * instead of one node for each element in a linked queue.
+ */
+public class ChunkedMPSCQueue<E> implements MPSCQueue<E> {
+    private static final class Chunk<E> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Chunk, Chunk> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        final AtomicReferenceArray<E> slots;
+        final AtomicInteger reserved = new AtomicInteger(0); // may grow beyond the chunk size, which means full
+        volatile Chunk<E> next;
+
+        Chunk(int size) {
+            slots = new AtomicReferenceArray<>(size);
+        }
+
+        boolean casNext(Chunk<E> n) {
+            return NEXT.compareAndSet(this, null, n);
+        }
+    }
+
+    private final int chunkSize;
+    private final AtomicReference<Chunk<E>> tailChunk;
+    private Chunk<E> headChunk; // only accessed by the consumer
+    private int headPos = 0; // only accessed by the consumer
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    public ChunkedMPSCQueue() {
+        this(1024);
+    }
+
+    public ChunkedMPSCQueue(int chunkSize) {
+        if (chunkSize < 2)
+            throw new IllegalArgumentException("chunkSize should be at least 2");
+        this.chunkSize = chunkSize;
+        Chunk<E> c = new Chunk<>(chunkSize);
+        this.tailChunk = new AtomicReference<>(c);
+        this.headChunk = c;
+    }
+
+    @Override
+    @ThreadSafe
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+        while (true) {
+            Chunk<E> c = tailChunk.get();
+            int i = c.reserved.getAndIncrement();
+            if (i < chunkSize) {
+                c.slots.set(i, e);
+                size.incrementAndGet();
+                return true;
+            }
+            // the chunk is full, link a new one (or help others to link)
+            Chunk<E> n = c.next;
+            if (n == null) {
+                n = new Chunk<>(chunkSize);
+                if (!c.casNext(n)) {
+                    n = c.next;
+                }
+            }
+            tailChunk.compareAndSet(c, n);
+        }
+    }
+
+    @Override
+    public E poll() {
+        if (headPos == chunkSize) {
+            Chunk<E> n = headChunk.next;
+            if (n == null)
+                return null;
+            headChunk = n;
+            headPos = 0;
+        }
+        E e = headChunk.slots.get(headPos);
+        if (e == null)
+            return null; // empty or the producer has not finished writing
+        headChunk.slots.lazySet(headPos, null);
+        ++headPos;
+        size.decrementAndGet();
+        return e;
+    }
+
+    @Override
+    public int drain(Consumer<? super E> consumer) {
+        // record the current tail position
+        // elements after this position are added during draining
+        Chunk<E> endChunk = tailChunk.get();
+        int endPos = Math.min(endChunk.reserved.get(), chunkSize);
+        int count = 0;
+        while (headChunk != endChunk || headPos < endPos) {
+            E e = poll();
+            if (e == null)
+                break;
+            ++count;
+            consumer.accept(e);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (headPos == chunkSize) {
+            Chunk<E> n = headChunk.next;
+            return n == null || n.slots.get(0) == null;
+        }
+        return headChunk.slots.get(headPos) == null;
+    }
+
+    @Override
+    @ThreadSafe
+    public int size() {
+        return Math.max(size.get(), 0);
+    }
+}
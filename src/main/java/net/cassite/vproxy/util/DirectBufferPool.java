@@ -0,0 +1,177 @@
+package net.cassite.vproxy.util;
+
+import net.cassite.vproxy.app.Config;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of direct byte buffers.<br>
+ * Buffers are grouped into fixed size classes (powers of 2, from 1K to 1M).
+ * Each thread (usually an event loop) keeps its own cache for every size class,
+ * and a global cache is used as the fallback when the thread cache is empty or full.<br>
+ * Buffers whose capacity is not a size class are allocated and cleaned directly.<br>
+ * NOTE: the buffers are NOT zeroed when they are reused.
+ */
+public class DirectBufferPool {
+    public static final int MIN_SHIFT = 10;
+    public static final int MAX_SHIFT = 20;
+    private static final int CLASS_COUNT = MAX_SHIFT - MIN_SHIFT + 1;
+
+    private static class SizeClass {
+        final int size;
+        final int threadCacheLimit;
+        final int globalLimit;
+        final ConcurrentLinkedQueue<ByteBuffer> global = new ConcurrentLinkedQueue<>();
+        final AtomicInteger globalCount = new AtomicInteger(0);
+
+        final LongAdder hit = new LongAdder();
+        final LongAdder miss = new LongAdder();
+        final LongAdder outstanding = new LongAdder();
+        final LongAdder threadCached = new LongAdder();
+
+        SizeClass(int size) {
+            this.size = size;
+            this.threadCacheLimit = Math.max(1, Config.directBufferPoolThreadCacheSize / size);
+            this.globalLimit = Math.max(1, Config.directBufferPoolGlobalCacheSize / size);
+        }
+    }
+
+    public static class Statistics {
+        public final int size;
+        public final long hit;
+        public final long miss;
+        public final long outstandingBytes;
+        public final long pooledBytes;
+
+        Statistics(int size, long hit, long miss, long outstandingBytes, long pooledBytes) {
+            this.size = size;
+            this.hit = hit;
+            this.miss = miss;
+            this.outstandingBytes = outstandingBytes;
+            this.pooledBytes = pooledBytes;
+        }
+    }
+
+    private static final SizeClass[] classes = new SizeClass[CLASS_COUNT];
+    private static final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches = ThreadLocal.withInitial(() -> {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; ++i) {
+            caches[i] = new ArrayDeque<>();
+        }
+        return caches;
+    });
+
+    static {
+        for (int i = 0; i < CLASS_COUNT; ++i) {
+            classes[i] = new SizeClass(1 << (i + MIN_SHIFT));
+        }
+    }
+
+    private DirectBufferPool() {
+    }
+
+    // -1 if it's not a size class
+    private static int classIndex(int cap) {
+        if (cap < (1 << MIN_SHIFT) || cap > (1 << MAX_SHIFT) || Integer.bitCount(cap) != 1)
+            return -1;
+        return Integer.numberOfTrailingZeros(cap) - MIN_SHIFT;
+    }
+
+    public static boolean isPooled(int cap) {
+        return Config.directBufferPool && classIndex(cap) != -1;
+    }
+
+    /**
+     * @return a direct buffer with exactly the capacity of <code>cap</code>, position=0, limit=cap
+     */
+    @ThreadSafe
+    public static ByteBuffer allocate(int cap) {
+        return allocate(cap, false);
+    }
+
+    /**
+     * @param alwaysPool use the pool even when it's not enabled,
+     *                   the buffer MUST be released with the same flag
+     * @return see {@link #allocate(int)}
+     */
+    @ThreadSafe
+    public static ByteBuffer allocate(int cap, boolean alwaysPool) {
+        int idx = classIndex(cap);
+        if (idx == -1 || !(alwaysPool || Config.directBufferPool))
+            return ByteBuffer.allocateDirect(cap);
+        SizeClass c = classes[idx];
+        c.outstanding.increment();
+
+        ByteBuffer buf = threadCaches.get()[idx].poll();
+        if (buf != null) {
+            c.threadCached.decrement();
+        } else {
+            buf = c.global.poll();
+            if (buf != null) {
+                c.globalCount.decrementAndGet();
+            }
+        }
+        if (buf == null) {
+            c.miss.increment();
+            return ByteBuffer.allocateDirect(cap);
+        }
+        c.hit.increment();
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * return the buffer to the pool, or clean it if it cannot be pooled.<br>
+     * the buffer MUST NOT be used after calling this method
+     */
+    @ThreadSafe
+    public static void release(ByteBuffer buf) {
+        release(buf, false);
+    }
+
+    /**
+     * @param alwaysPool the flag used when allocating the buffer
+     */
+    @ThreadSafe
+    public static void release(ByteBuffer buf, boolean alwaysPool) {
+        int idx = classIndex(buf.capacity());
+        if (idx == -1 || !(alwaysPool || Config.directBufferPool) || !buf.isDirect()) {
+            Utils.clean(buf);
+            return;
+        }
+        SizeClass c = classes[idx];
+        c.outstanding.decrement();
+
+        ArrayDeque<ByteBuffer> cache = threadCaches.get()[idx];
+        if (cache.size() < c.threadCacheLimit) {
+            cache.push(buf); // lifo, the recently used memory is more likely to be hot
+            c.threadCached.increment();
+            return;
+        }
+        if (c.globalCount.incrementAndGet() <= c.globalLimit) {
+            c.global.offer(buf);
+            return;
+        }
+        c.globalCount.decrementAndGet();
+        Utils.clean(buf); // all caches are full
+    }
+
+    public static List<Statistics> statistics() {
+        List<Statistics> ls = new ArrayList<>(CLASS_COUNT);
+        for (SizeClass c : classes) {
+            ls.add(new Statistics(c.size,
+                c.hit.longValue(),
+                c.miss.longValue(),
+                c.outstanding.longValue() * c.size,
+                (c.threadCached.longValue() + c.globalCount.get()) * c.size));
+        }
+        return ls;
+    }
+}
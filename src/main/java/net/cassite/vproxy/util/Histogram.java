@@ -0,0 +1,145 @@
+package net.cassite.vproxy.util;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-bucket histogram for non-negative values.<br>
+ * Bucket 0 holds value 0, and bucket n (n &gt; 0) holds values in [2^(n-1), 2^n).<br>
+ * Recording is O(1) without allocation.<br>
+ * The values are accumulated, and are also recorded into a window,
+ * call rotate() periodically and use getLastWindow() to see recent values.<br>
+ * NOTE: record() should be called from only one thread (e.g. the event loop thread),
+ * reading from other threads is allowed but may see slightly stale values.
+ */
+public class Histogram {
+    public static final int BUCKETS = 32;
+
+    private final String unit;
+    private final long[] buckets;
+    private long count;
+    private long sum;
+    private long max;
+
+    // values recorded since the last rotate()
+    private final long[] windowBuckets = new long[BUCKETS];
+    private long windowCount = 0;
+    private long windowSum = 0;
+    private long windowMax = 0;
+    private volatile Histogram lastWindow = null; // null if never rotated
+
+    public Histogram(String unit) {
+        this(unit, new long[BUCKETS], 0, 0, 0);
+    }
+
+    private Histogram(String unit, long[] buckets, long count, long sum, long max) {
+        this.unit = unit;
+        this.buckets = buckets;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int idx = 64 - Long.numberOfLeadingZeros(value);
+        if (idx >= BUCKETS) {
+            idx = BUCKETS - 1;
+        }
+        ++buckets[idx];
+        ++count;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+        ++windowBuckets[idx];
+        ++windowCount;
+        windowSum += value;
+        if (value > windowMax) {
+            windowMax = value;
+        }
+    }
+
+    /**
+     * end the current window and start a new one.<br>
+     * NOTE: should be called on the recording thread
+     */
+    public void rotate() {
+        lastWindow = new Histogram(unit, windowBuckets.clone(), windowCount, windowSum, windowMax);
+        Arrays.fill(windowBuckets, 0);
+        windowCount = 0;
+        windowSum = 0;
+        windowMax = 0;
+    }
+
+    /**
+     * @return values recorded in the last complete window, or this histogram if never rotated
+     */
+    public Histogram getLastWindow() {
+        Histogram w = lastWindow;
+        return w == null ? this : w;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getAverage() {
+        long count = this.count;
+        if (count == 0)
+            return 0;
+        return sum / count;
+    }
+
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * @param percentile 0 to 100
+     * @return the upper bound of the bucket which contains the percentile, never larger than max
+     */
+    public long getPercentile(double percentile) {
+        long[] buckets = getBuckets();
+        long total = 0;
+        for (long b : buckets) {
+            total += b;
+        }
+        if (total == 0)
+            return 0;
+        long target = (long) Math.ceil(total * percentile / 100);
+        if (target < 1) {
+            target = 1;
+        }
+        long acc = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            acc += buckets[i];
+            if (acc >= target) {
+                long upper = i == 0 ? 0 : (1L << i) - 1;
+                return Math.min(upper, max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count " + count + " avg " + getAverage() + unit
+            + " p50 " + getPercentile(50) + unit
+            + " p99 " + getPercentile(99) + unit
+            + " max " + max + unit;
+    }
+}
@@ -0,0 +1,31 @@
+package net.cassite.vproxy.util;
+
+import java.util.function.Consumer;
+
+/**
+ * multi-producer single-consumer queue<br>
+ * offer() can be called from any thread,
+ * poll()/drain()/isEmpty() should only be called from the consumer thread
+ */
+public interface MPSCQueue<E> {
+    @ThreadSafe
+    boolean offer(E e);
+
+    E poll();
+
+    /**
+     * consume elements which are already in the queue when this method is called,
+     * elements added during draining will be left for the next drain
+     *
+     * @return count of consumed elements
+     */
+    int drain(Consumer<? super E> consumer);
+
+    boolean isEmpty();
+
+    /**
+     * @return approximate size of the queue
+     */
+    @ThreadSafe
+    int size();
+}
@@ -0,0 +1,157 @@
+package net.cassite.vproxy.util;
+
+import net.cassite.vproxy.app.Config;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the direct memory held by ring buffers.<br>
+ * The {@link #GLOBAL} budget covers the whole process, and a budget can be
+ * created as a share of it (e.g. for a tcp-lb), the usage of a share is also counted in its parent.<br>
+ * The capacity of a buffer is counted even when a lazy buffer does not hold the memory,
+ * so the limit still holds when all idle connections become busy.<br>
+ * The budget does not fail allocations, instead, the accepting side should call {@link #tryReserve(long)}
+ * to reserve the memory for a new connection, and hand the reservation to the buffers.
+ */
+public class MemoryBudget {
+    public static final MemoryBudget GLOBAL = new MemoryBudget("global", Config.directMemoryBudget, null);
+    /**
+     * buffers in this budget are not counted anywhere,
+     * it's for buffers which may not be cleaned when the connection closes, e.g. client side buffers of a connection pool
+     */
+    public static final MemoryBudget UNTRACKED = new MemoryBudget("untracked");
+
+    public final String name;
+    private final MemoryBudget parent;
+    private volatile long limit; // 0 means no limit
+    private final AtomicLong used = new AtomicLong(0);
+    private final AtomicLong highWaterMark = new AtomicLong(0);
+    private final LongAdder rejected = new LongAdder();
+    private final boolean untracked;
+
+    /**
+     * @param limit  max bytes, 0 means no limit (but still restricted by the parent)
+     * @param parent the parent budget, null if it's the top level budget
+     */
+    public MemoryBudget(String name, long limit, MemoryBudget parent) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit < 0");
+        this.name = name;
+        this.limit = limit;
+        this.parent = parent;
+        this.untracked = false;
+    }
+
+    private MemoryBudget(String name) {
+        this.name = name;
+        this.limit = 0;
+        this.parent = null;
+        this.untracked = true;
+    }
+
+    private void updateHighWaterMark(long now) {
+        long hwm;
+        while ((hwm = highWaterMark.get()) < now) {
+            if (highWaterMark.compareAndSet(hwm, now))
+                break;
+        }
+    }
+
+    /**
+     * count the bytes without checking the limit
+     */
+    @ThreadSafe
+    public void allocated(long bytes) {
+        if (untracked)
+            return;
+        updateHighWaterMark(used.addAndGet(bytes));
+        if (parent != null) {
+            parent.allocated(bytes);
+        }
+    }
+
+    @ThreadSafe
+    public void released(long bytes) {
+        if (untracked)
+            return;
+        used.addAndGet(-bytes);
+        if (parent != null) {
+            parent.released(bytes);
+        }
+    }
+
+    /**
+     * reserve <code>bytes</code> in this budget and all parents if none of them exceeds the limit.
+     * the reserved bytes are counted as used, and should be given back by {@link #released(long)}.
+     * the rejection is counted in the budget which rejects
+     *
+     * @return true if reserved
+     */
+    @ThreadSafe
+    public boolean tryReserve(long bytes) {
+        return reserve(bytes, true);
+    }
+
+    /**
+     * the same as {@link #tryReserve(long)}, but the rejection is not counted,
+     * it's used by the buffers which want to grow
+     */
+    @ThreadSafe
+    public boolean tryReserveForGrowth(long bytes) {
+        return reserve(bytes, false);
+    }
+
+    private boolean reserve(long bytes, boolean countRejection) {
+        if (untracked)
+            return true;
+        long now;
+        while (true) {
+            long current = used.get();
+            long limit = this.limit;
+            now = current + bytes;
+            if (limit > 0 && now > limit) {
+                if (countRejection) {
+                    rejected.increment();
+                }
+                return false;
+            }
+            if (used.compareAndSet(current, now))
+                break;
+        }
+        if (parent != null && !parent.reserve(bytes, countRejection)) {
+            used.addAndGet(-bytes); // roll back, the rejection is counted in the parent
+            return false;
+        }
+        updateHighWaterMark(now);
+        return true;
+    }
+
+    public void setLimit(long limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit < 0");
+        this.limit = limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getHighWaterMark() {
+        return highWaterMark.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.longValue();
+    }
+
+    @Override
+    public String toString() {
+        return "limit " + limit + " used " + getUsed()
+            + " high-water " + getHighWaterMark() + " rejected " + getRejectedCount();
+    }
+}
@@ -0,0 +1,42 @@
+package net.cassite.vproxy.util;
+
+import java.util.PriorityQueue;
+
+public class PriorityTimeQueue<T> extends TimeQueue<T> {
+    private final PriorityQueue<TimeElem<T>> queue = new PriorityQueue<>((a, b) -> Long.compare(a.triggerTime, b.triggerTime));
+
+    @Override
+    public TimeElem<T> push(int timeout, T elem) {
+        TimeElem<T> event = new TimeElem<>(current + timeout, elem, this);
+        queue.add(event);
+        return event;
+    }
+
+    @Override
+    public T pop() {
+        TimeElem<T> elem = queue.poll();
+        if (elem == null)
+            return null;
+        lastTriggerTime = elem.triggerTime;
+        return elem.elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    @Override
+    public int nextTime() {
+        TimeElem<T> elem = queue.peek();
+        if (elem == null)
+            return Integer.MAX_VALUE;
+        long triggerTime = elem.triggerTime;
+        return (int) Math.max(triggerTime - current, 0);
+    }
+
+    @Override
+    void remove(TimeElem<T> elem) {
+        queue.remove(elem);
+    }
+}
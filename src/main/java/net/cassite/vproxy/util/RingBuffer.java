@@ -1,5 +1,6 @@
 package net.cassite.vproxy.util;
 
+import net.cassite.vproxy.util.ringbuffer.ResizeRecorder;
 import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
 
 import java.io.IOException;
@@ -34,6 +35,14 @@ public interface RingBuffer {
         return SimpleRingBuffer.allocateDirect(cap);
     }
 
+    static SimpleRingBuffer allocateDirectLazy(int cap) {
+        return SimpleRingBuffer.allocateDirectLazy(cap);
+    }
+
+    static SimpleRingBuffer allocateDirectAdaptive(int minCap, int maxCap, boolean lazy, ResizeRecorder recorder) {
+        return SimpleRingBuffer.allocateDirectAdaptive(minCap, maxCap, lazy, recorder);
+    }
+
     static SimpleRingBuffer allocate(int cap) {
         return SimpleRingBuffer.allocate(cap);
     }
@@ -51,7 +60,11 @@ public interface RingBuffer {
         }
     }
 
-    int storeBytesFrom(ReadableByteChannel channel) throws IOException;
+    default int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+        return storeBytesFrom(channel, Integer.MAX_VALUE);
+    }
+
+    int storeBytesFrom(ReadableByteChannel channel, int maxBytesToRead) throws IOException;
 
     default int writeTo(ByteArrayChannel channel) {
         try {
@@ -86,6 +99,24 @@ public interface RingBuffer {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * set the watermarks for the reader which stores bytes from a channel into this buffer
+     *
+     * @param high the reader should stop storing when used bytes reach this percentage of the capacity
+     * @param low  writableET fires when used bytes fall to this percentage of the capacity
+     */
+    default void setWatermarks(int high, int low) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return true if the reader should stop storing bytes into this buffer,
+     * and wait for the writableET to continue
+     */
+    default boolean reachedHighWatermark() {
+        return free() == 0;
+    }
+
     void addHandler(RingBufferETHandler h);
 
     void removeHandler(RingBufferETHandler h);
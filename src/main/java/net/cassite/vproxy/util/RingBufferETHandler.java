@@ -4,4 +4,9 @@ public interface RingBufferETHandler {
     void readableET(); // have data, edge trigger
 
     void writableET(); // have free space, edge trigger
+
+    // more data stored when the buffer already has data (readableET is fired when it was empty)
+    // not every buffer implementation fires this event
+    default void storedET() {
+    }
 }
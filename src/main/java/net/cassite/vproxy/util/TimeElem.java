@@ -5,6 +5,12 @@ public class TimeElem<T> {
     public final T elem;
     private final TimeQueue<T> queue;
 
+    // the following fields are only used by TimingWheel
+    long expireTick;
+    TimingWheel.Slot<T> slot;
+    TimeElem<T> prev;
+    TimeElem<T> next;
+
     TimeElem(long triggerTime, T elem, TimeQueue<T> queue) {
         this.triggerTime = triggerTime;
         this.elem = elem;
@@ -13,6 +19,6 @@ public class TimeElem<T> {
 
     // this method should always be called on the event loop
     public void removeSelf() {
-        queue.queue.remove(this);
+        queue.remove(this);
     }
 }
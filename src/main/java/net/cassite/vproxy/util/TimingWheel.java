@@ -0,0 +1,323 @@
+package net.cassite.vproxy.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel.<br>
+ * push and remove are O(1), and expiring is amortized O(1) for each element.<br>
+ * There are 4 levels with 256 slots each, level n covers 256^(n+1) ticks,
+ * elements in higher levels are cascaded into lower levels when the lower level wraps around.<br>
+ * Timers never fire earlier than the trigger time, but may fire at most one tick later.
+ */
+public class TimingWheel<T> extends TimeQueue<T> {
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final int BITMAP_WORDS = SLOTS / 64;
+    // when time jumps too far (e.g. system clock changes), rebuild the wheel instead of ticking
+    private static final long REBUILD_THRESHOLD = 1L << 24;
+
+    static class Slot<T> {
+        final int level;
+        final int index;
+        TimeElem<T> head;
+        TimeElem<T> tail;
+
+        Slot(int level, int index) {
+            this.level = level;
+            this.index = index;
+        }
+
+        void append(TimeElem<T> e) {
+            e.slot = this;
+            e.next = null;
+            e.prev = tail;
+            if (tail == null) {
+                head = e;
+            } else {
+                tail.next = e;
+            }
+            tail = e;
+        }
+
+        void unlink(TimeElem<T> e) {
+            if (e.prev == null) {
+                head = e.next;
+            } else {
+                e.prev.next = e.next;
+            }
+            if (e.next == null) {
+                tail = e.prev;
+            } else {
+                e.next.prev = e.prev;
+            }
+            e.prev = null;
+            e.next = null;
+            e.slot = null;
+        }
+
+        TimeElem<T> poll() {
+            TimeElem<T> e = head;
+            if (e != null) {
+                unlink(e);
+            }
+            return e;
+        }
+    }
+
+    private final int tick;
+    private final Slot<T>[][] wheels;
+    private final long[] level0Bitmap = new long[BITMAP_WORDS]; // marks non-empty slots of level 0
+    private final Slot<T> expired = new Slot<>(-1, -1);
+    private long nextTick = 0; // the next tick to be processed
+    private int size = 0; // elements in the wheels, expired elements not included
+    private int higherLevelSize = 0; // elements in level 1 and above
+
+    public TimingWheel() {
+        this(1);
+    }
+
+    /**
+     * @param tick milliseconds of one tick
+     */
+    public TimingWheel(int tick) {
+        if (tick < 1)
+            throw new IllegalArgumentException("tick should be at least 1ms");
+        this.tick = tick;
+        wheels = newWheels();
+        for (int l = 0; l < LEVELS; ++l) {
+            for (int i = 0; i < SLOTS; ++i) {
+                wheels[l][i] = new Slot<>(l, i);
+            }
+        }
+    }
+
+    // generic arrays cannot be created directly
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Slot<T>[][] newWheels() {
+        return new Slot[LEVELS][SLOTS];
+    }
+
+    @Override
+    public void setCurrent(long current) {
+        super.setCurrent(current);
+        long nowTick = current / tick;
+        if (size == 0) {
+            // nothing to expire, simply move the cursor
+            if (nowTick >= nextTick) {
+                nextTick = nowTick + 1;
+            }
+            return;
+        }
+        if (nowTick - nextTick >= REBUILD_THRESHOLD) {
+            rebuild(nowTick);
+            return;
+        }
+        while (nextTick <= nowTick) {
+            int idx = (int) (nextTick & SLOT_MASK);
+            if (idx == 0) {
+                cascade();
+            }
+            expireSlot(idx);
+            ++nextTick;
+
+            if (size == 0) {
+                nextTick = nowTick + 1;
+                break;
+            }
+            if (level0IsEmpty()) {
+                // no need to tick one by one, jump to the next cascading point
+                long boundary = (nextTick + SLOT_MASK) & ~((long) SLOT_MASK);
+                if (boundary > nowTick) {
+                    nextTick = nowTick + 1;
+                    break;
+                }
+                nextTick = boundary;
+            }
+        }
+    }
+
+    @Override
+    public TimeElem<T> push(int timeout, T elem) {
+        if (timeout < 0) {
+            timeout = 0;
+        }
+        long triggerTime = current + timeout;
+        TimeElem<T> e = new TimeElem<>(triggerTime, elem, this);
+        e.expireTick = (triggerTime + tick - 1) / tick;
+        place(e);
+        return e;
+    }
+
+    @Override
+    public T pop() {
+        TimeElem<T> e = expired.poll();
+        if (e == null)
+            return null;
+        lastTriggerTime = e.triggerTime;
+        return e.elem;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0 && expired.head == null;
+    }
+
+    @Override
+    public int nextTime() {
+        if (expired.head != null)
+            return 0;
+        if (size == 0)
+            return Integer.MAX_VALUE;
+        long candidate = Long.MAX_VALUE;
+        int offset = nextLevel0Offset();
+        if (offset != -1) {
+            candidate = nextTick + offset;
+        }
+        if (higherLevelSize > 0) {
+            // the cascading point should be handled in time
+            long boundary = (nextTick + SLOT_MASK) & ~((long) SLOT_MASK);
+            if (boundary < candidate) {
+                candidate = boundary;
+            }
+        }
+        long left = candidate * tick - current;
+        if (left <= 0)
+            return 0;
+        if (left > Integer.MAX_VALUE)
+            return Integer.MAX_VALUE;
+        return (int) left;
+    }
+
+    @Override
+    void remove(TimeElem<T> e) {
+        Slot<T> slot = e.slot;
+        if (slot == null)
+            return; // already popped or removed
+        slot.unlink(e);
+        if (slot == expired)
+            return;
+        --size;
+        if (slot.level == 0) {
+            if (slot.head == null) {
+                clearBit(slot.index);
+            }
+        } else {
+            --higherLevelSize;
+        }
+    }
+
+    private void place(TimeElem<T> e) {
+        long delta = e.expireTick - nextTick;
+        if (delta < 0) {
+            expired.append(e);
+            return;
+        }
+        ++size;
+        int level;
+        if (delta < (1L << SLOT_BITS)) {
+            level = 0;
+        } else if (delta < (1L << (2 * SLOT_BITS))) {
+            level = 1;
+        } else if (delta < (1L << (3 * SLOT_BITS))) {
+            level = 2;
+        } else {
+            level = 3;
+        }
+        long expireTick = e.expireTick;
+        if (level == LEVELS - 1 && delta >= (1L << (LEVELS * SLOT_BITS))) {
+            // out of range, put it into the farthest slot, it will be re-placed when cascading
+            expireTick = nextTick + (1L << (LEVELS * SLOT_BITS)) - 1;
+        }
+        int idx = (int) ((expireTick >>> (level * SLOT_BITS)) & SLOT_MASK);
+        wheels[level][idx].append(e);
+        if (level == 0) {
+            setBit(idx);
+        } else {
+            ++higherLevelSize;
+        }
+    }
+
+    // called when level 0 wraps around
+    private void cascade() {
+        for (int level = 1; level < LEVELS; ++level) {
+            int idx = (int) ((nextTick >>> (level * SLOT_BITS)) & SLOT_MASK);
+            Slot<T> slot = wheels[level][idx];
+            TimeElem<T> e;
+            while ((e = slot.poll()) != null) {
+                --size;
+                --higherLevelSize;
+                place(e);
+            }
+            if (idx != 0) {
+                break;
+            }
+        }
+    }
+
+    private void expireSlot(int idx) {
+        Slot<T> slot = wheels[0][idx];
+        if (slot.head == null)
+            return;
+        TimeElem<T> e;
+        while ((e = slot.poll()) != null) {
+            --size;
+            expired.append(e);
+        }
+        clearBit(idx);
+    }
+
+    private void rebuild(long nowTick) {
+        List<TimeElem<T>> all = new ArrayList<>(size);
+        for (Slot<T>[] wheel : wheels) {
+            for (Slot<T> slot : wheel) {
+                TimeElem<T> e;
+                while ((e = slot.poll()) != null) {
+                    all.add(e);
+                }
+            }
+        }
+        for (int i = 0; i < BITMAP_WORDS; ++i) {
+            level0Bitmap[i] = 0;
+        }
+        size = 0;
+        higherLevelSize = 0;
+        nextTick = nowTick + 1;
+        for (TimeElem<T> e : all) {
+            place(e);
+        }
+    }
+
+    private void setBit(int idx) {
+        level0Bitmap[idx >>> 6] |= (1L << (idx & 63));
+    }
+
+    private void clearBit(int idx) {
+        level0Bitmap[idx >>> 6] &= ~(1L << (idx & 63));
+    }
+
+    private boolean level0IsEmpty() {
+        for (long w : level0Bitmap) {
+            if (w != 0)
+                return false;
+        }
+        return true;
+    }
+
+    // distance from nextTick to the nearest non-empty slot in level 0, -1 if level 0 is empty
+    private int nextLevel0Offset() {
+        int start = (int) (nextTick & SLOT_MASK);
+        int startWord = start >>> 6;
+        long word = level0Bitmap[startWord] & (-1L << (start & 63));
+        for (int i = 0; i <= BITMAP_WORDS; ++i) {
+            if (word != 0) {
+                int idx = (((startWord + i) % BITMAP_WORDS) << 6) + Long.numberOfTrailingZeros(word);
+                return (idx - start) & SLOT_MASK;
+            }
+            word = level0Bitmap[(startWord + i + 1) % BITMAP_WORDS];
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,7 @@
+package net.cassite.vproxy.util.ringbuffer;
+
+public interface ResizeRecorder {
+    void incGrow();
+
+    void incShrink();
+}
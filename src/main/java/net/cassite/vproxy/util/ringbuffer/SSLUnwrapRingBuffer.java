@@ -66,11 +66,11 @@ public class SSLUnwrapRingBuffer extends AbstractRingBuffer implements RingBuffe
     }
 
     @Override
-    public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+    public int storeBytesFrom(ReadableByteChannel channel, int maxBytesToRead) throws IOException {
         if (closed) {
             return 0; // don't store anything it's already closed
         }
-        int read = encryptedBufferForInput.storeBytesFrom(channel);
+        int read = encryptedBufferForInput.storeBytesFrom(channel, maxBytesToRead);
         if (read == 0) {
             return 0; // maybe the buffer is full
         }
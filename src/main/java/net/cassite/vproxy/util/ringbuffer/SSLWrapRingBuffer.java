@@ -173,9 +173,9 @@ public class SSLWrapRingBuffer extends AbstractRingBuffer implements RingBuffer
     }
 
     @Override
-    public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
+    public int storeBytesFrom(ReadableByteChannel channel, int maxBytesToRead) throws IOException {
         // do store to the plain buffer
-        return plainBufferForApp.storeBytesFrom(channel);
+        return plainBufferForApp.storeBytesFrom(channel, maxBytesToRead);
     }
 
     @Override
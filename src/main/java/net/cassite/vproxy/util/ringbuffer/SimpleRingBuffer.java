@@ -5,19 +5,22 @@ import net.cassite.vproxy.util.*;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.DatagramChannel;
-import java.nio.channels.ReadableByteChannel;
-import java.nio.channels.WritableByteChannel;
+import java.nio.channels.*;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Set;
 
 public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     private final boolean isDirect;
-    private /*may change after defragment*/ ByteBuffer buffer;
+    // the buffer is taken from the pool when storing bytes
+    // and returned to the pool when all bytes are retrieved
+    // the pool is always used for lazy buffers even when it's not enabled,
+    // otherwise every read burst would allocate and clean a direct buffer
+    private final boolean lazy;
+    private /*may change after defragment, and is null when lazy and empty*/ ByteBuffer buffer;
     private int ePos; // end pos
     private int sPos; // start pos
-    private final int cap;
+    private /*may change when adaptive*/ int cap;
     private boolean ePosIsAfterSPos = true; // true then end is limit, otherwise start is limit
     private boolean closed = false;
 
@@ -28,18 +31,270 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     private Set<RingBufferETHandler> handlerToAdd = new HashSet<>();
     private Set<RingBufferETHandler> handlerToRemove = new HashSet<>();
 
+    // grow when the buffer is filled up
+    // shrink when the peak usage keeps below 1/4 of the capacity for SHRINK_WINDOW drains
+    private static final int SHRINK_WINDOW = 16;
+    private final boolean adaptive;
+    private final int minCap;
+    private final int maxCap;
+    private final ResizeRecorder resizeRecorder;
+    private int peakUsed = 0;
+    private int drains = 0;
+    private boolean filled = false; // filled up in the current operation
+    private boolean drained = false; // drained in the current operation
+
+    // views of the two segments when data or free space wraps around
+    // they are used for scattering/gathering io, and re-created when the buffer changes
+    private ByteBuffer segmentsOf = null;
+    private final ByteBuffer[] segments = new ByteBuffer[2];
+
+    // percentage of the capacity
+    // the reader should stop storing when used bytes reach the high watermark,
+    // and writableET fires when used bytes fall to the low watermark.
+    // 100/100 means stop when full, and fire when there's any free space
+    private int highWatermark = 100;
+    private int lowWatermark = 100;
+
+    // the capacity of a direct buffer is counted in the budget
+    private MemoryBudget memoryBudget = MemoryBudget.GLOBAL;
+
     public static SimpleRingBuffer allocateDirect(int cap) {
-        return new SimpleRingBuffer(true, ByteBuffer.allocateDirect(cap));
+        return allocateDirect(cap, null);
+    }
+
+    /**
+     * @param reserved the budget in which the capacity is already reserved,
+     *                 null means to count the capacity in the global budget
+     */
+    public static SimpleRingBuffer allocateDirect(int cap, MemoryBudget reserved) {
+        return new SimpleRingBuffer(true, DirectBufferPool.allocate(cap), reserved);
+    }
+
+    /**
+     * the direct memory is only held when the buffer is not empty
+     */
+    public static SimpleRingBuffer allocateDirectLazy(int cap) {
+        return allocateDirectLazy(cap, null);
+    }
+
+    /**
+     * @param reserved see {@link #allocateDirect(int, MemoryBudget)}
+     */
+    public static SimpleRingBuffer allocateDirectLazy(int cap, MemoryBudget reserved) {
+        return new SimpleRingBuffer(cap, cap, null, reserved);
+    }
+
+    /**
+     * the capacity starts from minCap, and grows or shrinks between minCap and maxCap according to the usage
+     *
+     * @param lazy     whether the direct memory is only held when the buffer is not empty
+     * @param recorder records resizing, can be null
+     */
+    public static SimpleRingBuffer allocateDirectAdaptive(int minCap, int maxCap, boolean lazy, ResizeRecorder recorder) {
+        return allocateDirectAdaptive(minCap, maxCap, lazy, recorder, null);
+    }
+
+    /**
+     * @param reserved the budget in which minCap is already reserved,
+     *                 null means to count the capacity in the global budget
+     */
+    public static SimpleRingBuffer allocateDirectAdaptive(int minCap, int maxCap, boolean lazy, ResizeRecorder recorder, MemoryBudget reserved) {
+        if (minCap <= 0 || minCap > maxCap)
+            throw new IllegalArgumentException("invalid capacity range [" + minCap + ", " + maxCap + "]");
+        if (lazy) {
+            return new SimpleRingBuffer(minCap, maxCap, recorder, reserved);
+        } else {
+            return new SimpleRingBuffer(DirectBufferPool.allocate(minCap), maxCap, recorder, reserved);
+        }
     }
 
     public static SimpleRingBuffer allocate(int cap) {
-        return new SimpleRingBuffer(false, ByteBuffer.allocate(cap));
+        return new SimpleRingBuffer(false, ByteBuffer.allocate(cap), null);
     }
 
-    private SimpleRingBuffer(boolean isDirect, ByteBuffer buffer) {
+    private SimpleRingBuffer(boolean isDirect, ByteBuffer buffer, MemoryBudget reserved) {
         this.isDirect = isDirect;
+        this.lazy = false;
+        this.buffer = buffer;
+        this.cap = buffer.capacity();
+        this.adaptive = false;
+        this.minCap = cap;
+        this.maxCap = cap;
+        this.resizeRecorder = null;
+        if (isDirect) {
+            chargeCapacity(reserved);
+        }
+    }
+
+    private SimpleRingBuffer(ByteBuffer buffer, int maxCap, ResizeRecorder recorder, MemoryBudget reserved) {
+        this.isDirect = true;
+        this.lazy = false;
         this.buffer = buffer;
         this.cap = buffer.capacity();
+        this.adaptive = true;
+        this.minCap = cap;
+        this.maxCap = maxCap;
+        this.resizeRecorder = recorder;
+        chargeCapacity(reserved);
+    }
+
+    // lazy
+    private SimpleRingBuffer(int minCap, int maxCap, ResizeRecorder recorder, MemoryBudget reserved) {
+        this.isDirect = true;
+        this.lazy = true;
+        this.buffer = null;
+        this.cap = minCap;
+        this.adaptive = minCap != maxCap;
+        this.minCap = minCap;
+        this.maxCap = maxCap;
+        this.resizeRecorder = recorder;
+        chargeCapacity(reserved); // counted even when the memory is not held
+    }
+
+    private void chargeCapacity(MemoryBudget reserved) {
+        if (reserved == null) {
+            memoryBudget.allocated(cap);
+        } else {
+            memoryBudget = reserved; // already counted when reserving
+        }
+    }
+
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * @return whether the memory is being held
+     */
+    public boolean isAttached() {
+        return buffer != null;
+    }
+
+    private void attach() {
+        if (buffer == null) {
+            assert Logger.lowLevelNetDebug("attach buffer");
+            buffer = DirectBufferPool.allocate(cap, true);
+        }
+    }
+
+    /**
+     * move the capacity and the growth afterwards into another budget
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        if (memoryBudget == this.memoryBudget)
+            return;
+        if (isDirect && !cleaned) {
+            this.memoryBudget.released(cap);
+            memoryBudget.allocated(cap);
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @param high percentage of the capacity, 1 to 100
+     * @param low  percentage of the capacity, 0 to high
+     */
+    @Override
+    public void setWatermarks(int high, int low) {
+        if (high < 1 || high > 100 || low < 0 || low > high)
+            throw new IllegalArgumentException("invalid watermarks: high " + high + ", low " + low);
+        this.highWatermark = high;
+        this.lowWatermark = low;
+    }
+
+    private int highWatermarkBytes() {
+        return Math.max(1, (int) ((long) cap * highWatermark / 100));
+    }
+
+    // always lower than the high watermark
+    private int lowWatermarkBytes() {
+        return Math.min((int) ((long) cap * lowWatermark / 100), highWatermarkBytes() - 1);
+    }
+
+    @Override
+    public boolean reachedHighWatermark() {
+        return used() >= highWatermarkBytes();
+    }
+
+    private boolean fellToLowWatermark(int usedBefore) {
+        int low = lowWatermarkBytes();
+        return usedBefore > low && used() <= low;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    private void grow() {
+        if (cleaned || cap >= maxCap)
+            return;
+        int newCap = (int) Math.min((long) cap * 2, maxCap);
+        // the capacity is charged even when detached,
+        // so a lazy buffer attaches with the capacity that's already in the budget
+        if (!memoryBudget.tryReserveForGrowth(newCap - cap)) {
+            assert Logger.lowLevelNetDebug("no room in the budget to grow buffer from " + cap + " to " + newCap);
+            return; // keep the current capacity
+        }
+        assert Logger.lowLevelNetDebug("grow buffer from " + cap + " to " + newCap);
+        if (buffer == null) {
+            cap = newCap; // already drained and detached
+        } else {
+            relocate(newCap);
+        }
+        peakUsed = 0;
+        drains = 0;
+        if (resizeRecorder != null) {
+            resizeRecorder.incGrow();
+        }
+    }
+
+    private void recordUsage() {
+        int used = used();
+        if (used > peakUsed) {
+            peakUsed = used;
+        }
+        if (used == cap) {
+            filled = true;
+        }
+    }
+
+    private void shrinkIfEmptyAndSparse() {
+        if (cleaned || cap <= minCap)
+            return;
+        if (used() != 0)
+            return;
+        if (++drains < SHRINK_WINDOW)
+            return;
+        boolean sparse = peakUsed <= cap / 4;
+        peakUsed = 0;
+        drains = 0;
+        if (!sparse)
+            return;
+        int newCap = Math.max(cap / 2, minCap);
+        assert Logger.lowLevelNetDebug("shrink buffer from " + cap + " to " + newCap);
+        memoryBudget.released(cap - newCap);
+        if (buffer == null) {
+            cap = newCap; // will be allocated with the new capacity when attaching
+        } else {
+            relocate(newCap);
+        }
+        if (resizeRecorder != null) {
+            resizeRecorder.incShrink();
+        }
+    }
+
+    private void detachIfEmpty() {
+        if (lazy && buffer != null && !cleaned && used() == 0) {
+            assert Logger.lowLevelNetDebug("detach buffer");
+            DirectBufferPool.release(buffer, true);
+            buffer = null;
+            releaseSegments();
+            resetCursors();
+        }
     }
 
     private int storeLimit() {
@@ -84,8 +339,11 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     /**
      * @return may return -1 for EOF
      */
-    public int storeBytesFrom(ReadableByteChannel channel) throws IOException {
-        return operateOnByteBufferStoreIn(b -> channel.read(b) != -1);
+    public int storeBytesFrom(ReadableByteChannel channel, int maxBytesToRead) throws IOException {
+        if (freeSpaceWraps(maxBytesToRead) && channel instanceof ScatteringByteChannel && !(channel instanceof DatagramChannel)) {
+            return scatteringStoreIn((ScatteringByteChannel) channel, maxBytesToRead);
+        }
+        return operateOnByteBufferStoreIn(maxBytesToRead, b -> channel.read(b) != -1);
     }
 
     private void resetCursors() {
@@ -96,9 +354,146 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     }
 
     public int writeTo(WritableByteChannel channel, int maxBytesToWrite) throws IOException {
+        if (dataWraps(maxBytesToWrite) && channel instanceof GatheringByteChannel && !(channel instanceof DatagramChannel)) {
+            return gatheringWriteOut((GatheringByteChannel) channel, maxBytesToWrite);
+        }
         return operateOnByteBufferWriteOut(maxBytesToWrite, channel::write);
     }
 
+    // when the data or free space wraps around, both segments are handled in one syscall
+    // datagram channels are excluded because one vectored io means one packet
+
+    // whether the bytes to write are split into [sPos, cap) and [0, ePos)
+    private boolean dataWraps(int maxBytesToWrite) {
+        return !ePosIsAfterSPos && ePos > 0 && maxBytesToWrite > cap - sPos;
+    }
+
+    // whether the space to store is split into [ePos, cap) and [0, sPos)
+    private boolean freeSpaceWraps(int maxBytesToRead) {
+        return ePosIsAfterSPos && sPos > 0 && maxBytesToRead > cap - ePos && buffer != null;
+    }
+
+    private ByteBuffer[] segments(int pos0, int lim0, int pos1, int lim1) {
+        if (segmentsOf != buffer) {
+            segments[0] = buffer.duplicate();
+            segments[1] = buffer.duplicate();
+            segmentsOf = buffer;
+        }
+        segments[0].limit(lim0).position(pos0);
+        segments[1].limit(lim1).position(pos1);
+        return segments;
+    }
+
+    private void releaseSegments() {
+        segmentsOf = null;
+        segments[0] = null;
+        segments[1] = null;
+    }
+
+    private int gatheringWriteOut(GatheringByteChannel channel, int maxBytesToWrite) throws IOException {
+        if (closed)
+            return 0; // handle nothing because it's closed
+        checkNotCleaned();
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        int usedBefore = used();
+
+        assert Logger.lowLevelNetDebug("before gathering write out, sPos=" + sPos);
+
+        try { // only use try-finally here, we do not catch
+            int len0 = cap - sPos;
+            int len1 = Math.min(ePos, maxBytesToWrite - len0);
+            int write = (int) channel.write(segments(sPos, cap, 0, len1));
+
+            if (write < len0) {
+                sPos += write;
+            } else {
+                sPos = write - len0;
+                ePosIsAfterSPos = true;
+            }
+            if (used() == 0) {
+                resetCursors();
+            }
+            return write;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after gathering write out, sPos=" + sPos);
+
+            if (usedBefore > 0 && used() == 0) {
+                drained = true;
+            }
+            boolean triggerWritable = fellToLowWatermark(usedBefore);
+            detachIfEmpty();
+            operatingBuffer = false;
+            if (triggerWritable) {
+                assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.writableET();
+                }
+            }
+            resetFirst(firstOperator);
+        }
+    }
+
+    private int scatteringStoreIn(ScatteringByteChannel channel, int maxBytesToRead) throws IOException {
+        if (closed)
+            return -1; // handle nothing because it's already closed
+        checkNotCleaned();
+        if (operatingBuffer) {
+            throw new IllegalStateException("this buffer is operating");
+        }
+
+        boolean firstOperator = isFirstOperate();
+        operatingBuffer = true;
+
+        boolean triggerReadable = false;
+        boolean triggerStored = false;
+
+        assert Logger.lowLevelNetDebug("before scattering store in, ePos=" + ePos);
+
+        try { // only use try-finally here, we do not catch
+            boolean triggerReadablePre = used() == 0;
+
+            int len0 = cap - ePos;
+            int len1 = Math.min(sPos, maxBytesToRead - len0);
+            long read = channel.read(segments(ePos, cap, 0, len1));
+            if (read < 0)
+                return -1; // EOF
+
+            if (read < len0) {
+                ePos += read;
+            } else {
+                ePos = (int) read - len0;
+                ePosIsAfterSPos = false;
+            }
+            triggerReadable = triggerReadablePre && read > 0;
+            triggerStored = !triggerReadablePre && read > 0;
+            return (int) read;
+        } finally { // do trigger here
+            assert Logger.lowLevelNetDebug("after scattering store in, ePos=" + ePos);
+
+            if (adaptive) {
+                recordUsage();
+            }
+            operatingBuffer = false;
+            if (triggerReadable) {
+                assert Logger.lowLevelNetDebug("trigger readable for " + handler.size() + " times");
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.readableET();
+                }
+            } else if (triggerStored) {
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.storedET();
+                }
+            }
+            resetFirst(firstOperator);
+        }
+    }
+
     public int writeToDatagramChannel(DatagramChannel channel, SocketAddress sockAddr, int maxBytesToWrite) throws IOException {
         return operateOnByteBufferWriteOut(maxBytesToWrite, b -> channel.send(buffer, sockAddr));
     }
@@ -120,6 +515,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     }
 
     public byte[] getBytes() {
+        checkNotCleaned();
         int len = used();
         byte[] arr = new byte[len];
         if (len == 0)
@@ -140,6 +536,8 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
     @Override
     public String toString() {
+        if (cleaned)
+            return "SimpleRingBuffer(cleaned)";
         byte[] bytes = getBytes();
         return new String(bytes, 0, bytes.length, StandardCharsets.UTF_8);
     }
@@ -174,16 +572,27 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     private boolean cleaned = false;
 
     /**
-     * release the direct memory<br>
+     * release the direct memory (return it to the pool)<br>
+     * a direct buffer cannot be read or stored after cleaned<br>
      * PLEASE BE VERY CAREFUL
      */
     public void clean() {
-        if (cleaned)
-            return;
+        if (cleaned || !isDirect)
+            return; // nothing to release for heap buffers
         cleaned = true;
-        if (isDirect) {
-            Utils.clean(buffer);
+        memoryBudget.released(cap);
+        if (buffer != null) {
+            DirectBufferPool.release(buffer, lazy);
         }
+        // the pooled memory may be handed to another buffer,
+        // so drop the reference to make sure it's never touched again
+        buffer = null;
+        releaseSegments();
+    }
+
+    private void checkNotCleaned() {
+        if (cleaned)
+            throw new IllegalStateException("the buffer is already cleaned");
     }
 
     // clear the buffer
@@ -217,11 +626,24 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
 
         handler.removeAll(handlerToRemove);
         handler.addAll(handlerToAdd);
+
+        // nested operations may be running when the buffer is being operated,
+        // so resize the buffer after the first operator finishes
+        if (adaptive) {
+            if (filled) {
+                grow();
+            } else if (drained) {
+                shrinkIfEmptyAndSparse();
+            }
+            filled = false;
+            drained = false;
+        }
     }
 
     public int operateOnByteBufferWriteOut(int maxBytesToWrite, ByteBufferRingBuffer.WriteOutOp op) throws IOException {
         if (closed)
             return 0; // handle nothing because it's closed
+        checkNotCleaned();
         if (operatingBuffer) {
             throw new IllegalStateException("this buffer is operating");
         }
@@ -229,15 +651,11 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         boolean firstOperator = isFirstOperate();
         operatingBuffer = true;
 
-        boolean triggerWritable = false;
+        int usedBefore = used();
 
         assert Logger.lowLevelNetDebug("before operate write out, sPos=" + sPos);
 
         try { // only use try-finally here, we do not catch
-
-            // is for triggering writable event
-            boolean triggerWritablePre = free() == 0;
-
             int lim = retrieveLimit();
             if (lim == 0)
                 return 0; // buffer is empty
@@ -256,8 +674,6 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             int write = (buffer.position() - sPos);
             sPos += write;
 
-            triggerWritable = triggerWritablePre && write > 0;
-
             if (sPos == cap) {
                 sPos = 0;
                 ePosIsAfterSPos = true;
@@ -297,6 +713,11 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         } finally { // do trigger here
             assert Logger.lowLevelNetDebug("after operate write out, sPos=" + sPos);
 
+            if (usedBefore > 0 && used() == 0) {
+                drained = true;
+            }
+            boolean triggerWritable = fellToLowWatermark(usedBefore);
+            detachIfEmpty();
             operatingBuffer = false;
             if (triggerWritable) {
                 assert Logger.lowLevelNetDebug("trigger writable for " + handler.size() + " times");
@@ -309,8 +730,13 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
     }
 
     public int operateOnByteBufferStoreIn(ByteBufferRingBuffer.StoreInOp op) throws IOException {
+        return operateOnByteBufferStoreIn(Integer.MAX_VALUE, op);
+    }
+
+    private int operateOnByteBufferStoreIn(int maxBytesToRead, ByteBufferRingBuffer.StoreInOp op) throws IOException {
         if (closed)
             return -1; // handle nothing because it's already closed
+        checkNotCleaned();
         if (operatingBuffer) {
             throw new IllegalStateException("this buffer is operating");
         }
@@ -319,6 +745,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         operatingBuffer = true;
 
         boolean triggerReadable = false;
+        boolean triggerStored = false;
 
         assert Logger.lowLevelNetDebug("before operate store in, ePos=" + ePos);
 
@@ -330,6 +757,8 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
             int lim = storeLimit();
             if (lim == 0)
                 return 0; // buffer is full
+            attach();
+            lim = Math.min(lim, maxBytesToRead);
             int newLimit = ePos + lim;
             buffer.limit(newLimit).position(ePos);
 
@@ -347,16 +776,18 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
                 return -1; // some error occurred, maybe EOF
 
             triggerReadable = triggerReadablePre && read > 0;
+            triggerStored = !triggerReadablePre && read > 0;
 
             if (ePos == cap) {
                 ePos = 0;
                 ePosIsAfterSPos = false;
             }
-            if (read == lim) {
+            if (read == lim && read < maxBytesToRead) {
                 // maybe have more bytes to read
                 lim = storeLimit();
                 if (lim == 0)
                     return read; // buffer is full now
+                lim = Math.min(lim, maxBytesToRead - read/* the bytes left to read */);
                 newLimit = ePos + lim;
                 buffer.limit(newLimit).position(ePos);
 
@@ -381,12 +812,20 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         } finally { // do trigger here
             assert Logger.lowLevelNetDebug("after operate store in, ePos=" + ePos);
 
+            if (adaptive) {
+                recordUsage();
+            }
+            detachIfEmpty(); // nothing stored
             operatingBuffer = false;
             if (triggerReadable) {
                 assert Logger.lowLevelNetDebug("trigger readable for " + handler.size() + " times");
                 for (RingBufferETHandler aHandler : handler) {
                     aHandler.readableET();
                 }
+            } else if (triggerStored) {
+                for (RingBufferETHandler aHandler : handler) {
+                    aHandler.storedET();
+                }
             }
             resetFirst(firstOperator);
         }
@@ -402,6 +841,7 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         if (operating)
             throw new IllegalStateException("cannot perform defragment when it's operating");
 
+        checkNotCleaned();
         if (sPos == 0)
             return; // no need to defragment if sPos is already 0
         // we make the code simple:
@@ -409,11 +849,16 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         // and store data into the new buffer
         //
         // then we make a swap
+        relocate(cap);
+    }
+
+    // move data into a new buffer with the capacity of newCap, the data starts from 0
+    private void relocate(int newCap) {
         ByteBuffer newBuffer;
         if (isDirect) {
-            newBuffer = ByteBuffer.allocateDirect(cap);
+            newBuffer = DirectBufferPool.allocate(newCap, lazy);
         } else {
-            newBuffer = ByteBuffer.allocate(cap);
+            newBuffer = ByteBuffer.allocate(newCap);
         }
 
         if (ePosIsAfterSPos) {
@@ -429,9 +874,10 @@ public class SimpleRingBuffer implements RingBuffer, ByteBufferRingBuffer {
         }
 
         if (isDirect) {
-            Utils.clean(buffer); // clean the old buffer
+            DirectBufferPool.release(buffer, lazy); // release the old buffer
         }
 
+        cap = newCap;
         sPos = 0;
         ePos = newBuffer.position();
         ePosIsAfterSPos = true;
@@ -11,6 +11,7 @@ import net.cassite.vproxy.socks.Socks5ProxyProtocolHandler;
 import net.cassite.vproxy.util.*;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
@@ -67,7 +68,10 @@ public class WebSocksProtocolHandler implements ProtocolHandler<Tuple<WebSocksPr
                 byte[] foo = new byte[expectingLen];
                 wrapCtx.webSocksProxyContext.webSocketBytes = ByteArrayChannel.fromEmpty(foo);
             }
-            ctx.write(response(101, accept)); // respond to the client about the upgrading
+            ctx.write(new ByteBufferChain() // respond to the client about the upgrading
+                .appendConstant(UPGRADE_RESP_HEAD)
+                .append(accept)
+                .appendConstant(UPGRADE_RESP_TAIL));
         }
 
         // it's ordered with `-priority`, smaller the index is, higher priority it has
@@ -170,24 +174,26 @@ public class WebSocksProtocolHandler implements ProtocolHandler<Tuple<WebSocksPr
             put(500, "Internal Server Error");
         }};
 
+        private final ByteBuffer UPGRADE_RESP_HEAD = ByteBufferChain.constant("" +
+            "HTTP/1.1 101 " + STATUS_MSG.get(101) + "\r\n" +
+            "Upgrade: websocket\r\n" +
+            "Connection: Upgrade\r\n" +
+            "Sec-Websocket-Accept: ");
+        private final ByteBuffer UPGRADE_RESP_TAIL = ByteBufferChain.constant("" +
+            "\r\n" +
+            "Sec-WebSocket-Protocol: socks5\r\n" + // for now we only support socks5
+            "\r\n"); // end headers (and also the resp)
+
         private byte[] response(int statusCode, String msg) {
             String statusMsg = STATUS_MSG.get(statusCode);
             StringBuilder sb = new StringBuilder();
             sb.append("HTTP/1.1 ").append(statusCode).append(" ").append(statusMsg).append("\r\n");
-            if (statusCode == 101) {
-                sb.append("Upgrade: websocket\r\n");
-                sb.append("Connection: Upgrade\r\n");
-                sb.append("Sec-Websocket-Accept: ").append(msg).append("\r\n");
-                sb.append("Sec-WebSocket-Protocol: socks5\r\n"); // for now we only support socks5
-                sb.append("\r\n"); // end headers (and also the resp)
-            } else {
-                if (statusCode == 401) {
-                    sb.append("WWW-Authenticate: Basic\r\n");
-                }
-                sb.append("Content-Length: ").append(msg.getBytes().length).append("\r\n");
-                sb.append("\r\n"); // end headers
-                sb.append(msg);
+            if (statusCode == 401) {
+                sb.append("WWW-Authenticate: Basic\r\n");
             }
+            sb.append("Content-Length: ").append(msg.getBytes().length).append("\r\n");
+            sb.append("\r\n"); // end headers
+            sb.append(msg);
             return sb.toString().getBytes();
         }
     };
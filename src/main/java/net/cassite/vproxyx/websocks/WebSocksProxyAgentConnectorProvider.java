@@ -13,6 +13,7 @@ import net.cassite.vproxy.socks.AddressType;
 import net.cassite.vproxy.socks.Socks5ConnectorProvider;
 import net.cassite.vproxy.util.*;
 import net.cassite.vproxy.util.ringbuffer.SSLUtils;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
 
 import javax.net.ssl.SSLEngine;
 import java.io.IOException;
@@ -96,7 +97,10 @@ public class WebSocksProxyAgentConnectorProvider implements Socks5ConnectorProvi
                 if (useSSL) {
                     conn = CommonProcess.makeSSLConnection(loop.getSelectorEventLoop(), connector);
                 } else {
-                    conn = connector.connect(RingBuffer.allocateDirect(16384), RingBuffer.allocateDirect(16384));
+                    conn = connector.connect(
+                        // the buffers are replaced when handed to a session, or dropped when the connection closes
+                        SimpleRingBuffer.allocateDirect(16384, MemoryBudget.UNTRACKED),
+                        SimpleRingBuffer.allocateDirect(16384, MemoryBudget.UNTRACKED));
                 }
             } catch (IOException e) {
                 Logger.error(LogType.CONN_ERROR, "make websocks connection for the pool failed", e);
@@ -574,7 +578,10 @@ public class WebSocksProxyAgentConnectorProvider implements Socks5ConnectorProvi
                     if ((Boolean) connector.getData() /*useSSL, see ConfigProcessor*/) {
                         conn = CommonProcess.makeSSLConnection(loop.getSelectorEventLoop(), connector);
                     } else {
-                        conn = connector.connect(RingBuffer.allocateDirect(16384), RingBuffer.allocateDirect(16384));
+                        conn = connector.connect(
+                            // the buffers are replaced when handed to a session, or dropped when the connection closes
+                            SimpleRingBuffer.allocateDirect(16384, MemoryBudget.UNTRACKED),
+                            SimpleRingBuffer.allocateDirect(16384, MemoryBudget.UNTRACKED));
                     }
                 } catch (IOException e) {
                     Logger.error(LogType.CONN_ERROR, "connect to " + connector + " failed", e);
@@ -0,0 +1,179 @@
+package net.cassite.vproxy.poc;
+
+import net.cassite.vproxy.util.RingBuffer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+
+// this benchmark compares the count of read/write calls (syscalls) of ring buffers
+// with and without scattering/gathering io
+// the ring buffers store and retrieve with different sizes, so data wraps around frequently
+// args: [megabytes=1024]
+public class RingBufferVectoredIOBenchmark {
+    private static final int BUFFER_SIZE = 16384;
+
+    public static void main(String[] args) throws Exception {
+        long total = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+
+        // warm up both
+        run(false, total / 8);
+        run(true, total / 8);
+
+        run(false, total);
+        run(true, total);
+    }
+
+    private static void run(boolean vectored, long total) throws Exception {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0));
+        SocketChannel client = SocketChannel.open(server.getLocalAddress());
+        SocketChannel accepted = server.accept();
+        server.close();
+
+        CountingChannel out = vectored ? new CountingVectoredChannel(client) : new CountingChannel(client);
+        CountingChannel in = vectored ? new CountingVectoredChannel(accepted) : new CountingChannel(accepted);
+
+        long start = System.currentTimeMillis();
+        Thread sender = new Thread(() -> {
+            RingBuffer buf = RingBuffer.allocateDirect(BUFFER_SIZE);
+            PatternChannel source = new PatternChannel();
+            long sent = 0;
+            try {
+                while (sent < total) {
+                    buf.storeBytesFrom(source, 7000);
+                    sent += buf.writeTo(out, 5000);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            buf.clean();
+        });
+        sender.start();
+
+        RingBuffer buf = RingBuffer.allocateDirect(BUFFER_SIZE);
+        PatternChannel sink = new PatternChannel();
+        long received = 0;
+        while (received < total) {
+            int n = buf.storeBytesFrom(in, 9000);
+            if (n < 0)
+                break;
+            received += n;
+            buf.writeTo(sink, 7000);
+        }
+        while (buf.used() != 0) {
+            buf.writeTo(sink);
+        }
+        buf.clean();
+        sender.join();
+        long cost = System.currentTimeMillis() - start;
+
+        client.close();
+        accepted.close();
+
+        System.out.println((vectored ? "scattering/gathering: " : "single buffer io:     ")
+            + "write calls " + out.writes + " read calls " + in.reads
+            + " bytes/write " + (total / Math.max(out.writes, 1))
+            + " bytes/read " + (received / Math.max(in.reads, 1))
+            + " cost " + cost + "ms"
+            + (sink.corrupted ? " DATA CORRUPTED" : ""));
+    }
+
+    // generates bytes 0,1,...,250,0,1,... when reading, and verifies the sequence when writing
+    private static class PatternChannel implements ReadableByteChannel, WritableByteChannel {
+        private int next = 0;
+        boolean corrupted = false;
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int n = dst.remaining();
+            for (int i = 0; i < n; ++i) {
+                dst.put((byte) next);
+                next = (next + 1) % 251;
+            }
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            for (int i = 0; i < n; ++i) {
+                if (src.get() != (byte) next) {
+                    corrupted = true;
+                }
+                next = (next + 1) % 251;
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CountingChannel implements ReadableByteChannel, WritableByteChannel {
+        final SocketChannel channel;
+        long reads = 0;
+        long writes = 0;
+
+        CountingChannel(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            ++reads;
+            return channel.read(dst);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ++writes;
+            return channel.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class CountingVectoredChannel extends CountingChannel implements ScatteringByteChannel, GatheringByteChannel {
+        CountingVectoredChannel(SocketChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            ++reads;
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts) throws IOException {
+            return read(dsts, 0, dsts.length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            ++writes;
+            return channel.write(srcs, offset, length);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.cassite.vproxy.poc;
+
+import net.cassite.vproxy.selector.Handler;
+import net.cassite.vproxy.selector.HandlerContext;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopConfig;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// this benchmark compares events/sec with and without the array backed selected-key set
+// all connections are registered with OP_WRITE, so every select returns all of them
+// run with: --add-opens java.base/sun.nio.ch=ALL-UNNAMED
+// note that the process needs 2 * connections file descriptors
+// args: [connections=10000] [seconds=10]
+public class SelectedKeySetBenchmark {
+    private static long events = 0;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<SocketChannel> channels = new ArrayList<>(connections * 2);
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("127.0.0.1", 0), 1024);
+        InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+        for (int i = 0; i < connections; ++i) {
+            SocketChannel client = SocketChannel.open(address);
+            channels.add(client);
+            channels.add(server.accept());
+        }
+        server.close();
+        System.out.println(connections + " connections established");
+
+        // warm up both
+        run(channels, connections, false, 2);
+        run(channels, connections, true, 2);
+
+        long jdk = run(channels, connections, false, seconds);
+        long optimized = run(channels, connections, true, seconds);
+        System.out.println("jdk selected keys:   " + (jdk / seconds) + " events/sec");
+        System.out.println("array selected keys: " + (optimized / seconds) + " events/sec");
+
+        for (SocketChannel c : channels) {
+            c.close();
+        }
+    }
+
+    private static long run(List<SocketChannel> channels, int connections, boolean optimize, int seconds) throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open(new SelectorEventLoopConfig().setOptimizeSelectedKeys(optimize));
+        if (optimize && !loop.isSelectedKeysOptimized()) {
+            System.out.println("the selected keys are not optimized, add --add-opens java.base/sun.nio.ch=ALL-UNNAMED");
+        }
+        Handler<SocketChannel> handler = new CountingHandler();
+        // register the accepted side of each connection
+        for (int i = 0; i < connections; ++i) {
+            loop.add(channels.get(i * 2 + 1), SelectionKey.OP_WRITE, null, handler);
+        }
+        loop.loop(r -> new Thread(r, "BenchmarkLoop"));
+        Thread.sleep(seconds * 1000);
+        loop.close();
+        long result = events;
+        events = 0;
+        // the channels are still open, re-configure them for the next run
+        return result;
+    }
+
+    private static class CountingHandler implements Handler<SocketChannel> {
+        @Override
+        public void accept(HandlerContext<SocketChannel> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void connected(HandlerContext<SocketChannel> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void readable(HandlerContext<SocketChannel> ctx) {
+            // will not fire
+        }
+
+        @Override
+        public void writable(HandlerContext<SocketChannel> ctx) {
+            ++events;
+        }
+
+        @Override
+        public void removed(HandlerContext<SocketChannel> ctx) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package net.cassite.vproxy.poc;
+
+import net.cassite.vproxy.component.check.HealthCheckConfig;
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.svrgroup.Method;
+import net.cassite.vproxy.component.svrgroup.ServerGroup;
+import net.cassite.vproxy.component.svrgroup.SvrHandleConnector;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// this benchmark compares the cost of rebuilding and picking
+// of the pre-calculated wrr sequence (which was used before) and the smooth wrr in ServerGroup
+// the event loop group is empty, so no health check is running, and all servers are set to healthy manually
+// then the smooth wrr is picked from multiple threads (like worker loops do), and the lock contention is printed
+// args: [servers=200] [max-weight=1000] [picks=10000000] [threads=available processors]
+public class WRRBenchmark {
+    public static void main(String[] args) throws Exception {
+        int servers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int maxWeight = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int picks = args.length > 2 ? Integer.parseInt(args[2]) : 10_000_000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        Random rand = new Random(1);
+        int[] weights = new int[servers];
+        long sum = 0;
+        for (int i = 0; i < servers; ++i) {
+            weights[i] = 1 + rand.nextInt(maxWeight);
+            sum += weights[i];
+        }
+        System.out.println(servers + " servers, sum of weights " + sum);
+
+        // warm up both
+        for (int i = 0; i < 3; ++i) {
+            runSeq(weights, picks / 10, false);
+            runSmooth(weights, picks / 10, false);
+        }
+
+        runSeq(weights, picks, true);
+        runSmooth(weights, picks, true);
+
+        runConcurrent(weights, threads, picks / 10, false);
+        runConcurrent(weights, threads, picks, true);
+    }
+
+    private static ServerGroup smoothGroup(int[] weights) throws Exception {
+        ServerGroup group = new ServerGroup("sg", new EventLoopGroup("elg"), new HealthCheckConfig(1000, 5000, 2, 3), Method.wrr);
+        InetAddress local = InetAddress.getByName("127.0.0.1");
+        for (int i = 0; i < weights.length; ++i) {
+            ServerGroup.ServerHandle h = group.add("s" + i, new InetSocketAddress("127.0.0.1", 10000 + i), local, weights[i]);
+            h.healthy = true;
+        }
+        return group;
+    }
+
+    private static void runConcurrent(int[] weights, int threads, int picks, boolean print) throws Exception {
+        ServerGroup group = smoothGroup(weights);
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        boolean contention = mx.isThreadContentionMonitoringSupported();
+        if (contention) {
+            mx.setThreadContentionMonitoringEnabled(true);
+        }
+        int perThread = picks / threads;
+        long[][] counts = new long[threads][weights.length];
+        AtomicLong blockedCount = new AtomicLong(0);
+        AtomicLong blockedTime = new AtomicLong(0);
+        List<Thread> list = new ArrayList<>(threads);
+        for (int t = 0; t < threads; ++t) {
+            long[] c = counts[t];
+            list.add(new Thread(() -> {
+                for (int i = 0; i < perThread; ++i) {
+                    ++c[group.next().remote.getPort() - 10000];
+                }
+                if (contention) {
+                    // entering the monitor of a shard held by another thread counts as blocked
+                    ThreadInfo info = mx.getThreadInfo(Thread.currentThread().getId());
+                    blockedCount.addAndGet(info.getBlockedCount());
+                    blockedTime.addAndGet(info.getBlockedTime());
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread t : list) {
+            t.start();
+        }
+        for (Thread t : list) {
+            t.join();
+        }
+        long pick = System.nanoTime() - start;
+        group.destroy();
+        if (print) {
+            long[] total = new long[weights.length];
+            for (long[] c : counts) {
+                for (int i = 0; i < c.length; ++i) {
+                    total[i] += c[i];
+                }
+            }
+            System.out.println("smooth wrr in " + threads + " threads: "
+                + "pick " + (pick / perThread) + "ns/op in each thread"
+                + " max share error " + String.format("%.4f", maxShareError(perThread * threads, weights, total) * 100) + "%"
+                + " lock contention " + (contention
+                ? "blocked " + blockedCount.get() + " times " + blockedTime.get() + "ms"
+                : "not supported"));
+        }
+    }
+
+    private static void runSeq(int[] weights, int picks, boolean print) {
+        // every change rebuilds the whole sequence
+        long start = System.nanoTime();
+        int[] seq = buildSeq(weights);
+        long rebuild = System.nanoTime() - start;
+
+        AtomicInteger cursor = new AtomicInteger(0);
+        long[] counts = new long[weights.length];
+        start = System.nanoTime();
+        for (int i = 0; i < picks; ++i) {
+            int idx = cursor.getAndIncrement();
+            if (idx >= seq.length) {
+                idx = idx % seq.length;
+                cursor.set(idx + 1);
+            }
+            ++counts[seq[idx]];
+        }
+        long pick = System.nanoTime() - start;
+        if (print) {
+            print("pre-calculated sequence: ", rebuild, "(sequence length " + seq.length + ")", pick, picks, weights, counts);
+        }
+    }
+
+    private static void runSmooth(int[] weights, int picks, boolean print) throws Exception {
+        ServerGroup group = smoothGroup(weights);
+        InetAddress local = InetAddress.getByName("127.0.0.1");
+        List<ServerGroup.ServerHandle> handles = group.getServerHandles();
+        // a weight change is applied in place
+        ServerGroup.ServerHandle last = handles.get(handles.size() - 1);
+        long start = System.nanoTime();
+        last.setWeight(last.getWeight() + 1);
+        last.setWeight(last.getWeight() - 1);
+        long update = (System.nanoTime() - start) / 2;
+        // adding or removing a server rebuilds the wrr, but it's O(n)
+        start = System.nanoTime();
+        group.remove(last.alias);
+        last = group.add(last.alias, last.server, local, last.getWeight());
+        last.healthy = true;
+        long rebuild = (System.nanoTime() - start) / 2;
+
+        long[] counts = new long[weights.length];
+        start = System.nanoTime();
+        for (int i = 0; i < picks; ++i) {
+            SvrHandleConnector c = group.next();
+            ++counts[c.remote.getPort() - 10000];
+        }
+        long pick = System.nanoTime() - start;
+        group.destroy();
+        if (print) {
+            print("smooth wrr:              ", rebuild, "(set weight " + (update / 1000) + "us)", pick, picks, weights, counts);
+        }
+    }
+
+    private static double maxShareError(int picks, int[] weights, long[] counts) {
+        long sum = 0;
+        for (int w : weights) {
+            sum += w;
+        }
+        double maxError = 0;
+        for (int i = 0; i < weights.length; ++i) {
+            double expected = (double) picks * weights[i] / sum;
+            maxError = Math.max(maxError, Math.abs(counts[i] - expected) / expected);
+        }
+        return maxError;
+    }
+
+    private static void print(String name, long rebuild, String rebuildNote, long pick, int picks, int[] weights, long[] counts) {
+        System.out.println(name
+            + "rebuild " + (rebuild / 1000) + "us " + rebuildNote
+            + " pick " + (pick / picks) + "ns/op"
+            + " max share error " + String.format("%.4f", maxShareError(picks, weights, counts) * 100) + "%");
+    }
+
+    // the original algorithm
+    private static int[] buildSeq(int[] original) {
+        List<Integer> listSeq = new LinkedList<>();
+        int[] weights = Arrays.copyOf(original, original.length);
+        int sum = 0;
+        for (int w : original) {
+            sum += w;
+        }
+        while (true) {
+            int idx = maxIndex(weights);
+            listSeq.add(idx);
+            weights[idx] -= sum;
+            boolean end = true;
+            for (int w : weights) {
+                if (w != 0) {
+                    end = false;
+                    break;
+                }
+            }
+            if (end) {
+                break;
+            }
+            for (int i = 0; i < weights.length; ++i) {
+                weights[i] += original[i];
+            }
+            sum = 0;
+            for (int w : weights) {
+                sum += w;
+            }
+        }
+        int[] seq = new int[listSeq.size()];
+        int idx = 0;
+        for (int i : listSeq) {
+            seq[idx++] = i;
+        }
+        return seq;
+    }
+
+    private static int maxIndex(int[] weights) {
+        int maxIdx = 0;
+        int maxVal = weights[0];
+        for (int i = 1; i < weights.length; ++i) {
+            if (weights[i] > maxVal) {
+                maxVal = weights[i];
+                maxIdx = i;
+            }
+        }
+        return maxIdx;
+    }
+}
@@ -11,6 +11,18 @@ import org.junit.runners.Suite;
     TestTcpLB.class,
     TestNetMask.class,
     TestTimer.class,
+    TestTimingWheel.class,
+    TestMPSCQueue.class,
+    TestSelectorEventLoop.class,
+    TestHistogram.class,
+    TestEventLoopGroup.class,
+    TestDirectBufferPool.class,
+    TestMemoryBudget.class,
+    TestByteBufferChain.class,
+    TestWatermarks.class,
+    TestWLC.class,
+    TestMaglev.class,
+    TestWRR.class,
     TestResolver.class,
     TestSocks5.class,
     TestUDP.class,
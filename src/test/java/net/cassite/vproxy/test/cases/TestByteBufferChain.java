@@ -0,0 +1,223 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.connection.ClientConnection;
+import net.cassite.vproxy.protocol.ProtocolHandlerContext;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.ByteBufferChain;
+import net.cassite.vproxy.util.RingBuffer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestByteBufferChain {
+    // accepts at most `limit` bytes for each write call
+    private static class LimitedChannel implements GatheringByteChannel {
+        final StringBuilder written = new StringBuilder();
+        int limit;
+        int calls = 0;
+
+        LimitedChannel(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            ++calls;
+            int total = 0;
+            for (int i = offset; i < offset + length && total < limit; ++i) {
+                ByteBuffer b = srcs[i];
+                while (b.hasRemaining() && total < limit) {
+                    written.append((char) b.get());
+                    ++total;
+                }
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[]{src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static String read(ByteBufferChain chain, int len) {
+        ByteBuffer dst = ByteBuffer.allocate(len);
+        int n = chain.read(dst);
+        assertEquals(dst.position(), n);
+        return new String(dst.array(), 0, n, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void partialGatheringWrite() throws IOException {
+        ByteBufferChain chain = new ByteBufferChain().append("abc").append("defg").append("hij");
+        LimitedChannel channel = new LimitedChannel(5);
+
+        assertEquals(5, chain.writeTo(channel));
+        assertEquals("one call for all fragments", 1, channel.calls);
+        assertEquals("abcde", channel.written.toString());
+        assertEquals(5, chain.remaining());
+        assertEquals("the written fragment is dropped", 2, chain.fragmentCount());
+
+        channel.limit = 100;
+        assertEquals(5, chain.writeTo(channel));
+        assertEquals("abcdefghij", channel.written.toString());
+        assertEquals(0, chain.remaining());
+        assertEquals(0, chain.fragmentCount());
+        assertEquals("nothing to write", 0, chain.writeTo(channel));
+        assertEquals(2, channel.calls);
+    }
+
+    @Test
+    public void readAcrossFragments() {
+        ByteBufferChain chain = new ByteBufferChain()
+            .append("abc")
+            .append(new byte[0]) // empty fragments are ignored
+            .append("defg")
+            .appendConstant(ByteBufferChain.constant("hij"));
+        assertEquals(10, chain.remaining());
+        assertEquals(3, chain.fragmentCount());
+
+        assertEquals("ends in the middle of a fragment", "abcde", read(chain, 5));
+        assertEquals(5, chain.remaining());
+        assertEquals(2, chain.fragmentCount());
+
+        assertEquals("ends at the end of a fragment", "fg", read(chain, 2));
+        assertEquals(1, chain.fragmentCount());
+
+        assertEquals("dst larger than the chain", "hij", read(chain, 100));
+        assertEquals(0, chain.remaining());
+        assertEquals(0, chain.fragmentCount());
+        assertEquals("", read(chain, 100));
+    }
+
+    @Test
+    public void sharedConstants() throws IOException {
+        ByteBuffer constant = ByteBufferChain.constant("xyz");
+        assertTrue(constant.isReadOnly());
+        assertTrue(constant.isDirect());
+
+        ByteBufferChain chain = new ByteBufferChain()
+            .appendConstant(constant)
+            .append("-")
+            .appendConstant(constant);
+        assertEquals(7, chain.remaining());
+        assertEquals("xyz-xyz", read(chain, 100));
+        assertEquals("the constant is not consumed", 0, constant.position());
+        assertEquals(3, constant.remaining());
+
+        // partially written by another chain
+        ByteBufferChain chain2 = new ByteBufferChain().appendConstant(constant).appendConstant(constant);
+        LimitedChannel channel = new LimitedChannel(4);
+        chain2.writeTo(channel);
+        assertEquals("xyzx", channel.written.toString());
+        assertEquals(0, constant.position());
+        assertEquals("yz", read(chain2, 100));
+
+        // appended from the position of the constant
+        constant.position(1);
+        assertEquals("yzyz", read(new ByteBufferChain().appendConstant(constant).appendConstant(constant), 100));
+        assertEquals(1, constant.position());
+    }
+
+    @Test
+    public void directWriteKeepsOrder() throws Exception {
+        byte[] payload = new byte[4 * 1024 * 1024];
+        for (int i = 0; i < payload.length; ++i) {
+            payload[i] = (byte) (i % 251);
+        }
+        int outCap = 16384;
+
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "directWriteKeepsOrder"));
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        ClientConnection conn = null;
+        SocketChannel accepted = null;
+        try {
+            conn = ClientConnection.create((InetSocketAddress) server.getLocalAddress(), InetAddress.getLoopbackAddress(),
+                RingBuffer.allocateDirect(16), RingBuffer.allocateDirect(outCap));
+            SocketChannel channel = (SocketChannel) conn.channel;
+            accepted = server.accept();
+            while (!channel.finishConnect()) {
+                Thread.sleep(1);
+            }
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, 8192);
+
+            // three fragments of different kinds, the peer does not read
+            int a = payload.length / 2;
+            int b = a + payload.length / 4;
+            ByteBuffer direct = ByteBuffer.allocateDirect(b - a);
+            direct.put(payload, a, b - a).flip();
+            ByteBufferChain chain = new ByteBufferChain()
+                .append(Arrays.copyOfRange(payload, 0, a))
+                .append(direct)
+                .appendConstant(ByteBufferChain.constant(Arrays.copyOfRange(payload, b, payload.length)));
+
+            ProtocolHandlerContext<Void> ctx = new ProtocolHandlerContext<>("directWriteKeepsOrder", conn, loop, null);
+            ctx.write(chain);
+
+            // tasks run in order, so the write is done when this one runs
+            long[] written = {0};
+            byte[] out = new byte[outCap];
+            int[] outUsed = {0};
+            CountDownLatch latch = new CountDownLatch(1);
+            ClientConnection fconn = conn;
+            loop.runOnLoop(() -> {
+                written[0] = fconn.getToRemoteBytes();
+                outUsed[0] = fconn.getOutBuffer().writeTo(ByteArrayChannel.fromEmpty(out));
+                latch.countDown();
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+            assertTrue("should write directly to the socket", written[0] > 0);
+            assertTrue("should not write all of " + payload.length + " bytes, but wrote " + written[0], written[0] < payload.length - outCap);
+            assertEquals("the tail should be stored into the out buffer", outCap, outUsed[0]);
+
+            // the peer receives the head
+            ByteBuffer recv = ByteBuffer.allocate((int) written[0]);
+            while (recv.hasRemaining()) {
+                accepted.read(recv);
+            }
+            assertArrayEquals(Arrays.copyOfRange(payload, 0, (int) written[0]), recv.array());
+            // the out buffer holds the bytes right after the head
+            assertArrayEquals(Arrays.copyOfRange(payload, (int) written[0], (int) written[0] + outCap), out);
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
+            if (accepted != null) {
+                accepted.close();
+            }
+            server.close();
+            loop.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.app.Config;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.DirectBufferPool;
+import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class TestDirectBufferPool {
+    private static boolean enabled;
+
+    @BeforeClass
+    public static void classSetUp() {
+        // the pool is disabled by default
+        enabled = Config.directBufferPool;
+        Config.directBufferPool = true;
+    }
+
+    @AfterClass
+    public static void classTearDown() {
+        Config.directBufferPool = enabled;
+    }
+
+    // the statistics are global, event loops left by other tests may still allocate and release
+    // connection buffers, so the counters are checked with size classes larger than those buffers
+    private static final int KB = 1024;
+
+    private static DirectBufferPool.Statistics stat(int size) {
+        for (DirectBufferPool.Statistics s : DirectBufferPool.statistics()) {
+            if (s.size == size)
+                return s;
+        }
+        fail("size class " + size + " not found");
+        return null;
+    }
+
+    @Test
+    public void hitAndMiss() {
+        int size = 256 * KB;
+        DirectBufferPool.Statistics before = stat(size);
+
+        ByteBuffer a = DirectBufferPool.allocate(size);
+        assertTrue(a.isDirect());
+        assertEquals(size, a.capacity());
+        assertEquals(size, stat(size).outstandingBytes - before.outstandingBytes);
+
+        a.put((byte) 1).limit(10);
+        DirectBufferPool.release(a);
+        assertEquals(before.outstandingBytes, stat(size).outstandingBytes);
+        assertEquals(size, stat(size).pooledBytes - before.pooledBytes);
+
+        ByteBuffer b = DirectBufferPool.allocate(size);
+        assertSame(a, b);
+        assertEquals(0, b.position());
+        assertEquals(size, b.limit());
+        DirectBufferPool.Statistics after = stat(size);
+        assertEquals(1, after.hit - before.hit);
+        assertEquals(before.pooledBytes, after.pooledBytes);
+        DirectBufferPool.release(b);
+    }
+
+    @Test
+    public void notPooled() {
+        assertFalse(DirectBufferPool.isPooled(1000));
+        assertFalse(DirectBufferPool.isPooled(512));
+        assertFalse(DirectBufferPool.isPooled(2 * 1024 * 1024));
+        assertTrue(DirectBufferPool.isPooled(16384));
+
+        ByteBuffer buf = DirectBufferPool.allocate(1000);
+        assertEquals(1000, buf.capacity());
+        DirectBufferPool.release(buf); // cleaned directly
+    }
+
+    @Test
+    public void releaseFromAnotherThread() throws Exception {
+        int size = 512 * KB;
+        ByteBuffer buf = DirectBufferPool.allocate(size);
+        Thread t = new Thread(() -> DirectBufferPool.release(buf));
+        t.start();
+        t.join();
+        // kept in the cache of the other thread
+        DirectBufferPool.Statistics s = stat(size);
+        assertTrue(s.pooledBytes >= size);
+
+        // fill the thread cache of another thread, the rest go to the global cache
+        int threadCacheCount = 1024 * 1024 / size;
+        ByteBuffer[] buffers = new ByteBuffer[threadCacheCount + 1];
+        for (int i = 0; i < buffers.length; ++i) {
+            buffers[i] = DirectBufferPool.allocate(size);
+        }
+        Thread t2 = new Thread(() -> {
+            for (ByteBuffer b : buffers) {
+                DirectBufferPool.release(b);
+            }
+        });
+        t2.start();
+        t2.join();
+        DirectBufferPool.Statistics before = stat(size);
+        ByteBuffer fromGlobal = DirectBufferPool.allocate(size);
+        DirectBufferPool.Statistics after = stat(size);
+        assertEquals(1, after.hit - before.hit);
+        assertEquals(before.miss, after.miss);
+        DirectBufferPool.release(fromGlobal);
+    }
+
+    @Test
+    public void ringBuffer() {
+        int size = 1024 * KB;
+        DirectBufferPool.Statistics before = stat(size);
+        RingBuffer rb = RingBuffer.allocateDirect(size);
+        assertEquals(size, stat(size).outstandingBytes - before.outstandingBytes);
+        rb.clean();
+        rb.clean(); // cleaning twice should not return the buffer twice
+        DirectBufferPool.Statistics after = stat(size);
+        assertEquals(before.outstandingBytes, after.outstandingBytes);
+        assertEquals(size, after.pooledBytes - before.pooledBytes);
+    }
+
+    @Test
+    public void ringBufferNotUsableAfterCleaned() {
+        int size = 8192;
+        RingBuffer rb = RingBuffer.allocateDirect(size);
+        rb.storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{1, 2, 3}));
+        rb.clean();
+
+        // the memory may be handed to another buffer by the pool
+        ByteBuffer reused = DirectBufferPool.allocate(size);
+        try {
+            rb.storeBytesFrom(ByteArrayChannel.fromFull(new byte[]{4}));
+            fail("should not store into a cleaned buffer");
+        } catch (IllegalStateException ignore) {
+        }
+        try {
+            rb.writeTo(ByteArrayChannel.fromEmpty(new byte[3]));
+            fail("should not read from a cleaned buffer");
+        } catch (IllegalStateException ignore) {
+        }
+        assertEquals(0, reused.position());
+        DirectBufferPool.release(reused);
+    }
+
+    @Test
+    public void lazyRingBufferUsesPoolWhenNotEnabled() {
+        int size = 128 * KB;
+        int bursts = 10;
+        Config.directBufferPool = false;
+        try {
+            DirectBufferPool.Statistics before = stat(size);
+            SimpleRingBuffer rb = SimpleRingBuffer.allocateDirectLazy(size);
+            byte[] data = new byte[100];
+            for (int i = 0; i < bursts; ++i) {
+                rb.storeBytesFrom(ByteArrayChannel.fromFull(data));
+                assertTrue(rb.isAttached());
+                rb.writeTo(ByteArrayChannel.fromEmpty(new byte[data.length]));
+                assertFalse(rb.isAttached());
+            }
+            DirectBufferPool.Statistics after = stat(size);
+            // only the first burst may miss, the others reuse the buffer returned when drained
+            assertTrue(after.miss - before.miss <= 1);
+            assertEquals(bursts, (after.hit - before.hit) + (after.miss - before.miss));
+            assertEquals(before.outstandingBytes, after.outstandingBytes);
+            rb.clean();
+        } finally {
+            Config.directBufferPool = true;
+        }
+    }
+}
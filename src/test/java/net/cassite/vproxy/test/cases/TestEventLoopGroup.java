@@ -0,0 +1,139 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.component.elgroup.EventLoopGroup;
+import net.cassite.vproxy.component.elgroup.EventLoopWrapper;
+import net.cassite.vproxy.component.elgroup.LoopSelectPolicy;
+import net.cassite.vproxy.selector.Handler;
+import net.cassite.vproxy.selector.HandlerContext;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestEventLoopGroup {
+    private EventLoopGroup elg;
+    private List<DatagramChannel> channels = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        elg = new EventLoopGroup("elg0");
+        elg.add("el0");
+        elg.add("el1");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        elg.close();
+        for (DatagramChannel c : channels) {
+            c.close();
+        }
+    }
+
+    private void register(EventLoopWrapper w, int n) throws Exception {
+        SelectorEventLoop loop = w.getSelectorEventLoop();
+        int expected = loop.getRegisteredChannelCount() + n;
+        for (int i = 0; i < n; ++i) {
+            DatagramChannel c = DatagramChannel.open();
+            c.configureBlocking(false);
+            channels.add(c);
+            loop.add(c, 0, null, new NoopHandler());
+        }
+        assertEquals(expected, loop.getRegisteredChannelCount());
+    }
+
+    @Test
+    public void roundRobin() throws Exception {
+        assertEquals(LoopSelectPolicy.rr, elg.getPolicy());
+        EventLoopWrapper a = elg.next();
+        EventLoopWrapper b = elg.next();
+        assertNotSame(a, b);
+        assertSame(a, elg.next());
+    }
+
+    @Test
+    public void leastChannels() throws Exception {
+        elg.setPolicy(LoopSelectPolicy.lc);
+        EventLoopWrapper el0 = elg.get("el0");
+        EventLoopWrapper el1 = elg.get("el1");
+        register(el0, 3);
+        for (int i = 0; i < 5; ++i) {
+            assertSame(el1, elg.next());
+        }
+        register(el1, 5);
+        assertSame(el0, elg.next());
+    }
+
+    @Test
+    public void leastBusyTime() throws Exception {
+        elg.setPolicy(LoopSelectPolicy.lbt);
+        EventLoopWrapper el0 = elg.get("el0");
+        EventLoopWrapper el1 = elg.get("el1");
+        // keep el0 busy
+        el0.getSelectorEventLoop().runOnLoop(() -> {
+            long start = System.currentTimeMillis();
+            while (System.currentTimeMillis() - start < 500) {
+                Thread.yield();
+            }
+        });
+        Thread.sleep(300);
+        assertTrue(el0.getSelectorEventLoop().getRecentBusyPermille() > el1.getSelectorEventLoop().getRecentBusyPermille());
+        assertSame(el1, elg.next());
+    }
+
+    @Test
+    public void leastBusyTimeSpreadsBurst() throws Exception {
+        elg.setPolicy(LoopSelectPolicy.lbt);
+        EventLoopWrapper el0 = elg.get("el0");
+        EventLoopWrapper el1 = elg.get("el1");
+        int count0 = el0.getSelectorEventLoop().getRegisteredChannelCount();
+        int count1 = el1.getSelectorEventLoop().getRegisteredChannelCount();
+        // a burst within one busy time window, the busy time does not change
+        for (int i = 0; i < 10; ++i) {
+            register(elg.next(), 1);
+        }
+        int added0 = el0.getSelectorEventLoop().getRegisteredChannelCount() - count0;
+        int added1 = el1.getSelectorEventLoop().getRegisteredChannelCount() - count1;
+        assertEquals(10, added0 + added1);
+        assertTrue("el0 got " + added0 + ", el1 got " + added1, added0 > 0 && added1 > 0);
+    }
+
+    @Test
+    public void powerOfTwoChoices() throws Exception {
+        elg.setPolicy(LoopSelectPolicy.p2c);
+        EventLoopWrapper el0 = elg.get("el0");
+        EventLoopWrapper el1 = elg.get("el1");
+        register(el1, 2);
+        // with only two loops, both are always chosen
+        for (int i = 0; i < 10; ++i) {
+            assertSame(el0, elg.next());
+        }
+    }
+
+    private static class NoopHandler implements Handler<DatagramChannel> {
+        @Override
+        public void accept(HandlerContext<DatagramChannel> ctx) {
+        }
+
+        @Override
+        public void connected(HandlerContext<DatagramChannel> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<DatagramChannel> ctx) {
+        }
+
+        @Override
+        public void writable(HandlerContext<DatagramChannel> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<DatagramChannel> ctx) {
+        }
+    }
+}
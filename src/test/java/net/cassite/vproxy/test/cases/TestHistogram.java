@@ -0,0 +1,138 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopConfig;
+import net.cassite.vproxy.util.Histogram;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestHistogram {
+    @Test
+    public void buckets() {
+        Histogram h = new Histogram("us");
+        h.record(0);
+        h.record(1);
+        h.record(2);
+        h.record(3);
+        h.record(1000);
+        h.record(-5); // treated as 0
+
+        long[] buckets = h.getBuckets();
+        assertEquals(2, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(2, buckets[2]);
+        assertEquals(1, buckets[10]); // [512, 1024)
+        assertEquals(6, h.getCount());
+        assertEquals(1006, h.getSum());
+        assertEquals(1000, h.getMax());
+
+        h.record(Long.MAX_VALUE);
+        assertEquals(1, h.getBuckets()[Histogram.BUCKETS - 1]);
+    }
+
+    @Test
+    public void percentile() {
+        Histogram h = new Histogram("ms");
+        assertEquals(0, h.getPercentile(99));
+        for (int i = 0; i < 99; ++i) {
+            h.record(5); // [4, 8)
+        }
+        h.record(300); // [256, 512)
+        assertEquals(7, h.getPercentile(50));
+        assertEquals(7, h.getPercentile(99));
+        assertEquals(300, h.getPercentile(100)); // never larger than max
+        assertEquals("count 100 avg 7ms p50 7ms p99 7ms max 300ms", h.toString());
+    }
+
+    @Test
+    public void window() {
+        Histogram h = new Histogram("ms");
+        h.record(1000);
+        assertSame("not rotated yet", h, h.getLastWindow());
+
+        h.rotate();
+        h.record(1);
+        h.record(2);
+        Histogram w = h.getLastWindow();
+        assertEquals(1, w.getCount());
+        assertEquals(1000, w.getMax());
+
+        h.rotate();
+        w = h.getLastWindow();
+        assertEquals("old values are not in the new window", 2, w.getCount());
+        assertEquals(3, w.getSum());
+        assertEquals(2, w.getMax());
+        assertEquals(2, w.getPercentile(99));
+        assertEquals(1, w.getBuckets()[1]);
+        assertEquals(1, w.getBuckets()[2]);
+
+        // values are still accumulated
+        assertEquals(3, h.getCount());
+        assertEquals(1000, h.getMax());
+
+        h.rotate();
+        assertEquals("empty window", 0, h.getLastWindow().getCount());
+        assertEquals(0, h.getLastWindow().getPercentile(99));
+    }
+
+    @Test
+    public void timerLatenessOfEachTimer() throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open(new SelectorEventLoopConfig().setRecordStatistics(true));
+        loop.loop(r -> new Thread(r, "timerLatenessOfEachTimer"));
+        try {
+            // fire in the same tick, the second one waits for the first one
+            CountDownLatch latch = new CountDownLatch(2);
+            loop.runOnLoop(() -> {
+                loop.delay(0, () -> {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException ignore) {
+                    }
+                    latch.countDown();
+                });
+                loop.delay(0, latch::countDown);
+            });
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertTrue("the second timer is late, got " + loop.getTimerLatenessHistogram(),
+                loop.getTimerLatenessHistogram().getMax() >= 100);
+        } finally {
+            loop.close();
+        }
+    }
+
+    @Test
+    public void loopStatistics() throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open(new SelectorEventLoopConfig().setRecordStatistics(true));
+        loop.loop(r -> new Thread(r, "TestHistogram"));
+        int[] fired = {0};
+        for (int i = 0; i < 10; ++i) {
+            loop.delay(i, () -> ++fired[0]);
+        }
+        long start = System.currentTimeMillis();
+        while (loop.getTimerLatenessHistogram().getCount() < 10) {
+            if (System.currentTimeMillis() - start > 5000) {
+                fail("timers not fired");
+            }
+            Thread.sleep(1);
+        }
+        loop.close();
+        assertEquals(10, fired[0]);
+        assertTrue(loop.getSelectTimeHistogram().getCount() > 0);
+        assertTrue(loop.getHandlingTimeHistogram().getCount() > 0);
+        assertTrue(loop.getTaskTimeHistogram().getCount() > 0);
+        assertTrue(loop.getReadyKeysHistogram().getCount() > 0);
+
+        SelectorEventLoop noStat = SelectorEventLoop.open(new SelectorEventLoopConfig().setRecordStatistics(false));
+        noStat.loop(r -> new Thread(r, "TestHistogramNoStat"));
+        noStat.delay(0, () -> {
+        });
+        Thread.sleep(100);
+        noStat.close();
+        assertEquals(0, noStat.getSelectTimeHistogram().getCount());
+        assertEquals(0, noStat.getTimerLatenessHistogram().getCount());
+    }
+}
@@ -0,0 +1,176 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopConfig;
+import net.cassite.vproxy.util.BoundedMPSCQueue;
+import net.cassite.vproxy.util.ChunkedMPSCQueue;
+import net.cassite.vproxy.util.MPSCQueue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestMPSCQueue {
+    private void concurrentOffer(MPSCQueue<int[]> q) throws Exception {
+        int producers = 4;
+        int perProducer = 100_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; ++p) {
+            int pid = p;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; ++i) {
+                    int[] e = {pid, i};
+                    while (!q.offer(e)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        int[] lastSeq = new int[producers];
+        for (int p = 0; p < producers; ++p) {
+            lastSeq[p] = -1;
+        }
+        int[] received = {0};
+        long start = System.currentTimeMillis();
+        while (received[0] < producers * perProducer) {
+            q.drain(e -> {
+                assertEquals("elements from one producer should keep the order", lastSeq[e[0]] + 1, e[1]);
+                lastSeq[e[0]] = e[1];
+                ++received[0];
+            });
+            assertTrue("timeout", System.currentTimeMillis() - start < 30_000);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+    }
+
+    @Test
+    public void boundedConcurrent() throws Exception {
+        concurrentOffer(new BoundedMPSCQueue<>(128));
+    }
+
+    @Test
+    public void chunkedConcurrent() throws Exception {
+        concurrentOffer(new ChunkedMPSCQueue<>(16));
+    }
+
+    @Test
+    public void boundedFull() {
+        BoundedMPSCQueue<Integer> q = new BoundedMPSCQueue<>(3);
+        assertEquals(4, q.capacity());
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(q.offer(i));
+        }
+        assertFalse(q.offer(4));
+        assertEquals(Integer.valueOf(0), q.poll());
+        assertTrue(q.offer(4));
+        assertEquals(4, q.size());
+    }
+
+    @Test
+    public void drainLeavesNewElements() {
+        MPSCQueue<Integer> q = new ChunkedMPSCQueue<>(2);
+        q.offer(1);
+        q.offer(2);
+        q.offer(3);
+        List<Integer> got = new ArrayList<>();
+        int n = q.drain(e -> {
+            got.add(e);
+            q.offer(e + 10);
+        });
+        assertEquals(3, n);
+        assertEquals(3, got.size());
+        assertEquals(3, q.size());
+        assertEquals(Integer.valueOf(11), q.poll());
+    }
+
+    private static SelectorEventLoop boundedLoop(int capacity) throws Exception {
+        return SelectorEventLoop.open(new SelectorEventLoopConfig().setTaskQueueCapacity(capacity));
+    }
+
+    @Test
+    public void boundedTaskQueueBeforeStarted() throws Exception {
+        SelectorEventLoop loop = boundedLoop(4);
+        try {
+            List<Integer> ran = new ArrayList<>();
+            CountDownLatch latch = new CountDownLatch(100);
+            for (int i = 0; i < 100; ++i) {
+                int n = i;
+                // should not wait for the loop which is not started
+                loop.nextTick(() -> {
+                    ran.add(n);
+                    latch.countDown();
+                });
+            }
+            assertEquals(100, loop.getPendingTaskCount());
+
+            loop.loop(r -> new Thread(r, "boundedTaskQueueBeforeStarted"));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 100; ++i) {
+                assertEquals("tasks should keep the order", Integer.valueOf(i), ran.get(i));
+            }
+        } finally {
+            loop.close();
+        }
+    }
+
+    @Test
+    public void boundedTaskQueuePostingToEachOther() throws Exception {
+        SelectorEventLoop a = boundedLoop(2);
+        SelectorEventLoop b = boundedLoop(2);
+        try {
+            a.loop(r -> new Thread(r, "boundedTaskQueuePostingToEachOther-a"));
+            b.loop(r -> new Thread(r, "boundedTaskQueuePostingToEachOther-b"));
+            int count = 10000;
+            CountDownLatch latch = new CountDownLatch(2 * count);
+            // each loop floods the other one, they would block each other if waiting for a full queue
+            a.nextTick(() -> {
+                for (int i = 0; i < count; ++i) {
+                    b.nextTick(latch::countDown);
+                }
+            });
+            b.nextTick(() -> {
+                for (int i = 0; i < count; ++i) {
+                    a.nextTick(latch::countDown);
+                }
+            });
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            a.close();
+            b.close();
+        }
+    }
+
+    @Test
+    public void overflowTasksAddedWhenRunningRunInNextTick() throws Exception {
+        SelectorEventLoop loop = boundedLoop(2);
+        try {
+            int[] lastTickCount = {-1};
+            CountDownLatch latch = new CountDownLatch(1);
+            loop.nextTick(() -> {
+                Runnable nop = () -> {
+                };
+                loop.nextTick(() -> loop.nextTick(() -> { // goes into the overflow queue
+                    lastTickCount[0] = loop.getLastIterationTaskCount();
+                    latch.countDown();
+                }));
+                loop.nextTick(nop); // the bounded queue is full
+                loop.nextTick(nop); // goes into the overflow queue
+            });
+            loop.loop(r -> new Thread(r, "overflowTasksAddedWhenRunningRunInNextTick"));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals("the task should run in the tick after the three tasks", 3, lastTickCount[0]);
+        } finally {
+            loop.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.component.svrgroup.Maglev;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TestMaglev {
+    private static class Elem {
+        final String key;
+        final int weight;
+
+        Elem(String key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+
+    private static final int CLIENTS = 65536;
+
+    private static List<Elem> elems(int... weights) {
+        List<Elem> list = new ArrayList<>();
+        for (int i = 0; i < weights.length; ++i) {
+            list.add(new Elem("svr" + i, weights[i]));
+        }
+        return list;
+    }
+
+    private static Maglev<Elem> maglev(List<Elem> list, Maglev<Elem> previous) {
+        return new Maglev<>(list, e -> e.key, e -> e.weight, previous);
+    }
+
+    private static InetAddress client(int i) throws Exception {
+        return InetAddress.getByAddress(new byte[]{10, (byte) (i >> 16), (byte) (i >> 8), (byte) i});
+    }
+
+    private static Elem[] lookupAll(Maglev<Elem> maglev) throws Exception {
+        Elem[] result = new Elem[CLIENTS];
+        for (int i = 0; i < CLIENTS; ++i) {
+            result[i] = maglev.lookup(client(i));
+        }
+        return result;
+    }
+
+    private static void assertShare(List<Elem> list, Elem[] picked) {
+        Map<Elem, Integer> counts = new HashMap<>();
+        for (Elem e : picked) {
+            counts.merge(e, 1, Integer::sum);
+        }
+        int totalWeight = 0;
+        for (Elem e : list) {
+            totalWeight += e.weight;
+        }
+        for (Elem e : list) {
+            double expected = (double) CLIENTS * e.weight / totalWeight;
+            int count = counts.getOrDefault(e, 0);
+            assertTrue("the share of " + e + " should follow the weight, expected " + expected + ", got " + counts,
+                count > expected * 0.95 && count < expected * 1.05);
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+        assertNull(maglev(elems(), null).lookup(client(1)));
+        assertNull("weight 0 is not in the table", maglev(elems(0, 0), null).lookup(client(1)));
+    }
+
+    @Test
+    public void sameClientSameElement() throws Exception {
+        List<Elem> list = elems(10, 10, 10);
+        Maglev<Elem> a = maglev(list, null);
+        Maglev<Elem> b = maglev(list, a);
+        Maglev<Elem> c = maglev(list, null);
+        for (int i = 0; i < 1000; ++i) {
+            Elem e = a.lookup(client(i));
+            assertSame(e, a.lookup(client(i)));
+            assertSame("rebuilding with the previous table should not change", e, b.lookup(client(i)));
+            assertSame("building from scratch should not change", e, c.lookup(client(i)));
+        }
+    }
+
+    @Test
+    public void shareFollowsWeight() throws Exception {
+        List<Elem> list = elems(10, 10, 10, 10);
+        assertShare(list, lookupAll(maglev(list, null)));
+
+        list = elems(1, 2, 3, 4);
+        assertShare(list, lookupAll(maglev(list, null)));
+
+        list = elems(5, 0, 15);
+        Elem[] picked = lookupAll(maglev(list, null));
+        for (Elem e : picked) {
+            assertNotSame("weight 0 should not be picked", list.get(1), e);
+        }
+        list.remove(1);
+        assertShare(list, picked);
+    }
+
+    @Test
+    public void removeOneElement() throws Exception {
+        List<Elem> list = elems(10, 10, 10, 10, 10);
+        Maglev<Elem> before = maglev(list, null);
+        Elem[] pickedBefore = lookupAll(before);
+
+        Elem removed = list.remove(2);
+        Maglev<Elem> after = maglev(list, before);
+        Elem[] pickedAfter = lookupAll(after);
+        assertShare(list, pickedAfter);
+
+        int stay = 0;
+        int moved = 0;
+        for (int i = 0; i < CLIENTS; ++i) {
+            assertNotSame("removed element should not be picked", removed, pickedAfter[i]);
+            if (pickedBefore[i] == removed)
+                continue;
+            if (pickedBefore[i] == pickedAfter[i]) {
+                ++stay;
+            } else {
+                ++moved;
+            }
+        }
+        // the paper shows a few percent of disruption when removing elements
+        assertTrue("most clients of the other elements should not be affected, stay: " + stay + ", moved: " + moved,
+            moved < (stay + moved) * 0.05);
+    }
+}
@@ -0,0 +1,115 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.MemoryBudget;
+import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestMemoryBudget {
+    @Test
+    public void rejectionCountedWhereRejected() {
+        MemoryBudget parent = new MemoryBudget("parent", 100, null);
+        MemoryBudget a = new MemoryBudget("a", 80, parent);
+        MemoryBudget b = new MemoryBudget("b", 0, parent);
+
+        assertTrue(a.tryReserve(60));
+        assertFalse("rejected by a", a.tryReserve(30));
+        assertEquals(1, a.getRejectedCount());
+        assertEquals(0, parent.getRejectedCount());
+
+        assertFalse("rejected by the parent", b.tryReserve(50));
+        assertEquals(0, b.getRejectedCount());
+        assertEquals(1, parent.getRejectedCount());
+        assertEquals("rolled back", 0, b.getUsed());
+        assertEquals(0, b.getHighWaterMark());
+        assertEquals(60, parent.getUsed());
+
+        assertTrue(b.tryReserve(40));
+        assertEquals(100, parent.getUsed());
+        assertEquals(100, parent.getHighWaterMark());
+        b.released(40);
+        a.released(60);
+        assertEquals(0, parent.getUsed());
+    }
+
+    @Test
+    public void concurrentReserve() throws Exception {
+        MemoryBudget parent = new MemoryBudget("parent", 0, null);
+        MemoryBudget share = new MemoryBudget("share", 100, parent);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger reserved = new AtomicInteger(0);
+        List<Thread> ts = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 100; ++i) {
+                    if (share.tryReserve(1)) {
+                        reserved.incrementAndGet();
+                    }
+                }
+            });
+            ts.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread t : ts) {
+            t.join();
+        }
+        assertEquals("never exceeds the limit", 100, reserved.get());
+        assertEquals(100, share.getUsed());
+        assertEquals(100, share.getHighWaterMark());
+        assertEquals(100, parent.getUsed());
+        assertEquals(threads * 100 - 100, share.getRejectedCount());
+    }
+
+    @Test
+    public void buffersTakeTheReservation() {
+        MemoryBudget budget = new MemoryBudget("budget", 0, null);
+        assertTrue(budget.tryReserve(1024 * 2));
+        RingBuffer eager = SimpleRingBuffer.allocateDirect(1024, budget);
+        SimpleRingBuffer lazy = SimpleRingBuffer.allocateDirectLazy(1024, budget);
+        assertEquals("not counted again", 1024 * 2, budget.getUsed());
+        assertFalse(lazy.isAttached());
+
+        eager.clean();
+        lazy.clean();
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void growWithinTheBudget() {
+        MemoryBudget budget = new MemoryBudget("budget", 1024 * 3, null);
+        assertTrue(budget.tryReserve(1024));
+        SimpleRingBuffer buf = SimpleRingBuffer.allocateDirectAdaptive(1024, 16384, false, null, budget);
+
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[1024]));
+        assertEquals("grows when filled up", 2048, buf.capacity());
+        assertEquals(1024 * 2, budget.getUsed());
+
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[1024]));
+        assertEquals("no room for 4096", 2048, buf.capacity());
+        assertEquals(1024 * 2, budget.getUsed());
+        assertEquals("growing is not a rejected connection", 0, budget.getRejectedCount());
+        assertEquals(2048, buf.used());
+
+        budget.setLimit(0);
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[1]));
+        assertEquals("grows when filled again", 4096, buf.capacity());
+        assertEquals(4096, budget.getUsed());
+        buf.clean();
+        assertEquals(0, budget.getUsed());
+    }
+}
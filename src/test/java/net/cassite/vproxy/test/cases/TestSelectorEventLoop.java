@@ -0,0 +1,214 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.selector.Handler;
+import net.cassite.vproxy.selector.HandlerContext;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestSelectorEventLoop {
+    private static class PipeHandler implements Handler<Pipe.SourceChannel> {
+        final CountDownLatch readable = new CountDownLatch(1);
+        final AtomicInteger removed = new AtomicInteger(0);
+
+        @Override
+        public void accept(HandlerContext<Pipe.SourceChannel> ctx) {
+        }
+
+        @Override
+        public void connected(HandlerContext<Pipe.SourceChannel> ctx) {
+        }
+
+        @Override
+        public void readable(HandlerContext<Pipe.SourceChannel> ctx) {
+            try {
+                ctx.getChannel().read(ByteBuffer.allocate(16));
+            } catch (IOException ignore) {
+            }
+            readable.countDown();
+        }
+
+        @Override
+        public void writable(HandlerContext<Pipe.SourceChannel> ctx) {
+        }
+
+        @Override
+        public void removed(HandlerContext<Pipe.SourceChannel> ctx) {
+            removed.incrementAndGet();
+        }
+    }
+
+    private SelectorEventLoop loop;
+    private Pipe pipe;
+
+    @Before
+    public void setUp() throws Exception {
+        pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (loop != null) {
+            loop.close();
+        }
+        pipe.source().close();
+        pipe.sink().close();
+    }
+
+    private void startLoop(boolean deferOperations) throws Exception {
+        loop = SelectorEventLoop.open(new SelectorEventLoopConfig().setDeferOperations(deferOperations));
+        loop.loop(r -> new Thread(r, "TestSelectorEventLoop"));
+        runOneRound();
+    }
+
+    private void runOneRound() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        loop.nextTick(latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    // run a task blocking the loop until the returned latch is released
+    private CountDownLatch blockLoop() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        loop.nextTick(() -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void writePipe() throws Exception {
+        pipe.sink().write(ByteBuffer.wrap("hello".getBytes()));
+    }
+
+    @Test
+    public void wakeupCoalesced() throws Exception {
+        startLoop(false);
+        // wait until the loop has nothing to do, then it's blocked in select
+        Thread.sleep(100);
+        long issued = loop.getWakeupIssuedCount();
+        long suppressed = loop.getWakeupSuppressedCount();
+
+        int count = 100;
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(count);
+        // the first task blocks the loop, so it cannot go back to select before all tasks are added
+        loop.nextTick(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+            done.countDown();
+        });
+        for (int i = 1; i < count; ++i) {
+            loop.nextTick(done::countDown);
+        }
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals("only the first task wakes up the selector", issued + 1, loop.getWakeupIssuedCount());
+        assertEquals("other tasks do not call wakeup", suppressed + count - 1, loop.getWakeupSuppressedCount());
+    }
+
+    @Test
+    public void deferredAddAppliedBeforeSelect() throws Exception {
+        startLoop(true);
+        writePipe();
+        PipeHandler handler = new PipeHandler();
+
+        CountDownLatch release = blockLoop();
+        loop.add(pipe.source(), SelectionKey.OP_READ, null, handler);
+        assertFalse("the registration is deferred", pipe.source().isRegistered());
+        assertEquals("counted when added", 1, loop.getRegisteredChannelCount());
+        assertEquals(SelectionKey.OP_READ, loop.getOps(pipe.source()));
+        assertEquals(1, loop.getPendingOperationCount());
+
+        release.countDown();
+        assertTrue("registered before select, so the data is read", handler.readable.await(5, TimeUnit.SECONDS));
+        assertTrue(pipe.source().isRegistered());
+        assertEquals(0, loop.getPendingOperationCount());
+        assertEquals(1, loop.getRegisteredChannelCount());
+    }
+
+    @Test
+    public void removeBeforeApplied() throws Exception {
+        startLoop(true);
+        writePipe();
+        PipeHandler handler = new PipeHandler();
+
+        CountDownLatch release = blockLoop();
+        loop.add(pipe.source(), SelectionKey.OP_READ, null, handler);
+        assertEquals(1, loop.getRegisteredChannelCount());
+        loop.remove(pipe.source());
+        assertEquals("removed from the pending registrations", 0, loop.getRegisteredChannelCount());
+        assertEquals(1, handler.removed.get());
+        loop.remove(pipe.source());
+        assertEquals("removing again does nothing", 0, loop.getRegisteredChannelCount());
+
+        release.countDown();
+        runOneRound();
+        runOneRound();
+        assertFalse("the removed registration is not applied", pipe.source().isRegistered());
+        assertEquals(1, handler.readable.getCount());
+        assertEquals(0, loop.getRegisteredChannelCount());
+        assertEquals(1, handler.removed.get());
+        assertEquals(0, loop.getPendingOperationCount());
+    }
+
+    @Test
+    public void deferredOpsCoalesced() throws Exception {
+        startLoop(true);
+        PipeHandler handler = new PipeHandler();
+        loop.addSync(pipe.source(), 0, null, handler);
+        writePipe();
+
+        CountDownLatch release = blockLoop();
+        long changes = loop.getInterestOpsChangeCount();
+        loop.addOps(pipe.source(), SelectionKey.OP_READ);
+        loop.rmOps(pipe.source(), SelectionKey.OP_READ);
+        loop.modify(pipe.source(), SelectionKey.OP_READ);
+        assertEquals(changes + 3, loop.getInterestOpsChangeCount());
+        assertEquals("the channel is queued once", 1, loop.getPendingOperationCount());
+        assertEquals("the latest ops", SelectionKey.OP_READ, loop.getOps(pipe.source()));
+
+        release.countDown();
+        assertTrue("the latest ops are applied", handler.readable.await(5, TimeUnit.SECONDS));
+        assertEquals(0, loop.getPendingOperationCount());
+    }
+
+    @Test
+    public void syncOperationsNotDeferred() throws Exception {
+        startLoop(true);
+        PipeHandler handler = new PipeHandler();
+
+        CountDownLatch release = blockLoop();
+        // the loop cannot apply deferred operations now
+        loop.addSync(pipe.source(), 0, null, handler);
+        assertTrue("registered when addSync returns", pipe.source().isRegistered());
+        loop.modifySync(pipe.source(), SelectionKey.OP_READ);
+        assertEquals("nothing is deferred", 0, loop.getPendingOperationCount());
+        assertEquals(1, loop.getRegisteredChannelCount());
+
+        writePipe();
+        release.countDown();
+        assertTrue("the ops are set by modifySync", handler.readable.await(5, TimeUnit.SECONDS));
+    }
+}
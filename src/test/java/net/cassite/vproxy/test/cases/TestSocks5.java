@@ -14,8 +14,10 @@ import net.cassite.vproxy.test.tool.IdServer;
 import net.cassite.vproxy.test.tool.Socks5Client;
 import org.junit.*;
 
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -135,4 +137,37 @@ public class TestSocks5 {
         assertTrue("weight same, so two count and three count should be the same",
             three - two > -2 && two - three < 2);
     }
+
+    @Test
+    public void budgetReleasedWhenClientsDropMidHandshake() throws Exception {
+        // in and out buffers of one connection take 16384 * 2 bytes
+        socks5.setMemoryBudgetLimit(16384 * 2 * 2);
+
+        for (int i = 0; i < 30; ++i) {
+            try (Socket sock = new Socket("127.0.0.1", lbPort)) {
+                OutputStream out = sock.getOutputStream();
+                if (i % 3 == 1) {
+                    out.write(5); // only the version of the greeting
+                } else if (i % 3 == 2) {
+                    out.write(new byte[]{4, 1, 0}); // unsupported version, the handshake fails
+                }
+                // otherwise close before sending anything
+                out.flush();
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        while (socks5.memoryBudget.getUsed() != 0) {
+            if (System.currentTimeMillis() - start > 2000)
+                break;
+            Thread.sleep(10);
+        }
+        assertEquals(0, socks5.memoryBudget.getUsed());
+
+        // new connections are still accepted
+        Socks5Client client = new Socks5Client(lbPort);
+        clients.add(client);
+        client.connect(AddressType.ipv4, "127.0.0.1", 19080);
+        assertEquals("0", client.sendAndRecv("anything", 1));
+    }
 }
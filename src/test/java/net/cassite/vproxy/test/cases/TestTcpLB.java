@@ -9,6 +9,7 @@ import net.cassite.vproxy.component.secure.SecurityGroupRule;
 import net.cassite.vproxy.component.svrgroup.Method;
 import net.cassite.vproxy.component.svrgroup.ServerGroup;
 import net.cassite.vproxy.component.svrgroup.ServerGroups;
+import net.cassite.vproxy.component.svrgroup.SvrHandleConnector;
 import net.cassite.vproxy.connection.BindServer;
 import net.cassite.vproxy.connection.Connection;
 import net.cassite.vproxy.connection.NetEventLoop;
@@ -18,14 +19,20 @@ import net.cassite.vproxy.test.tool.CaseUtils;
 import net.cassite.vproxy.test.tool.Client;
 import net.cassite.vproxy.test.tool.EchoServer;
 import net.cassite.vproxy.test.tool.IdServer;
+import net.cassite.vproxy.util.ByteArrayChannel;
 import net.cassite.vproxy.util.Utils;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
 import org.junit.*;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -102,6 +109,11 @@ public class TestTcpLB {
 
         sgEcho = new ServerGroup("sgEcho", elg0, new HealthCheckConfig(400, 1000, 1, 3), Method.wrr);
         sgEcho.add("echo", new InetSocketAddress("127.0.0.1", 20080), InetAddress.getByName("127.0.0.1"), 10);
+        // the echo server is running, set to healthy
+        // otherwise the first connections may come before the first check
+        for (ServerGroup.ServerHandle h : sgEcho.getServerHandles()) {
+            h.healthy = true;
+        }
 
         loop = SelectorEventLoop.open();
 
@@ -142,6 +154,399 @@ public class TestTcpLB {
         // now we know that the lb can proxy data
     }
 
+    private static String payload(int len) {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; ++i) {
+            sb.append(i % 10);
+        }
+        return sb.toString();
+    }
+
+    private Client connectClient() throws IOException {
+        Client client = new Client(lbPort);
+        client.connect();
+        clients.add(client);
+        return client;
+    }
+
+    @Test
+    public void proxyWithIOBudget() throws Exception {
+        sgs0.add(sgEcho, 10);
+        // read or write only a few bytes when the connection fires
+        lb0.setIOBudget(7);
+
+        String data = payload(1000);
+
+        Client client = connectClient();
+        for (int i = 0; i < 3; ++i) {
+            String recv = client.sendAndRecv(data, data.length());
+            assertEquals("all data should be proxied when the budget is small", data, recv);
+        }
+
+        List<Session> sessions = new LinkedList<>();
+        lb0.copySessions(sessions);
+        assertEquals(1, sessions.size());
+        assertEquals(7, sessions.get(0).active.getIOBudget());
+        assertEquals(7, sessions.get(0).passive.getIOBudget());
+    }
+
+    @Test
+    public void proxyWithLazyBuffers() throws Exception {
+        sgs0.add(sgEcho, 10);
+        lb0.setLazyBuffers(true);
+
+        // larger than the buffers
+        String data = payload(50000);
+
+        List<Client> idle = new LinkedList<>();
+        for (int i = 0; i < 3; ++i) {
+            Client client = connectClient();
+            idle.add(client);
+            assertEquals("all data should be proxied with lazy buffers", data, client.sendAndRecv(data, data.length()));
+            assertEquals("hello", client.sendAndRecv("hello", 5));
+        }
+
+        List<Session> sessions = new LinkedList<>();
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 2000) {
+            sessions.clear();
+            lb0.copySessions(sessions);
+            if (sessions.size() == 3 && sessions.stream().noneMatch(TestTcpLB::bufferAttached))
+                break;
+            Thread.sleep(10);
+        }
+        assertEquals(3, sessions.size());
+        for (Session s : sessions) {
+            assertTrue(((SimpleRingBuffer) s.active.getInBuffer()).isLazy());
+            assertFalse("idle connections should not hold buffers", bufferAttached(s));
+        }
+
+        // the idle connections still work
+        for (Client client : idle) {
+            assertEquals("hello again", client.sendAndRecv("hello again", 11));
+        }
+    }
+
+    @Test
+    public void proxyWithAdaptiveBuffers() throws Exception {
+        sgs0.add(sgEcho, 10);
+        lb0.setMinBufferSize(1024);
+
+        Client client = connectClient();
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+
+        List<Session> sessions = new LinkedList<>();
+        lb0.copySessions(sessions);
+        assertEquals(1, sessions.size());
+        SimpleRingBuffer in = (SimpleRingBuffer) sessions.get(0).active.getInBuffer();
+        assertTrue(in.isAdaptive());
+        assertEquals("buffers start from the min size", 1024, in.capacity());
+
+        String data = payload(100000);
+        for (int i = 0; i < 3; ++i) {
+            assertEquals("all data should be proxied when buffers are resized", data, client.sendAndRecv(data, data.length()));
+        }
+        assertTrue("buffers should grow for bulk transfer", lb0.getBufferGrowCount() > 0);
+        assertTrue(in.capacity() > 1024);
+        assertTrue(in.capacity() <= 16384);
+
+        // small requests for a while
+        for (int i = 0; i < 100; ++i) {
+            assertEquals("hello", client.sendAndRecv("hello", 5));
+        }
+        assertTrue("buffers should shrink when the usage is low", lb0.getBufferShrinkCount() > 0);
+    }
+
+    @Test
+    public void proxyWithMemoryBudget() throws Exception {
+        sgs0.add(sgEcho, 10);
+        // in and out buffers of one connection take 16384 * 2 bytes
+        lb0.setMemoryBudgetLimit(16384 * 2 * 2);
+
+        Client c1 = connectClient();
+        assertEquals("hello", c1.sendAndRecv("hello", 5));
+        Client c2 = connectClient();
+        assertEquals("hello", c2.sendAndRecv("hello", 5));
+        assertEquals(16384 * 2 * 2, lb0.memoryBudget.getUsed());
+
+        Client c3 = connectClient();
+        try {
+            c3.sendAndRecv("hello", 5);
+            fail("the connection should be rejected when the budget is exhausted");
+        } catch (IOException ignore) {
+        }
+        assertEquals(1, lb0.memoryBudget.getRejectedCount());
+        assertEquals(16384 * 2 * 2, lb0.memoryBudget.getHighWaterMark());
+
+        // the memory is given back when connections close
+        c1.close();
+        long start = System.currentTimeMillis();
+        while (lb0.memoryBudget.getUsed() != 16384 * 2) {
+            if (System.currentTimeMillis() - start > 2000)
+                break;
+            Thread.sleep(10);
+        }
+        assertEquals(16384 * 2, lb0.memoryBudget.getUsed());
+
+        Client c4 = connectClient();
+        assertEquals("hello", c4.sendAndRecv("hello", 5));
+        assertEquals("hello", c2.sendAndRecv("hello", 5));
+    }
+
+    @Test
+    public void proxyWithWatermarks() throws Exception {
+        sgs0.add(sgEcho, 10);
+        lb0.setWatermarks(100, 25);
+
+        Client client = connectClient();
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+
+        String data = payload(500000);
+        for (int i = 0; i < 3; ++i) {
+            assertEquals("all data should be proxied when reading pauses between watermarks", data, client.sendAndRecv(data, data.length()));
+        }
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+    }
+
+    @Test
+    public void proxyWithCorking() throws Exception {
+        sgs0.add(sgEcho, 10);
+        lb0.setCorkThreshold(1460);
+
+        Client client = connectClient();
+        for (int i = 0; i < 10; ++i) {
+            assertEquals("small writes should be flushed when the loop round ends", "hello" + i, client.sendAndRecv("hello" + i, 6));
+        }
+
+        List<Session> sessions = new LinkedList<>();
+        lb0.copySessions(sessions);
+        assertEquals(1, sessions.size());
+        Connection active = sessions.get(0).active;
+        SelectorEventLoop activeLoop = active.getEventLoop().getSelectorEventLoop();
+
+        // store small chunks into the frontend out buffer in one loop round
+        long[] writes = new long[2];
+        runOnLoopAndWait(activeLoop, () -> {
+            writes[0] = active.getToRemoteWrites();
+            for (int i = 0; i < 3; ++i) {
+                active.getOutBuffer().storeBytesFrom(ByteArrayChannel.fromFull(("corked" + i).getBytes()));
+            }
+            writes[1] = active.getToRemoteWrites();
+        });
+        assertEquals("small writes should not be written when stored", writes[0], writes[1]);
+        assertEquals("corked0corked1corked2", client.recv(21));
+        runOnLoopAndWait(activeLoop, () -> writes[1] = active.getToRemoteWrites());
+        assertEquals("small writes in one loop round should be merged into one write call", writes[0] + 1, writes[1]);
+
+        // cross the threshold in one loop round
+        String chunk = payload(1000);
+        runOnLoopAndWait(activeLoop, () -> {
+            writes[0] = active.getToRemoteWrites();
+            for (int i = 0; i < 3; ++i) {
+                active.getOutBuffer().storeBytesFrom(ByteArrayChannel.fromFull(chunk.getBytes()));
+                if (i == 0) {
+                    assertEquals("1000 bytes should be corked", writes[0], active.getToRemoteWrites());
+                }
+            }
+            writes[1] = active.getToRemoteWrites();
+        });
+        assertEquals("2000 bytes should be written when stored", writes[0] + 1, writes[1]);
+        assertEquals(chunk + chunk + chunk, client.recv(3000));
+        runOnLoopAndWait(activeLoop, () -> writes[1] = active.getToRemoteWrites());
+        assertEquals("the last 1000 bytes should be written when the round ends", writes[0] + 2, writes[1]);
+
+        String data = payload(100000);
+        assertEquals(data, client.sendAndRecv(data, data.length()));
+        assertEquals("hello", client.sendAndRecv("hello", 5));
+    }
+
+    private static void runOnLoopAndWait(SelectorEventLoop loop, Runnable r) throws Exception {
+        Throwable[] err = {null};
+        CountDownLatch latch = new CountDownLatch(1);
+        loop.runOnLoop(() -> {
+            try {
+                r.run();
+            } catch (Throwable t) {
+                err[0] = t;
+            }
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        if (err[0] != null)
+            throw new AssertionError(err[0]);
+    }
+
+    private static boolean bufferAttached(Session s) {
+        return ((SimpleRingBuffer) s.active.getInBuffer()).isAttached()
+            || ((SimpleRingBuffer) s.active.getOutBuffer()).isAttached();
+    }
+
+    @Test
+    public void proxyWithReusePort() throws Exception {
+        Assume.assumeTrue("SO_REUSEPORT not supported", BindServer.isReusePortSupported());
+        sgs0.add(sgEcho, 10);
+
+        EventLoopGroup acceptor = new EventLoopGroup("acceptor");
+        acceptor.add("a0");
+        acceptor.add("a1");
+        acceptor.add("a2");
+        TcpLB lb1 = new TcpLB("lb1", acceptor, elg0,
+            new InetSocketAddress("127.0.0.1", lbPort + 2), sgs0,
+            16384, 16384, secg0, 0, true);
+        try {
+            lb1.start();
+            assertEquals("each acceptor loop should have a listener", 3, lb1.listenerCount());
+            List<BindServer> servers = new LinkedList<>();
+            lb1.copyServers(servers);
+            assertEquals(3, servers.size());
+
+            for (int i = 0; i < 30; ++i) {
+                Client client = new Client(lbPort + 2);
+                client.connect();
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+                client.close();
+            }
+            // the counter is increased after the connection is handled
+            waitForAcceptedCount(lb1, 30);
+            // sessions of the closed clients are closed on the worker loop
+            waitForSessionCount(lb1, 0);
+            int acceptingServers = 0;
+            for (BindServer bs : servers) {
+                if (bs.getHistoryAcceptedConnectionCount() > 0)
+                    ++acceptingServers;
+            }
+            assertTrue("connections should be spread among the listeners", acceptingServers > 1);
+
+            // settings of the lb are shared by all listeners
+            lb1.setCorkThreshold(1460);
+
+            // keep some sessions open when a listener is removed
+            List<Client> opened = new LinkedList<>();
+            for (int i = 0; i < 12; ++i) {
+                Client client = new Client(lbPort + 2);
+                client.connect();
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+                opened.add(client);
+            }
+            waitForAcceptedCount(lb1, 42);
+            waitForSessionCount(lb1, 12);
+            List<Session> corked = new LinkedList<>();
+            lb1.copySessions(corked);
+            for (Session session : corked) {
+                assertEquals("the setting should apply to connections of every listener", 1460, session.active.getCorkThreshold());
+            }
+
+            // remove a loop, the lb should keep working with the rest
+            acceptor.remove("a1");
+            Thread.sleep(200);
+            assertEquals(2, lb1.listenerCount());
+            assertEquals("statistics should not go backwards", 42, lb1.getHistoryAcceptedConnectionCount());
+            assertEquals("sessions of the removed listener should still be counted", 12, lb1.sessionCount());
+            List<Session> sessions = new LinkedList<>();
+            lb1.copySessions(sessions);
+            assertEquals(12, sessions.size());
+            for (Client client : opened) {
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+                client.close();
+            }
+            waitForSessionCount(lb1, 0);
+            assertEquals("statistics should not go backwards after sessions closed", 42, lb1.getHistoryAcceptedConnectionCount());
+
+            for (int i = 0; i < 10; ++i) {
+                Client client = new Client(lbPort + 2);
+                client.connect();
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+                client.close();
+            }
+            waitForAcceptedCount(lb1, 52);
+
+            // add a loop back
+            acceptor.add("a3");
+            assertEquals(3, lb1.listenerCount());
+
+            lb1.stop();
+            assertEquals("only the primary server is kept", 1, lb1.listenerCount());
+        } finally {
+            lb1.destroy();
+            acceptor.close();
+        }
+    }
+
+    @Test
+    public void proxyHandleOnAcceptor() throws Exception {
+        sgs0.add(sgEcho, 10);
+
+        EventLoopGroup acceptor = new EventLoopGroup("acceptor");
+        acceptor.add("a0");
+        acceptor.add("a1");
+        boolean reusePort = BindServer.isReusePortSupported();
+        TcpLB lb1 = new TcpLB("lb1", acceptor, elg0,
+            new InetSocketAddress("127.0.0.1", lbPort + 2), sgs0,
+            16384, 16384, secg0, 0, reusePort);
+        lb1.setHandleOnAcceptLoop(true);
+        try {
+            lb1.start();
+            for (int i = 0; i < 10; ++i) {
+                Client client = new Client(lbPort + 2);
+                client.connect();
+                clients.add(client);
+                assertEquals("hello", client.sendAndRecv("hello", 5));
+            }
+
+            List<Session> sessions = new LinkedList<>();
+            lb1.copySessions(sessions);
+            assertEquals(10, sessions.size());
+            List<NetEventLoop> acceptorLoops = new LinkedList<>(acceptor.list());
+            for (Session s : sessions) {
+                assertTrue("the session should be handled on the acceptor loop",
+                    acceptorLoops.contains(s.active.getEventLoop()));
+                assertSame(s.active.getEventLoop(), s.passive.getEventLoop());
+            }
+
+            // switch back, new connections are handled on worker loops
+            lb1.setHandleOnAcceptLoop(false);
+            Client client = new Client(lbPort + 2);
+            client.connect();
+            clients.add(client);
+            assertEquals("hello", client.sendAndRecv("hello", 5));
+            // the session is recorded on the acceptor loop after it's registered into the worker loop
+            // so the data may be proxied before the session is recorded
+            long start = System.currentTimeMillis();
+            while (lb1.sessionCount() < 11 && System.currentTimeMillis() - start < 2000) {
+                Thread.sleep(10);
+            }
+            sessions.clear();
+            lb1.copySessions(sessions);
+            assertEquals(11, sessions.size());
+            NetEventLoop worker = elg0.get("el0");
+            long onWorker = sessions.stream().filter(s -> s.active.getEventLoop() == worker).count();
+            assertEquals(1, onWorker);
+        } finally {
+            lb1.destroy();
+            acceptor.close();
+        }
+    }
+
+    private static void waitForSessionCount(TcpLB lb, int expected) throws Exception {
+        long start = System.currentTimeMillis();
+        while (lb.sessionCount() != expected) {
+            if (System.currentTimeMillis() - start > 2000)
+                break;
+            Thread.sleep(10);
+        }
+        assertEquals(expected, lb.sessionCount());
+    }
+
+    private static void waitForAcceptedCount(TcpLB lb, long expected) throws Exception {
+        long start = System.currentTimeMillis();
+        while (lb.getHistoryAcceptedConnectionCount() < expected) {
+            if (System.currentTimeMillis() - start > 2000)
+                break;
+            Thread.sleep(10);
+        }
+        assertEquals(expected, lb.getHistoryAcceptedConnectionCount());
+    }
+
     @Test
     public void proxyWRR() throws Exception {
         // add sg0 to sgs0
@@ -319,6 +724,188 @@ public class TestTcpLB {
         }
     }
 
+    private static int port(SvrHandleConnector connector) {
+        return connector.remote.getPort();
+    }
+
+    @Test
+    public void proxyMaglev() throws Exception {
+        sgs0.add(sg0, 10);
+        sg0.setMethod(Method.maglev);
+
+        // all clients are from 127.0.0.1
+        String first = null;
+        for (int i = 0; i < 10; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+            clients.add(client);
+            String recv = client.sendAndRecv("anything", 1);
+            if (first == null) {
+                first = recv;
+            }
+            assertEquals("the same client should always go to the same server", first, recv);
+        }
+
+        // add one more server
+        ServerGroup.ServerHandle svr2 = sg0.add("svr2", new InetSocketAddress("127.0.0.1", 19082), InetAddress.getByName("127.0.0.1"), 5);
+        svr2.healthy = true;
+        svr2.setWeight(10); // the health state is changed manually, set weight to rebuild the table
+
+        int total = 3000;
+        Map<Integer, Integer> ports = new HashMap<>();
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < total; ++i) {
+            InetAddress addr = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+            int port = port(sg0.next(addr));
+            assertEquals("should be the same when picking again", port, port(sg0.next(addr)));
+            ports.put(i, port);
+            counts.merge(port, 1, Integer::sum);
+        }
+        for (int port = 19080; port <= 19082; ++port) {
+            int count = counts.getOrDefault(port, 0);
+            assertTrue("the clients should be evenly distributed: " + counts, count > total / 3 * 0.8 && count < total / 3 * 1.2);
+        }
+
+        // remove svr2 from the table
+        svr2.setWeight(0);
+        int moved = 0;
+        for (int i = 0; i < total; ++i) {
+            InetAddress addr = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+            int port = port(sg0.next(addr));
+            assertNotEquals("svr2 should not be picked", 19082, port);
+            int old = ports.get(i);
+            if (old != 19082 && old != port) {
+                ++moved;
+            }
+        }
+        assertTrue("most clients of other servers should not be affected, moved: " + moved, moved < total / 3 * 2 / 10);
+
+        // svr1 is down (the table is not rebuilt in this test), its clients go to other servers
+        ServerGroup.ServerHandle svr1 = sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr1")).findFirst().get();
+        svr1.healthy = false;
+        for (int i = 0; i < 100; ++i) {
+            InetAddress addr = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+            assertEquals(19080, port(sg0.next(addr)));
+        }
+    }
+
+    @Test
+    public void proxyP2C() throws Exception {
+        // with 2 servers, both are always sampled
+        // so the one with less connections per weight is picked
+        sgs0.add(sg0, 10);
+        sg0.setMethod(Method.p2c);
+        ServerGroup.ServerHandle svr0 = sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr0")).findFirst().get();
+        ServerGroup.ServerHandle svr1 = sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr1")).findFirst().get();
+        svr0.setWeight(5);
+
+        for (int i = 0; i < 12; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+            clients.add(client);
+            client.sendAndRecv("anything", 1);
+            // and we do not release the connections
+        }
+        assertEquals("weight 5 : 10, so connections should be 4 : 8", 4, svr0.connectionCount());
+        assertEquals("weight 5 : 10, so connections should be 4 : 8", 8, svr1.connectionCount());
+
+        // make svr1 DOWN
+        svr1.healthy = false;
+        for (int i = 0; i < 5; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+            clients.add(client);
+            assertEquals("svr1 is DOWN", "0", client.sendAndRecv("anything", 1));
+        }
+        assertEquals(9, svr0.connectionCount());
+
+        // close connections
+        for (Client c : clients) {
+            c.close();
+        }
+        clients.clear();
+        Thread.sleep(500);
+        assertEquals("connection count should be decreased when closed", 0, svr0.connectionCount());
+        assertEquals("connection count should be decreased when closed", 0, svr1.connectionCount());
+    }
+
+    @Test
+    public void proxyEWMA() throws Exception {
+        sgs0.add(sg0, 10);
+        sg0.setMethod(Method.ewma);
+        ServerGroup.ServerHandle svr0 = sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr0")).findFirst().get();
+        ServerGroup.ServerHandle svr1 = sg0.getServerHandles().stream().filter(s -> s.alias.equals("svr1")).findFirst().get();
+
+        // both servers are local, the latency should be similar
+        // so the connections are spread by connection count
+        for (int i = 0; i < 10; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+            clients.add(client);
+            client.sendAndRecv("anything", 1);
+            // and we do not release the connections
+        }
+        assertTrue("the connect cost should be measured", svr0.getConnectCostEwma() > 0);
+        assertTrue("the connect cost should be measured", svr1.getConnectCostEwma() > 0);
+        assertTrue("connections should be spread", svr0.connectionCount() > 0);
+        assertTrue("connections should be spread", svr1.connectionCount() > 0);
+        assertEquals(10, svr0.connectionCount() + svr1.connectionCount());
+
+        // svr1 slows down, it should receive less connections
+        svr1.recordConnectCost(50_000_000, System.nanoTime());
+        int count0 = svr0.connectionCount();
+        int count1 = svr1.connectionCount();
+        for (int i = 0; i < 10; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+            clients.add(client);
+            client.sendAndRecv("anything", 1);
+        }
+        count0 = svr0.connectionCount() - count0;
+        count1 = svr1.connectionCount() - count1;
+        assertEquals(10, count0 + count1);
+        assertTrue("the slow server should receive less connections: svr0 " + count0 + ", svr1 " + count1, count1 < count0);
+
+        // make svr1 DOWN
+        svr1.healthy = false;
+        for (int i = 0; i < 5; ++i) {
+            Client client = new Client(lbPort);
+            client.connect();
+            clients.add(client);
+            assertEquals("svr1 is DOWN", "0", client.sendAndRecv("anything", 1));
+        }
+    }
+
+    @Test
+    public void ewmaPeakAndDecay() throws Exception {
+        // no event loops, so no health check records the cost
+        EventLoopGroup noLoop = new EventLoopGroup("noLoop");
+        ServerGroup sg = new ServerGroup("sgEwma", noLoop, new HealthCheckConfig(400, 1000, 2, 3), Method.ewma);
+        ServerGroup.ServerHandle h = sg.add("svr", new InetSocketAddress("127.0.0.1", 19080), InetAddress.getByName("127.0.0.1"), 10);
+        assertEquals("not measured yet", 0, h.getConnectCostEwma(), 0);
+
+        long decay = 10_000_000_000L;
+        long now = System.nanoTime();
+        h.recordConnectCost(1_000_000, now);
+        assertEquals("the first sample is taken directly", 1_000_000, h.getConnectCostEwma(), 0);
+        h.recordConnectCost(5_000_000, now);
+        assertEquals("the peak is taken directly", 5_000_000, h.getConnectCostEwma(), 0);
+        h.recordConnectCost(1_000_000, now);
+        assertEquals("a smaller sample right after the peak does not lower it", 5_000_000, h.getConnectCostEwma(), 0);
+
+        now += decay;
+        h.recordConnectCost(1_000_000, now);
+        double w = Math.exp(-1);
+        assertEquals("the average decays", 5_000_000 * w + 1_000_000 * (1 - w), h.getConnectCostEwma(), 1);
+
+        now += decay * 100;
+        h.recordConnectCost(2_000_000, now);
+        assertEquals("the old average is forgotten", 2_000_000, h.getConnectCostEwma(), 1);
+
+        sg.remove("svr");
+        noLoop.close();
+    }
+
     @Test
     public void proxyWLC() throws Exception {
         // to test wlc, we should select one server and make it DOWN
@@ -0,0 +1,136 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.selector.SelectorEventLoopConfig;
+import net.cassite.vproxy.selector.TimerEngine;
+import net.cassite.vproxy.util.TimeElem;
+import net.cassite.vproxy.util.TimingWheel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestTimingWheel {
+    private static List<Integer> popAll(TimingWheel<Integer> wheel) {
+        List<Integer> ls = new ArrayList<>();
+        while (wheel.nextTime() == 0) {
+            ls.add(wheel.pop());
+        }
+        return ls;
+    }
+
+    @Test
+    public void expireInOrder() {
+        TimingWheel<Integer> wheel = new TimingWheel<>();
+        long now = 1_000_000_000L;
+        wheel.setCurrent(now);
+        wheel.push(10, 10);
+        wheel.push(300, 300);
+        wheel.push(70_000, 70_000);
+        wheel.push(20_000_000, 20_000_000);
+        assertEquals(10, wheel.nextTime());
+
+        wheel.setCurrent(now + 9);
+        assertTrue(popAll(wheel).isEmpty());
+        wheel.setCurrent(now + 10);
+        assertEquals(Arrays.asList(10), popAll(wheel));
+
+        wheel.setCurrent(now + 299);
+        assertTrue(popAll(wheel).isEmpty());
+        wheel.setCurrent(now + 300);
+        assertEquals(Arrays.asList(300), popAll(wheel));
+
+        wheel.setCurrent(now + 69_999);
+        assertTrue(popAll(wheel).isEmpty());
+        wheel.setCurrent(now + 70_000);
+        assertEquals(Arrays.asList(70_000), popAll(wheel));
+
+        wheel.setCurrent(now + 19_999_999);
+        assertTrue(popAll(wheel).isEmpty());
+        wheel.setCurrent(now + 20_000_000);
+        assertEquals(Arrays.asList(20_000_000), popAll(wheel));
+
+        assertTrue(wheel.isEmpty());
+        assertEquals(Integer.MAX_VALUE, wheel.nextTime());
+    }
+
+    @Test
+    public void cancel() {
+        TimingWheel<Integer> wheel = new TimingWheel<>();
+        long now = 123_456_789L;
+        wheel.setCurrent(now);
+        TimeElem<Integer> a = wheel.push(100, 1);
+        wheel.push(200, 2);
+        TimeElem<Integer> c = wheel.push(100_000, 3);
+        a.removeSelf();
+        c.removeSelf();
+        c.removeSelf(); // removing twice should be fine
+        wheel.setCurrent(now + 1_000_000);
+        assertEquals(Arrays.asList(2), popAll(wheel));
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void neverFireEarly() {
+        Random rand = new Random(42);
+        TimingWheel<Integer> wheel = new TimingWheel<>(3);
+        long now = 987_654_321L;
+        wheel.setCurrent(now);
+        int total = 10000;
+        long[] triggerTimes = new long[total];
+        for (int i = 0; i < total; ++i) {
+            int timeout = rand.nextInt(200_000);
+            triggerTimes[i] = now + timeout;
+            wheel.push(timeout, i);
+        }
+        int fired = 0;
+        while (fired < total) {
+            int next = wheel.nextTime();
+            assertNotEquals(Integer.MAX_VALUE, next);
+            // the loop may wake up a little later than expected
+            now += next + rand.nextInt(5);
+            wheel.setCurrent(now);
+            for (int i : popAll(wheel)) {
+                assertTrue("should not fire early", triggerTimes[i] <= now);
+                // at most 1 tick late (plus the delay added above)
+                assertTrue("should not fire too late", now - triggerTimes[i] < 3 + 5);
+                ++fired;
+            }
+        }
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void clockJump() {
+        TimingWheel<Integer> wheel = new TimingWheel<>();
+        long now = 1_000L;
+        wheel.setCurrent(now);
+        wheel.push(10, 1);
+        wheel.push(1_000_000, 2);
+        now += 500_000_000L; // a jump of days
+        wheel.setCurrent(now);
+        assertEquals(Arrays.asList(1, 2), popAll(wheel));
+    }
+
+    @Test
+    public void runInEventLoop() throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open(new SelectorEventLoopConfig().setTimerEngine(TimerEngine.wheel));
+        loop.loop(r -> new Thread(r, "EventLoop"));
+        try {
+            boolean[] done = {false, false, false};
+            loop.delay(200, () -> done[0] = true).cancel();
+            loop.delay(100, () -> done[1] = true);
+            loop.delay(400, () -> done[2] = true);
+            Thread.sleep(250);
+            assertArrayEquals("100 ms", new boolean[]{false, true, false}, done);
+            Thread.sleep(250);
+            assertArrayEquals("400 ms", new boolean[]{false, true, true}, done);
+        } finally {
+            loop.close();
+        }
+    }
+}
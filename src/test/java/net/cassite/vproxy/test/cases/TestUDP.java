@@ -12,11 +12,14 @@ import org.junit.*;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.channels.NetworkChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @SuppressWarnings("Duplicates")
@@ -138,6 +141,102 @@ public class TestUDP {
         assertEquals(clientCount, step2);
     }
 
+    @Test
+    public void batchReceive() throws Exception {
+        BindServer udpServer = BindServer.createUDP(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 18081));
+        udpServer.setRecvPacketBudget(4);
+
+        // send packets before the server is added into the loop
+        // so that they are all pending when the first readable event fires
+        int packetCount = 100;
+        DatagramChannel client = DatagramChannel.open();
+        client.connect(new InetSocketAddress("127.0.0.1", 18081));
+        for (int i = 0; i < packetCount; ++i) {
+            client.write(ByteBuffer.wrap("hello".getBytes()));
+        }
+        client.close();
+
+        netEventLoop.addServer(udpServer, null, new ServerHandler() {
+            @Override
+            public void acceptFail(ServerHandlerContext ctx, IOException err) {
+                fail("acceptFail() will not fire");
+            }
+
+            @Override
+            public void connection(ServerHandlerContext ctx, Connection connection) {
+                step.incrementAndGet();
+            }
+
+            @Override
+            public Tuple<RingBuffer, RingBuffer> getIOBuffers(NetworkChannel channel) {
+                return new Tuple<>(RingBuffer.allocateDirect(32), RingBuffer.allocateDirect(32));
+            }
+
+            @Override
+            public void removed(ServerHandlerContext ctx) {
+                if (!finalizing) {
+                    fail("the loop not closed, removed() should not fire");
+                }
+            }
+
+            @Override
+            public void exception(ServerHandlerContext ctx, IOException err) {
+                fail("should not get exception");
+            }
+
+            @Override
+            public ConnectionHandler udpHandler(ServerHandlerContext ctx, Connection conn) {
+                return new ConnectionHandler() {
+                    @Override
+                    public void readable(ConnectionHandlerContext ctx) {
+                        byte[] bytes = new byte[32];
+                        ByteArrayChannel chnl = ByteArrayChannel.fromEmpty(bytes);
+                        int size = ctx.connection.getInBuffer().writeTo(chnl);
+                        assertEquals("hello", new String(bytes, 0, size, StandardCharsets.UTF_8));
+                        ++step2;
+                    }
+
+                    @Override
+                    public void writable(ConnectionHandlerContext ctx) {
+                        // ignore
+                    }
+
+                    @Override
+                    public void exception(ConnectionHandlerContext ctx, IOException err) {
+                        fail("exception fired");
+                    }
+
+                    @Override
+                    public void closed(ConnectionHandlerContext ctx) {
+                        // ignore
+                    }
+
+                    @Override
+                    public void removed(ConnectionHandlerContext ctx) {
+                        // ignore
+                    }
+                };
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        while (udpServer.getRecvPacketCount() < packetCount) {
+            if (System.currentTimeMillis() - start > 5000) {
+                fail("only " + udpServer.getRecvPacketCount() + " packets received");
+            }
+            Thread.sleep(1);
+        }
+
+        assertEquals(1, step.get()); // all packets are from the same remote
+        assertEquals(packetCount, step2);
+        assertEquals(packetCount * 5, udpServer.getFromRemoteBytes());
+        assertTrue("the budget should limit packets in one wakeup",
+            udpServer.getRecvWakeupCount() >= packetCount / 4);
+        assertTrue("the budget should be exhausted", udpServer.getRecvBudgetExhaustedCount() > 0);
+        assertEquals(0, udpServer.getRecvDroppedCount());
+        assertEquals(0, udpServer.getLastWakeupRecvDropped());
+    }
+
     @Test
     public void udpClient() throws Exception {
         ClientConnection udp = ClientConnection.createUDP(
@@ -0,0 +1,186 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.component.svrgroup.WLC;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestWLC {
+    private static class Elem {
+        final int idx;
+        final int weight;
+        final AtomicInteger load = new AtomicInteger(0);
+        volatile boolean healthy = true;
+
+        Elem(int idx, int weight) {
+            this.idx = idx;
+            this.weight = weight;
+        }
+
+        @Override
+        public String toString() {
+            return "Elem(" + idx + ", w=" + weight + ", c=" + load.get() + ", " + (healthy ? "UP" : "DOWN") + ")";
+        }
+    }
+
+    private static List<Elem> elems(int... weights) {
+        List<Elem> list = new ArrayList<>();
+        for (int i = 0; i < weights.length; ++i) {
+            list.add(new Elem(i, weights[i]));
+        }
+        return list;
+    }
+
+    private static WLC<Elem> wlc(List<Elem> list) {
+        return new WLC<>(list, e -> e.weight, e -> e.load.get(), e -> e.healthy);
+    }
+
+    // the linear scan which the heap should agree with
+    private static Elem scan(List<Elem> list) {
+        Elem m = null;
+        for (Elem e : list) {
+            if (e.weight <= 0 || !e.healthy)
+                continue;
+            if (m == null || (long) m.load.get() * e.weight > (long) e.load.get() * m.weight) {
+                m = e;
+            }
+        }
+        return m;
+    }
+
+    @Test
+    public void leastLoadPerWeight() {
+        List<Elem> list = elems(5, 10, 0, 10);
+        WLC<Elem> wlc = wlc(list);
+        assertSame("ties are broken by the order", list.get(0), wlc.next());
+
+        // attach connections to the picked one, like the server group does
+        for (int i = 0; i < 25; ++i) {
+            Elem e = wlc.next();
+            assertNotEquals("weight 0 should never be picked", 2, e.idx);
+            e.load.incrementAndGet();
+            wlc.update(e);
+        }
+        assertEquals("weight 5 : 10 : 10", 5, list.get(0).load.get());
+        assertEquals("weight 5 : 10 : 10", 10, list.get(1).load.get());
+        assertEquals("weight 5 : 10 : 10", 10, list.get(3).load.get());
+
+        // close connections on one element
+        list.get(3).load.set(2);
+        wlc.update(list.get(3));
+        assertSame(list.get(3), wlc.next());
+    }
+
+    @Test
+    public void randomLoadsAgreeWithScan() {
+        Random rand = new Random(1);
+        int[] weights = new int[200];
+        for (int i = 0; i < weights.length; ++i) {
+            weights[i] = rand.nextInt(10); // some are 0
+        }
+        List<Elem> list = elems(weights);
+        WLC<Elem> wlc = wlc(list);
+        for (int i = 0; i < 10000; ++i) {
+            Elem e = list.get(rand.nextInt(list.size()));
+            if (rand.nextInt(3) == 0) {
+                e.healthy = !e.healthy;
+                wlc.availableChanged(e);
+            } else {
+                e.load.set(rand.nextInt(50));
+                wlc.update(e);
+            }
+            assertSame(scan(list), wlc.next());
+        }
+    }
+
+    @Test
+    public void unavailable() {
+        List<Elem> list = elems(10, 10, 10);
+        WLC<Elem> wlc = wlc(list);
+        list.get(1).load.set(5);
+        wlc.update(list.get(1));
+        list.get(2).load.set(5);
+        wlc.update(list.get(2));
+
+        // notified
+        list.get(0).healthy = false;
+        wlc.availableChanged(list.get(0));
+        assertSame(list.get(1), wlc.next());
+        list.get(0).load.set(100); // the load is read when it comes back
+        wlc.update(list.get(0));
+        list.get(0).healthy = true;
+        wlc.availableChanged(list.get(0));
+        assertSame(list.get(1), wlc.next());
+        list.get(0).load.set(0);
+        wlc.update(list.get(0));
+        assertSame(list.get(0), wlc.next());
+
+        // modified without notification
+        list.get(0).healthy = false;
+        assertSame(list.get(1), wlc.next());
+        list.get(0).healthy = true;
+        assertSame(list.get(0), wlc.next());
+
+        for (Elem e : list) {
+            e.healthy = false;
+        }
+        assertNull(wlc.next());
+    }
+
+    @Test
+    public void concurrentUpdates() throws Exception {
+        List<Elem> list = elems(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+        WLC<Elem> wlc = wlc(list);
+        int threads = 4;
+        List<Thread> ts = new ArrayList<>();
+        AtomicInteger errors = new AtomicInteger(0);
+        for (int t = 0; t < threads; ++t) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom rand = ThreadLocalRandom.current();
+                List<Elem> attached = new ArrayList<>();
+                for (int i = 0; i < 100000; ++i) {
+                    if (attached.isEmpty() || rand.nextBoolean()) {
+                        Elem e = wlc.next();
+                        if (e == null) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                        e.load.incrementAndGet();
+                        wlc.update(e);
+                        attached.add(e);
+                    } else {
+                        Elem e = attached.remove(rand.nextInt(attached.size()));
+                        e.load.decrementAndGet();
+                        wlc.update(e);
+                    }
+                }
+            });
+            ts.add(thread);
+            thread.start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        assertEquals(0, errors.get());
+        // all updates are applied, the heap should agree with the current loads
+        Elem expected = scan(list);
+        Elem picked = wlc.next();
+        assertEquals((long) expected.load.get() * picked.weight, (long) picked.load.get() * expected.weight);
+        assertSame(expected, picked);
+
+        // loads changed while building are fixed by reload
+        WLC<Elem> wlc2 = wlc(list);
+        for (Elem e : list) {
+            e.load.set(10);
+        }
+        list.get(19).load.set(0);
+        wlc2.reload();
+        assertSame(list.get(19), wlc2.next());
+    }
+}
@@ -0,0 +1,180 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.component.svrgroup.WRR;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class TestWRR {
+    private static class Elem {
+        final String name;
+        int weight;
+
+        Elem(String name, int weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + weight + ")";
+        }
+    }
+
+    private static WRR<Elem> wrr(List<Elem> list, WRR<Elem> previous) {
+        return new WRR<>(list, e -> e.weight, previous);
+    }
+
+    private static List<Elem> picks(WRR<Elem> wrr, Predicate<Elem> available, int n) {
+        List<Elem> picks = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            picks.add(wrr.next(available));
+        }
+        return picks;
+    }
+
+    private static List<Elem> without(List<Elem> list, Elem e) {
+        List<Elem> ret = new ArrayList<>(list);
+        ret.remove(e);
+        return ret;
+    }
+
+    @Test
+    public void picksFollowWeights() {
+        Elem a = new Elem("a", 5);
+        Elem b = new Elem("b", 1);
+        Elem c = new Elem("c", 3);
+        Elem z = new Elem("z", 0);
+        List<Elem> list = new ArrayList<>();
+        list.add(a);
+        list.add(b);
+        list.add(z);
+        list.add(c);
+        WRR<Elem> wrr = wrr(list, null);
+
+        int rounds = 1000;
+        Map<Elem, Integer> counts = new HashMap<>();
+        for (Elem e : picks(wrr, e -> true, rounds * 9)) {
+            counts.merge(e, 1, Integer::sum);
+        }
+        assertNull("weight 0 should never be picked", counts.get(z));
+        // the deadlines are spread, so the counts can differ by 1 at most
+        assertEquals(rounds * 5, counts.get(a), 1);
+        assertEquals(rounds, counts.get(b), 1);
+        assertEquals(rounds * 3, counts.get(c), 1);
+
+        // weight changes are applied in place
+        a.weight = 1;
+        assertTrue(wrr.setWeight(a, 1));
+        z.weight = 5;
+        assertTrue(wrr.setWeight(z, 5));
+        counts.clear();
+        for (Elem e : picks(wrr, e -> true, rounds * 10)) {
+            counts.merge(e, 1, Integer::sum);
+        }
+        assertEquals(rounds, counts.get(a), 2);
+        assertEquals(rounds, counts.get(b), 2);
+        assertEquals(rounds * 3, counts.get(c), 2);
+        assertEquals(rounds * 5, counts.get(z), 2);
+
+        assertFalse("not in the wrr", wrr.setWeight(new Elem("x", 1), 1));
+    }
+
+    @Test
+    public void deadlinesSurviveAddAndRemove() {
+        Elem a = new Elem("a", 3);
+        Elem b = new Elem("b", 2);
+        Elem c = new Elem("c", 1);
+        List<Elem> list = new ArrayList<>();
+        list.add(a);
+        list.add(b);
+        list.add(c);
+        WRR<Elem> ref = wrr(list, null);
+        picks(ref, e -> true, 10);
+
+        WRR<Elem> kept = wrr(list, ref);
+        WRR<Elem> removed = wrr(without(list, c), ref);
+        List<Elem> added = new ArrayList<>(list);
+        Elem d = new Elem("d", 4);
+        added.add(d);
+        WRR<Elem> withNew = wrr(added, ref);
+
+        int n = 600;
+        List<Elem> expected = picks(ref, e -> true, n);
+        assertEquals("the same as if not rebuilt", expected, picks(kept, e -> true, n));
+
+        // other elements keep their deadlines, so they are picked in the same order
+        List<Elem> expectedWithoutC = new ArrayList<>(expected);
+        expectedWithoutC.removeIf(e -> e == c);
+        assertEquals(expectedWithoutC, picks(removed, e -> true, expectedWithoutC.size()));
+
+        List<Elem> got = new ArrayList<>(n);
+        while (got.size() < n) {
+            Elem e = withNew.next(x -> true);
+            if (e != d) {
+                got.add(e);
+            }
+        }
+        assertEquals(expected, got);
+    }
+
+    @Test
+    public void unavailableSkipped() {
+        Elem a = new Elem("a", 3);
+        Elem b = new Elem("b", 2);
+        Elem c = new Elem("c", 1);
+        List<Elem> list = new ArrayList<>();
+        list.add(a);
+        list.add(b);
+        list.add(c);
+        WRR<Elem> ref = wrr(list, null);
+        WRR<Elem> wrr = wrr(list, ref);
+
+        // skipped as if picked, so the others are picked in the same order
+        int n = 600;
+        List<Elem> expected = picks(ref, e -> true, n);
+        expected.removeIf(e -> e == c);
+        assertEquals(expected, picks(wrr, e -> e != c, expected.size()));
+
+        assertNull("nothing available", wrr.next(e -> false));
+        assertNotNull(wrr.next(e -> true));
+    }
+
+    @Test
+    public void concurrentPicks() throws Exception {
+        List<Elem> list = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            list.add(new Elem("e" + i, i + 1));
+        }
+        WRR<Elem> wrr = wrr(list, null);
+        int threads = 8;
+        int perThread = 55 * 2000;
+        AtomicLongArray counts = new AtomicLongArray(list.size());
+        List<Thread> ts = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; ++i) {
+                    Elem e = wrr.next(x -> true);
+                    counts.incrementAndGet(e.weight - 1);
+                }
+            });
+            ts.add(thread);
+            thread.start();
+        }
+        for (Thread t : ts) {
+            t.join();
+        }
+        // each shard is in proportion to the weights, so the total is as well
+        long total = (long) threads * perThread;
+        for (int i = 0; i < list.size(); ++i) {
+            assertEquals("e" + i, total * (i + 1) / 55, counts.get(i), threads);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package net.cassite.vproxy.test.cases;
+
+import net.cassite.vproxy.selector.Handler;
+import net.cassite.vproxy.selector.HandlerContext;
+import net.cassite.vproxy.selector.SelectorEventLoop;
+import net.cassite.vproxy.util.ByteArrayChannel;
+import net.cassite.vproxy.util.RingBuffer;
+import net.cassite.vproxy.util.RingBufferETHandler;
+import net.cassite.vproxy.util.ringbuffer.SimpleRingBuffer;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TestWatermarks {
+    private static class CountingETHandler implements RingBufferETHandler {
+        int readable = 0;
+        int writable = 0;
+
+        @Override
+        public void readableET() {
+            ++readable;
+        }
+
+        @Override
+        public void writableET() {
+            ++writable;
+        }
+    }
+
+    private static void write(RingBuffer buf, int len) {
+        buf.writeTo(ByteArrayChannel.fromEmpty(new byte[len]));
+    }
+
+    @Test
+    public void defaultWatermarks() {
+        SimpleRingBuffer buf = RingBuffer.allocate(100);
+        CountingETHandler h = new CountingETHandler();
+        buf.addHandler(h);
+
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[99]));
+        assertFalse(buf.reachedHighWatermark());
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[1]));
+        assertTrue("should reach the high watermark when full", buf.reachedHighWatermark());
+
+        write(buf, 1);
+        assertEquals("should fire as soon as there's free space", 1, h.writable);
+        write(buf, 1);
+        assertEquals(1, h.writable);
+    }
+
+    @Test
+    public void highAndLowWatermarks() {
+        SimpleRingBuffer buf = RingBuffer.allocate(100);
+        buf.setWatermarks(80, 20);
+        CountingETHandler h = new CountingETHandler();
+        buf.addHandler(h);
+
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[79]));
+        assertFalse(buf.reachedHighWatermark());
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[1]));
+        assertTrue(buf.reachedHighWatermark());
+
+        write(buf, 30);
+        assertEquals("should not fire above the low watermark", 0, h.writable);
+        write(buf, 29);
+        assertEquals(0, h.writable);
+        write(buf, 1);
+        assertEquals("should fire when falling to the low watermark", 1, h.writable);
+        write(buf, 10);
+        assertEquals("should not fire again below the low watermark", 1, h.writable);
+
+        // wraps around
+        buf.storeBytesFrom(ByteArrayChannel.fromFull(new byte[90]));
+        assertTrue(buf.reachedHighWatermark());
+        write(buf, 100);
+        assertEquals(0, buf.used());
+        assertEquals(2, h.writable);
+
+        try {
+            buf.setWatermarks(50, 60);
+            fail();
+        } catch (IllegalArgumentException ignore) {
+        }
+    }
+
+    @Test
+    public void interestOpsChangeCount() throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        try {
+            loop.add(pipe.source(), 0, null, new Handler<Pipe.SourceChannel>() {
+                @Override
+                public void accept(HandlerContext<Pipe.SourceChannel> ctx) {
+                }
+
+                @Override
+                public void connected(HandlerContext<Pipe.SourceChannel> ctx) {
+                }
+
+                @Override
+                public void readable(HandlerContext<Pipe.SourceChannel> ctx) {
+                }
+
+                @Override
+                public void writable(HandlerContext<Pipe.SourceChannel> ctx) {
+                }
+
+                @Override
+                public void removed(HandlerContext<Pipe.SourceChannel> ctx) {
+                }
+            });
+            long before = loop.getInterestOpsChangeCount();
+            loop.addOps(pipe.source(), SelectionKey.OP_READ);
+            loop.addOps(pipe.source(), SelectionKey.OP_READ);
+            assertEquals("adding the same ops again should not be counted", before + 1, loop.getInterestOpsChangeCount());
+            loop.rmOps(pipe.source(), SelectionKey.OP_READ);
+            loop.rmOps(pipe.source(), SelectionKey.OP_READ);
+            assertEquals(before + 2, loop.getInterestOpsChangeCount());
+            assertEquals(0, loop.getOps(pipe.source()));
+        } finally {
+            loop.close();
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+    @Test
+    public void addOpsRaceFromTwoThreads() throws Exception {
+        SelectorEventLoop loop = SelectorEventLoop.open();
+        loop.loop(r -> new Thread(r, "addOpsRaceFromTwoThreads"));
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        CountDownLatch readable = new CountDownLatch(1);
+        try {
+            loop.add(pipe.source(), 0, null, new Handler<Pipe.SourceChannel>() {
+                @Override
+                public void accept(HandlerContext<Pipe.SourceChannel> ctx) {
+                }
+
+                @Override
+                public void connected(HandlerContext<Pipe.SourceChannel> ctx) {
+                }
+
+                @Override
+                public void readable(HandlerContext<Pipe.SourceChannel> ctx) {
+                    readable.countDown();
+                    ctx.rmOps(SelectionKey.OP_READ);
+                }
+
+                @Override
+                public void writable(HandlerContext<Pipe.SourceChannel> ctx) {
+                }
+
+                @Override
+                public void removed(HandlerContext<Pipe.SourceChannel> ctx) {
+                }
+            });
+
+            // the loop thread and other threads flip the same bit at the same time
+            // and all of them end with addOps
+            for (int round = 0; round < 20; ++round) {
+                CountDownLatch done = new CountDownLatch(3);
+                Runnable flip = () -> {
+                    for (int i = 0; i < 5000; ++i) {
+                        loop.rmOps(pipe.source(), SelectionKey.OP_READ);
+                        loop.addOps(pipe.source(), SelectionKey.OP_READ);
+                    }
+                    done.countDown();
+                };
+                loop.nextTick(flip);
+                Thread t1 = new Thread(flip);
+                Thread t2 = new Thread(flip);
+                t1.start();
+                t2.start();
+                assertTrue(done.await(30, TimeUnit.SECONDS));
+                t1.join();
+                t2.join();
+            }
+            assertEquals(SelectionKey.OP_READ, loop.getOps(pipe.source()));
+
+            // the key should really have OP_READ, otherwise readable never fires
+            pipe.sink().write(ByteBuffer.wrap(new byte[]{1}));
+            assertTrue("readable should fire", readable.await(2, TimeUnit.SECONDS));
+        } finally {
+            loop.close();
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+}
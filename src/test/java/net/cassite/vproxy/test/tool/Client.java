@@ -19,9 +19,12 @@ public class Client {
     }
 
     public String sendAndRecv(String data, int recvLen) throws IOException {
-        StringBuilder sb = new StringBuilder();
-
         socket.getOutputStream().write(data.getBytes());
+        return recv(recvLen);
+    }
+
+    public String recv(int recvLen) throws IOException {
+        StringBuilder sb = new StringBuilder();
         byte[] buf = new byte[4096];
 
         while (true) {